@@ -0,0 +1,76 @@
+package com.nmote.rongo.benchmarks;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.bson.BsonDocument;
+import org.bson.Document;
+import org.bson.codecs.BsonValueCodecProvider;
+import org.bson.codecs.DocumentCodecProvider;
+import org.bson.codecs.ValueCodecProvider;
+import org.bson.codecs.configuration.CodecRegistries;
+import org.bson.codecs.configuration.CodecRegistry;
+import org.bson.types.ObjectId;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.nmote.rongo.Rongo;
+import com.nmote.rongo.RongoTemplate;
+
+/**
+ * Binds a typical filter through {@link Rongo#bind(String, Map)} and
+ * {@link Rongo#bind(Map, Map)}, and through a compiled {@link RongoTemplate}
+ * encoded to BSON as the driver would.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class BindBenchmark {
+
+    private static final String FILTER = "{ owner: ':owner', age: { $gt: ':age' }, tags: { $in: [':tag', 'x'] },"
+            + " active: true, kind: 'sample' }";
+
+    @Benchmark
+    public Document bindMap() {
+        return Rongo.bind(map, parameters);
+    }
+
+    @Benchmark
+    public Document bindString() {
+        return Rongo.bind(FILTER, parameters);
+    }
+
+    @Benchmark
+    public BsonDocument bindTemplate() {
+        return template.bind(parameters).toBsonDocument(BsonDocument.class, registry);
+    }
+
+    @Setup
+    public void setup() {
+        map = Document.parse(FILTER);
+        parameters = new HashMap<>();
+        parameters.put("owner", new ObjectId());
+        parameters.put("age", 42);
+        parameters.put("tag", "red");
+        registry = CodecRegistries.fromProviders(new ValueCodecProvider(), new BsonValueCodecProvider(),
+                new DocumentCodecProvider());
+        template = RongoTemplate.compile(FILTER);
+    }
+
+    private Map<String, Object> map;
+    private Map<String, Object> parameters;
+    private CodecRegistry registry;
+    private RongoTemplate template;
+}
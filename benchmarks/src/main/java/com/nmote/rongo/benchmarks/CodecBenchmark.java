@@ -0,0 +1,73 @@
+package com.nmote.rongo.benchmarks;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.bson.BsonBinaryReader;
+import org.bson.BsonBinaryWriter;
+import org.bson.codecs.Codec;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.EncoderContext;
+import org.bson.io.BasicOutputBuffer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.nmote.rongo.JacksonCodec;
+import com.nmote.rongo.Rongo;
+import com.nmote.rongo.SpecializedCodec;
+
+/**
+ * Compares {@link JacksonCodec} with {@link SpecializedCodec} encoding and
+ * decoding {@link Sample} POJOs.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class CodecBenchmark {
+
+    @Benchmark
+    public Sample decode() {
+        return codec.decode(new BsonBinaryReader(ByteBuffer.wrap(bytes)), DecoderContext.builder().build());
+    }
+
+    @Benchmark
+    public int encode() {
+        BasicOutputBuffer out = new BasicOutputBuffer();
+        codec.encode(new BsonBinaryWriter(out), sample, EncoderContext.builder().build());
+        return out.getPosition();
+    }
+
+    @Setup
+    public void setup() {
+        ObjectMapper mapper = Rongo.createObjectMapper(null);
+        codec = "specialized".equals(kind) ? SpecializedCodec.create(mapper, Sample.class)
+                : new JacksonCodec<>(mapper, Sample.class);
+        if (codec == null) {
+            throw new IllegalStateException("Sample isn't supported by SpecializedCodec");
+        }
+        sample = Sample.create(1);
+        BasicOutputBuffer out = new BasicOutputBuffer();
+        codec.encode(new BsonBinaryWriter(out), sample, EncoderContext.builder().build());
+        bytes = out.toByteArray();
+    }
+
+    @Param({ "jackson", "specialized" })
+    public String kind;
+
+    private byte[] bytes;
+    private Codec<Sample> codec;
+    private Sample sample;
+}
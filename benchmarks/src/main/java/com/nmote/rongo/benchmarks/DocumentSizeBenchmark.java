@@ -0,0 +1,109 @@
+package com.nmote.rongo.benchmarks;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.bson.BsonBinaryReader;
+import org.bson.BsonBinaryWriter;
+import org.bson.Document;
+import org.bson.codecs.Codec;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.DocumentCodec;
+import org.bson.codecs.EncoderContext;
+import org.bson.io.BasicOutputBuffer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.nmote.rongo.JacksonCodec;
+import com.nmote.rongo.Rongo;
+import com.nmote.rongo.SpecializedCodec;
+
+/**
+ * Compares {@link JacksonCodec} and {@link SpecializedCodec} with driver's
+ * {@link DocumentCodec} on small, medium and large documents. All codecs
+ * read and write the same bytes.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class DocumentSizeBenchmark {
+
+    @Benchmark
+    public Object decode() {
+        return codec.decode(new BsonBinaryReader(ByteBuffer.wrap(bytes)), DecoderContext.builder().build());
+    }
+
+    @Benchmark
+    public int encode() {
+        BasicOutputBuffer out = new BasicOutputBuffer(bytes.length);
+        codec.encode(new BsonBinaryWriter(out), value, EncoderContext.builder().build());
+        return out.getPosition();
+    }
+
+    @SuppressWarnings("unchecked")
+    @Setup
+    public void setup() {
+        int tags;
+        switch (size) {
+        case "small":
+            tags = 3;
+            break;
+        case "medium":
+            tags = 100;
+            break;
+        case "large":
+            tags = 10000;
+            break;
+        default:
+            throw new IllegalArgumentException(size);
+        }
+        ObjectMapper mapper = Rongo.createObjectMapper(null);
+        Codec<Sample> jackson = new JacksonCodec<>(mapper, Sample.class);
+        Sample sample = Sample.create(1, tags);
+        BasicOutputBuffer out = new BasicOutputBuffer();
+        jackson.encode(new BsonBinaryWriter(out), sample, EncoderContext.builder().build());
+        bytes = out.toByteArray();
+        switch (kind) {
+        case "jackson":
+            codec = (Codec<Object>) (Codec<?>) jackson;
+            value = sample;
+            break;
+        case "specialized":
+            codec = (Codec<Object>) (Codec<?>) SpecializedCodec.create(mapper, Sample.class);
+            value = sample;
+            break;
+        case "document":
+            codec = (Codec<Object>) (Codec<?>) new DocumentCodec();
+            value = codec.decode(new BsonBinaryReader(ByteBuffer.wrap(bytes)), DecoderContext.builder().build());
+            break;
+        default:
+            throw new IllegalArgumentException(kind);
+        }
+        if (codec == null) {
+            throw new IllegalStateException("Sample isn't supported by SpecializedCodec");
+        }
+    }
+
+    @Param({ "jackson", "specialized", "document" })
+    public String kind;
+
+    @Param({ "small", "medium", "large" })
+    public String size;
+
+    private byte[] bytes;
+    private Codec<Object> codec;
+    private Object value;
+}
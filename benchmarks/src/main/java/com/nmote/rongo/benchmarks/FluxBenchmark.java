@@ -0,0 +1,192 @@
+package com.nmote.rongo.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import com.mongodb.async.AsyncBatchCursor;
+import com.mongodb.async.SingleResultCallback;
+import com.nmote.rongo.CursorPublisher;
+import com.nmote.rongo.PrefetchPolicy;
+import com.nmote.rongo.Rongo;
+
+/**
+ * Streams documents of an in-memory cursor through {@link Rongo#flux} and
+ * {@link Rongo#fluxBatches}, measuring {@link CursorPublisher} overhead per
+ * document under different downstream request patterns.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FluxBenchmark {
+
+    private static final int DOCUMENTS = 10000;
+
+    @Benchmark
+    @OperationsPerInvocation(DOCUMENTS)
+    public long flux(Prefetched state, Blackhole blackhole) {
+        PrefetchPolicy policy = "fixed".equals(state.prefetch) ? PrefetchPolicy.fixed(101) : new PrefetchPolicy();
+        return drain(Rongo.flux(new MemoryCursor(state.documents), policy), state.request, blackhole);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(DOCUMENTS)
+    public long fluxBatches(Documents state, Blackhole blackhole) {
+        return drain(Rongo.fluxBatches(new MemoryCursor(state.documents)), state.request, blackhole);
+    }
+
+    private static long drain(Publisher<?> publisher, long request, Blackhole blackhole) {
+        // Cursor calls back synchronously, so publisher completes within subscribe
+        DrainSubscriber subscriber = new DrainSubscriber(blackhole, request);
+        publisher.subscribe(subscriber);
+        if (!subscriber.done) {
+            throw new IllegalStateException("not completed");
+        }
+        return subscriber.received;
+    }
+
+    /**
+     * Documents to stream and downstream request pattern.
+     */
+    @State(Scope.Thread)
+    public static class Documents {
+
+        @Setup
+        public void setup() {
+            documents = new ArrayList<>(DOCUMENTS);
+            for (int i = 0; i < DOCUMENTS; ++i) {
+                documents.add(Integer.valueOf(i));
+            }
+            request = "unbounded".equals(demand) ? Long.MAX_VALUE : Long.parseLong(demand);
+        }
+
+        @Param({ "1", "64", "unbounded" })
+        public String demand;
+
+        List<Object> documents;
+        long request;
+    }
+
+    /**
+     * Documents with prefetch policy, which only applies to
+     * {@link Rongo#flux}.
+     */
+    @State(Scope.Thread)
+    public static class Prefetched extends Documents {
+
+        @Param({ "adaptive", "fixed" })
+        public String prefetch;
+    }
+
+    /**
+     * Cursor returning batches of a list, sized as requested.
+     */
+    private static final class MemoryCursor implements AsyncBatchCursor<Object> {
+
+        MemoryCursor(List<Object> documents) {
+            this.documents = documents;
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+        }
+
+        @Override
+        public int getBatchSize() {
+            return batchSize;
+        }
+
+        @Override
+        public boolean isClosed() {
+            return closed;
+        }
+
+        @Override
+        public void next(SingleResultCallback<List<Object>> callback) {
+            if (position == documents.size()) {
+                callback.onResult(null, null);
+            } else {
+                int end = Math.min(position + (batchSize > 0 ? batchSize : 101), documents.size());
+                List<Object> batch = documents.subList(position, end);
+                position = end;
+                callback.onResult(batch, null);
+            }
+        }
+
+        @Override
+        public void setBatchSize(int batchSize) {
+            this.batchSize = batchSize;
+        }
+
+        private int batchSize;
+        private boolean closed;
+        private final List<Object> documents;
+        private int position;
+    }
+
+    /**
+     * Requests documents in chunks, requesting the next chunk when previous
+     * was received.
+     */
+    private static final class DrainSubscriber implements Subscriber<Object> {
+
+        DrainSubscriber(Blackhole blackhole, long request) {
+            this.blackhole = blackhole;
+            this.request = request;
+        }
+
+        @Override
+        public void onComplete() {
+            done = true;
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            throw new IllegalStateException(t);
+        }
+
+        @Override
+        public void onNext(Object document) {
+            blackhole.consume(document);
+            ++received;
+            if (request != Long.MAX_VALUE && --outstanding == 0) {
+                outstanding = request;
+                subscription.request(request);
+            }
+        }
+
+        @Override
+        public void onSubscribe(Subscription s) {
+            subscription = s;
+            outstanding = request;
+            s.request(request);
+        }
+
+        private final Blackhole blackhole;
+        private boolean done;
+        private long outstanding;
+        private long received;
+        private final long request;
+        private Subscription subscription;
+    }
+}
@@ -0,0 +1,40 @@
+package com.nmote.rongo.benchmarks;
+
+import java.io.IOException;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs benchmarks like JMH main, always adding <code>-prof gc</code> so that
+ * each suite reports bytes allocated per operation.
+ */
+public class Main {
+
+    public static void main(String[] args) throws CommandLineOptionException, IOException, RunnerException {
+        CommandLineOptions cmd = new CommandLineOptions(args);
+        if (cmd.shouldHelp()) {
+            cmd.showHelp();
+            return;
+        }
+        boolean profiled = cmd.getProfilers().stream()
+                .anyMatch(p -> GCProfiler.class.getName().equals(p.getKlass()));
+        OptionsBuilder builder = new OptionsBuilder();
+        builder.parent(cmd);
+        if (!profiled) {
+            builder.addProfiler(GCProfiler.class);
+        }
+        Options options = builder.build();
+        Runner runner = new Runner(options);
+        if (cmd.shouldList()) {
+            runner.list();
+        } else {
+            runner.run();
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package com.nmote.rongo.benchmarks;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.bson.BsonBinaryReader;
+import org.bson.BsonBinaryWriter;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.EncoderContext;
+import org.bson.io.BasicOutputBuffer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.nmote.rongo.JacksonCodec;
+import com.nmote.rongo.Rongo;
+
+/**
+ * Object id heavy encode and decode of {@link Sample} POJOs through
+ * {@link JacksonCodec}, the path driver takes. Hex string ids are read and
+ * written through the BSON reader and writer as ObjectIds. Run with
+ * <code>-prof gc</code> to see bytes allocated per document.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ObjectIdBenchmark {
+
+    @Benchmark
+    public Sample decode() {
+        return codec.decode(new BsonBinaryReader(ByteBuffer.wrap(bytes)), DecoderContext.builder().build());
+    }
+
+    @Benchmark
+    public int encode() {
+        BasicOutputBuffer out = new BasicOutputBuffer();
+        codec.encode(new BsonBinaryWriter(out), sample, EncoderContext.builder().build());
+        return out.getPosition();
+    }
+
+    @Setup
+    public void setup() {
+        codec = new JacksonCodec<>(Rongo.createObjectMapper(null), Sample.class);
+        sample = Sample.create(1);
+        BasicOutputBuffer out = new BasicOutputBuffer();
+        codec.encode(new BsonBinaryWriter(out), sample, EncoderContext.builder().build());
+        bytes = out.toByteArray();
+    }
+
+    private byte[] bytes;
+    private JacksonCodec<Sample> codec;
+    private Sample sample;
+}
@@ -0,0 +1,64 @@
+package com.nmote.rongo.benchmarks;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+import org.bson.types.ObjectId;
+
+import com.nmote.rongo.MongoId;
+import com.nmote.rongo.MongoObjectId;
+
+/**
+ * Typical annotated POJO used across benchmarks.
+ */
+public class Sample {
+
+    public static Sample create(int i) {
+        Sample s = create(i, 0);
+        s.tags.addAll(Arrays.asList("a", "b", "c"));
+        return s;
+    }
+
+    /**
+     * Creates sample sized by number of tags.
+     *
+     * @param i
+     *            sample number
+     * @param tags
+     *            number of tags
+     * @return sample
+     */
+    public static Sample create(int i, int tags) {
+        Sample s = new Sample();
+        s.id = new ObjectId().toHexString();
+        s.ownerId = new ObjectId();
+        s.name = "sample-" + i;
+        s.description = "Lorem ipsum dolor sit amet, consectetur adipiscing elit " + i;
+        s.count = i;
+        s.size = 1024L * i;
+        s.score = i / 3.0;
+        s.active = (i & 1) == 0;
+        s.created = new Date(1480000000000L + i);
+        s.tags = new ArrayList<>(tags);
+        for (int t = 0; t < tags; ++t) {
+            s.tags.add("tag-" + t);
+        }
+        return s;
+    }
+
+    public boolean active;
+    public int count;
+    public Date created;
+    public String description;
+    @MongoId
+    @MongoObjectId
+    public String id;
+    public String name;
+    @MongoObjectId
+    public ObjectId ownerId;
+    public double score;
+    public long size;
+    public List<String> tags;
+}
@@ -0,0 +1,91 @@
+package com.nmote.rongo.benchmarks;
+
+import java.io.IOException;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+import org.bson.types.Binary;
+import org.bson.types.ObjectId;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.nmote.rongo.Rongo;
+
+/**
+ * Encodes and decodes a document holding a single ObjectId, Binary or Date,
+ * isolating cost of their serializers and deserializers.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class SerializerBenchmark {
+
+    public static class BinaryValue {
+
+        public Binary value = new Binary((byte) 0, new byte[256]);
+    }
+
+    public static class DateValue {
+
+        public Date value = new Date(1480000000000L);
+    }
+
+    public static class ObjectIdValue {
+
+        public ObjectId value = new ObjectId();
+    }
+
+    @Benchmark
+    public Object decode() throws IOException {
+        return reader.readValue(bytes);
+    }
+
+    @Benchmark
+    public byte[] encode() throws IOException {
+        return writer.writeValueAsBytes(value);
+    }
+
+    @Setup
+    public void setup() throws IOException {
+        switch (type) {
+        case "objectId":
+            value = new ObjectIdValue();
+            break;
+        case "binary":
+            value = new BinaryValue();
+            break;
+        case "date":
+            value = new DateValue();
+            break;
+        default:
+            throw new IllegalArgumentException(type);
+        }
+        ObjectMapper mapper = Rongo.createObjectMapper(null);
+        reader = mapper.readerFor(value.getClass());
+        writer = mapper.writerFor(value.getClass());
+        bytes = writer.writeValueAsBytes(value);
+    }
+
+    @Param({ "objectId", "binary", "date" })
+    public String type;
+
+    private byte[] bytes;
+    private ObjectReader reader;
+    private Object value;
+    private ObjectWriter writer;
+}
@@ -0,0 +1,140 @@
+package com.nmote.rongo;
+
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+
+import org.bson.BsonDocument;
+import org.bson.BsonInt32;
+
+import com.fasterxml.jackson.annotation.JsonTypeInfo;
+import com.fasterxml.jackson.databind.AnnotationIntrospector;
+import com.fasterxml.jackson.databind.BeanDescription;
+import com.fasterxml.jackson.databind.DeserializationConfig;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.databind.JsonDeserializer;
+import com.fasterxml.jackson.databind.JsonMappingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.deser.BeanDeserializerBase;
+import com.fasterxml.jackson.databind.deser.DefaultDeserializationContext;
+import com.fasterxml.jackson.databind.deser.SettableBeanProperty;
+import com.fasterxml.jackson.databind.deser.std.CollectionDeserializer;
+import com.fasterxml.jackson.databind.deser.std.ObjectArrayDeserializer;
+import com.fasterxml.jackson.databind.introspect.AnnotatedMember;
+import com.fasterxml.jackson.databind.introspect.BeanPropertyDefinition;
+
+/**
+ * Derives inclusion projection from properties Jackson deserializes, as
+ * resolved by the mapper, so names follow {@link MongoId}, naming strategies
+ * and mix-ins. Embedded beans, directly or in arrays and collections, are
+ * projected by their properties too. Values Jackson can't describe by a fixed
+ * set of properties (maps, polymorphic types, custom deserializers, any
+ * setters and unwrapped properties) are included whole.
+ */
+final class AutoProjection {
+
+    private static final String ID = "_id";
+
+    /** Embedded documents nested deeper are included whole */
+    private static final int MAX_DEPTH = 8;
+
+    private static final BsonInt32 INCLUDE = new BsonInt32(1);
+
+    /**
+     * Creates projection for type, or returns null when all fields may be
+     * needed.
+     */
+    static BsonDocument create(ObjectMapper mapper, Class<?> type) {
+        DeserializationConfig config = mapper.getDeserializationConfig();
+        DeserializationContext context = ((DefaultDeserializationContext) mapper.getDeserializationContext())
+                .createInstance(config, null, mapper.getInjectableValues());
+        JavaType javaType = mapper.constructType(type);
+        try {
+            if (polymorphic(context, javaType)) {
+                return null;
+            }
+            BsonDocument result = new BsonDocument();
+            if (!project(context, context.findRootValueDeserializer(javaType), "", result, new HashSet<>())
+                    || result.isEmpty()) {
+                return null;
+            }
+            if (!result.containsKey(ID)) {
+                // Not mapped, don't transfer it either
+                result.put(ID, new BsonInt32(0));
+            }
+            return result;
+        } catch (JsonMappingException e) {
+            return null;
+        }
+    }
+
+    private static JsonDeserializer<?> content(JsonDeserializer<?> deserializer) {
+        if (deserializer instanceof CollectionDeserializer) {
+            return ((CollectionDeserializer) deserializer).getContentDeserializer();
+        } else if (deserializer instanceof ObjectArrayDeserializer) {
+            return ((ObjectArrayDeserializer) deserializer).getContentDeserializer();
+        }
+        return deserializer;
+    }
+
+    private static boolean polymorphic(DeserializationContext context, JavaType type) throws JsonMappingException {
+        return type != null && context.getFactory().findTypeDeserializer(context.getConfig(), type) != null;
+    }
+
+    /**
+     * Adds properties of bean deserializer to projection, returning false if
+     * deserializer isn't for a bean with a fixed set of properties.
+     */
+    private static boolean project(DeserializationContext context, JsonDeserializer<?> deserializer, String prefix,
+            BsonDocument projection, Set<Class<?>> path) throws JsonMappingException {
+        if (!(deserializer instanceof BeanDeserializerBase)) {
+            return false;
+        }
+        BeanDeserializerBase bean = (BeanDeserializerBase) deserializer;
+        Class<?> type = bean.handledType();
+        if (path.size() >= MAX_DEPTH || path.contains(type) || !projectable(context, bean)) {
+            return false;
+        }
+        path.add(type);
+        for (Iterator<SettableBeanProperty> i = bean.properties(); i.hasNext();) {
+            SettableBeanProperty p = i.next();
+            String name = prefix + p.getName();
+            int size = projection.size();
+            boolean whole = ID.equals(name) || p.hasValueTypeDeserializer()
+                    || polymorphic(context, p.getType().getContentType())
+                    || !project(context, content(p.getValueDeserializer()), name + ".", projection, path)
+                    || projection.size() == size;
+            if (whole) {
+                projection.put(name, INCLUDE);
+            }
+        }
+        path.remove(type);
+        return true;
+    }
+
+    private static boolean projectable(DeserializationContext context, BeanDeserializerBase bean) {
+        BeanDescription description = context.getConfig().introspect(context.constructType(bean.handledType()));
+        if (description.findAnySetter() != null || description.findAnySetterField() != null) {
+            return false;
+        }
+        AnnotationIntrospector introspector = context.getAnnotationIntrospector();
+        for (BeanPropertyDefinition p : description.findProperties()) {
+            AnnotatedMember member = p.getPrimaryMember();
+            if (member != null && introspector.findUnwrappingNameTransformer(member) != null) {
+                return false;
+            }
+        }
+        for (Iterator<SettableBeanProperty> i = bean.properties(); i.hasNext();) {
+            SettableBeanProperty p = i.next();
+            if (p.getName().indexOf('.') >= 0 || p.getName().startsWith("$") || (p.hasValueTypeDeserializer()
+                    && p.getValueTypeDeserializer().getTypeInclusion() == JsonTypeInfo.As.EXTERNAL_PROPERTY)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private AutoProjection() {
+    }
+}
@@ -0,0 +1,275 @@
+package com.nmote.rongo;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import org.bson.BsonArray;
+import org.bson.BsonDocument;
+import org.bson.BsonValue;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.Codec;
+
+import com.mongodb.async.client.MongoCollection;
+
+import reactor.core.Cancellation;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.MonoSink;
+import reactor.core.scheduler.Schedulers;
+
+/**
+ * Batches lookups by a key field. Keys requested within a short window are
+ * de-duplicated and fetched by a single <code>$in</code> query, and each
+ * document is routed back to callers which asked for its key.
+ *
+ * <pre>
+ * BatchLoader&lt;Instance&gt; byId = instances.loader();
+ * Mono&lt;Instance&gt; a = byId.load(id1);
+ * Mono&lt;Instance&gt; b = byId.load(id2); // same query as a
+ * </pre>
+ *
+ * Keys are compared as BSON values, so they should be of the same type as
+ * stored ones, e.g. a long key won't match an int field. Documents are
+ * decoded once per batch and shared by callers asking for the same key.
+ *
+ * @param <T>
+ *            document type
+ */
+public final class BatchLoader<T> {
+
+    public static final int DEFAULT_MAX_BATCH_SIZE = 100;
+
+    public static final long DEFAULT_MAX_LATENCY = 2;
+
+    BatchLoader(MongoCollection<T> collection, String field, Function<Object, BsonValue> keyEncoder) {
+        Objects.requireNonNull(collection);
+        Objects.requireNonNull(field);
+        this.collection = collection;
+        this.field = field;
+        this.path = field.split("\\.");
+        this.keyEncoder = keyEncoder;
+        this.raw = BulkWriter.raw(collection);
+    }
+
+    /**
+     * Sends pending lookups now, without waiting for maximum latency to pass.
+     */
+    public void flush() {
+        Map<BsonValue, List<Waiter<T>>> batch;
+        synchronized (this) {
+            batch = take();
+        }
+        if (batch != null) {
+            send(batch);
+        }
+    }
+
+    public String getField() {
+        return field;
+    }
+
+    public int getMaxBatchSize() {
+        return maxBatchSize;
+    }
+
+    public long getMaxLatency() {
+        return maxLatency;
+    }
+
+    /**
+     * Loads a document with given key. If more documents share the key, any
+     * one of them is returned.
+     *
+     * @param key
+     *            key field value
+     * @return document or empty if not found
+     */
+    public Mono<T> load(Object key) {
+        BsonValue k = keyEncoder.apply(key);
+        return Mono.<List<T>> create(sink -> add(k, sink))
+                .then(documents -> documents.isEmpty() ? Mono.empty() : Mono.just(documents.get(0)));
+    }
+
+    /**
+     * Loads all documents with given key.
+     *
+     * @param key
+     *            key field value
+     * @return documents, empty list if none
+     */
+    public Mono<List<T>> loadMany(Object key) {
+        BsonValue k = keyEncoder.apply(key);
+        return Mono.create(sink -> add(k, sink));
+    }
+
+    /**
+     * Sets maximum number of distinct keys fetched by a single query.
+     *
+     * @param maxBatchSize
+     *            number of keys
+     * @return this
+     */
+    public BatchLoader<T> setMaxBatchSize(int maxBatchSize) {
+        if (maxBatchSize < 1) {
+            throw new IllegalArgumentException("maxBatchSize < 1");
+        }
+        this.maxBatchSize = maxBatchSize;
+        return this;
+    }
+
+    /**
+     * Sets how long in milliseconds the first key of a batch waits for others
+     * to join.
+     *
+     * @param maxLatency
+     *            milliseconds
+     * @return this
+     */
+    public BatchLoader<T> setMaxLatency(long maxLatency) {
+        if (maxLatency < 0) {
+            throw new IllegalArgumentException("maxLatency < 0");
+        }
+        this.maxLatency = maxLatency;
+        return this;
+    }
+
+    @Override
+    public String toString() {
+        return "BatchLoader{field=" + field + ", maxBatchSize=" + maxBatchSize + ", maxLatency=" + maxLatency + "}";
+    }
+
+    private void add(BsonValue key, MonoSink<List<T>> sink) {
+        Map<BsonValue, List<Waiter<T>>> batch = null;
+        Waiter<T> waiter = new Waiter<>(sink);
+        synchronized (this) {
+            List<Waiter<T>> waiters = pending.get(key);
+            if (waiters == null) {
+                waiters = new ArrayList<>(1);
+                pending.put(key, waiters);
+            }
+            waiters.add(waiter);
+            if (pending.size() >= maxBatchSize || maxLatency == 0) {
+                batch = take();
+            } else if (pending.size() == 1 && waiters.size() == 1) {
+                long g = generation;
+                timer = Schedulers.timer().schedule(() -> expired(g), maxLatency, TimeUnit.MILLISECONDS);
+            }
+        }
+        sink.setCancellation(() -> waiter.cancelled = true);
+        if (batch != null) {
+            send(batch);
+        }
+    }
+
+    private void expired(long generation) {
+        Map<BsonValue, List<Waiter<T>>> batch = null;
+        synchronized (this) {
+            if (generation == this.generation) {
+                batch = take();
+            }
+        }
+        if (batch != null) {
+            send(batch);
+        }
+    }
+
+    /**
+     * Returns values of field in document, elements of an array are keys on
+     * their own.
+     */
+    private List<BsonValue> keys(BsonDocument document) {
+        BsonValue value = document;
+        for (String name : path) {
+            value = value.isDocument() ? value.asDocument().get(name) : null;
+            if (value == null) {
+                return Collections.emptyList();
+            }
+        }
+        if (value.isArray()) {
+            List<BsonValue> result = new ArrayList<>(value.asArray().getValues());
+            result.add(value);
+            return result;
+        }
+        return Collections.singletonList(value);
+    }
+
+    private void send(Map<BsonValue, List<Waiter<T>>> batch) {
+        // Keys no one waits for anymore aren't fetched
+        batch.values().removeIf(waiters -> waiters.stream().allMatch(w -> w.cancelled));
+        if (batch.isEmpty()) {
+            return;
+        }
+        BsonDocument filter = new BsonDocument(field,
+                new BsonDocument("$in", new BsonArray(new ArrayList<>(batch.keySet()))));
+        Codec<T> codec = collection.getCodecRegistry().get(collection.getDocumentClass());
+        Map<BsonValue, List<T>> found = new HashMap<>();
+        Rongo.flux(raw.find(filter), Rongo.getPrefetchPolicy()).subscribe(document -> {
+            T decoded = null;
+            for (BsonValue key : keys(document)) {
+                if (batch.containsKey(key)) {
+                    if (decoded == null) {
+                        decoded = document.decode(codec);
+                    }
+                    found.computeIfAbsent(key, k -> new ArrayList<>(1)).add(decoded);
+                }
+            }
+        }, t -> {
+            for (List<Waiter<T>> waiters : batch.values()) {
+                for (Waiter<T> waiter : waiters) {
+                    waiter.sink.error(t);
+                }
+            }
+        }, () -> {
+            for (Map.Entry<BsonValue, List<Waiter<T>>> e : batch.entrySet()) {
+                List<T> documents = found.getOrDefault(e.getKey(), Collections.emptyList());
+                for (Waiter<T> waiter : e.getValue()) {
+                    waiter.sink.success(documents);
+                }
+            }
+        });
+    }
+
+    /**
+     * Takes pending keys, returning null if there are none.
+     */
+    private Map<BsonValue, List<Waiter<T>>> take() {
+        ++generation;
+        if (timer != null) {
+            timer.dispose();
+            timer = null;
+        }
+        if (pending.isEmpty()) {
+            return null;
+        }
+        Map<BsonValue, List<Waiter<T>>> result = pending;
+        pending = new LinkedHashMap<>();
+        return result;
+    }
+
+    private static final class Waiter<T> {
+
+        Waiter(MonoSink<List<T>> sink) {
+            this.sink = sink;
+        }
+
+        volatile boolean cancelled;
+        final MonoSink<List<T>> sink;
+    }
+
+    private final MongoCollection<T> collection;
+    private final String field;
+    private long generation;
+    private final Function<Object, BsonValue> keyEncoder;
+    private volatile int maxBatchSize = DEFAULT_MAX_BATCH_SIZE;
+    private volatile long maxLatency = DEFAULT_MAX_LATENCY;
+    private final String[] path;
+    private Map<BsonValue, List<Waiter<T>>> pending = new LinkedHashMap<>();
+    private final MongoCollection<RawBsonDocument> raw;
+    private Cancellation timer;
+}
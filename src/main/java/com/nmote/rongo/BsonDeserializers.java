@@ -27,6 +27,7 @@ import org.bson.types.ObjectId;
 import com.fasterxml.jackson.core.Base64Variants;
 import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.core.TreeNode;
 import com.fasterxml.jackson.databind.DeserializationContext;
 import com.fasterxml.jackson.databind.JsonDeserializer;
@@ -151,12 +152,23 @@ class BsonDeserializers extends SimpleDeserializers {
         @Override
         public ObjectId deserialize(JsonParser jp, DeserializationContext ctxt)
                 throws IOException, JsonProcessingException {
-            TreeNode tree = jp.getCodec().readTree(jp);
-            if (tree.isObject()) {
-                String hexString = ((ValueNode) tree.get("$oid")).asText();
-                return new ObjectId(hexString);
-            } else if (tree instanceof POJONode) {
-                return (ObjectId) ((POJONode) tree).getPojo();
+            JsonToken token = jp.getCurrentToken();
+            if (token == JsonToken.VALUE_EMBEDDED_OBJECT) {
+                return (ObjectId) jp.getEmbeddedObject();
+            } else if (token == JsonToken.START_OBJECT) {
+                String hexString = null;
+                while (jp.nextToken() == JsonToken.FIELD_NAME) {
+                    String name = jp.getCurrentName();
+                    jp.nextToken();
+                    if (hexString == null && "$oid".equals(name)) {
+                        hexString = jp.getText();
+                    } else {
+                        jp.skipChildren();
+                    }
+                }
+                if (hexString != null) {
+                    return new ObjectId(hexString);
+                }
             }
             return (ObjectId) ctxt.handleUnexpectedToken(ObjectId.class, jp);
         }
@@ -0,0 +1,538 @@
+package com.nmote.rongo;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.Date;
+import java.util.UUID;
+import java.util.regex.Pattern;
+
+import org.bson.BsonBinary;
+import org.bson.BsonBinarySubType;
+import org.bson.BsonReader;
+import org.bson.BsonRegularExpression;
+import org.bson.BsonTimestamp;
+import org.bson.BsonType;
+import org.bson.Document;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.DocumentCodec;
+import org.bson.types.Decimal128;
+
+import com.fasterxml.jackson.core.Base64Variant;
+import com.fasterxml.jackson.core.JsonLocation;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonStreamContext;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.ObjectCodec;
+import com.fasterxml.jackson.core.Version;
+import com.fasterxml.jackson.core.base.ParserMinimalBase;
+import com.fasterxml.jackson.core.json.JsonReadContext;
+
+import de.undercouch.bson4jackson.types.JavaScript;
+import de.undercouch.bson4jackson.types.Symbol;
+import de.undercouch.bson4jackson.types.Timestamp;
+
+/**
+ * Jackson parser reading tokens straight from a mongo driver
+ * {@link BsonReader}, without materializing the document into a byte array
+ * first. Produces the same token stream as {@link JongoBsonParser} so
+ * existing (de)serializers work unchanged.
+ *
+ * Scalar values are read lazily, a value which is never asked for (eg. an
+ * unknown property) is skipped by the reader without being decoded.
+ */
+class BsonReaderParser extends ParserMinimalBase {
+
+    private static final DocumentCodec SCOPE_CODEC = new DocumentCodec();
+
+    public BsonReaderParser(BsonReader reader, ObjectCodec codec) {
+        this.reader = reader;
+        this.codec = codec;
+        this.context = JsonReadContext.createRootContext(null);
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (!closed) {
+            closed = true;
+            // Leave reader positioned after the document we started with
+            if (started) {
+                skipPendingValue();
+                if (_currToken == JsonToken.FIELD_NAME) {
+                    reader.skipValue();
+                }
+                while (context.getParent() != null) {
+                    skipRemaining();
+                }
+            }
+        }
+    }
+
+    @Override
+    public byte[] getBinaryValue(Base64Variant b64variant) throws IOException {
+        loadValue();
+        if (_currToken == JsonToken.VALUE_EMBEDDED_OBJECT && embedded instanceof byte[]) {
+            return (byte[]) embedded;
+        }
+        if (_currToken == JsonToken.VALUE_STRING) {
+            try {
+                return b64variant.decode(text);
+            } catch (IllegalArgumentException e) {
+                throw new JsonParseException(this, e.getMessage(), e);
+            }
+        }
+        throw new JsonParseException(this, "Current token (" + _currToken + ") not VALUE_STRING or VALUE_EMBEDDED_OBJECT, can not access as binary");
+    }
+
+    @Override
+    public BigInteger getBigIntegerValue() throws IOException {
+        Number n = getNumberValue();
+        return n instanceof BigDecimal ? ((BigDecimal) n).toBigInteger() : BigInteger.valueOf(n.longValue());
+    }
+
+    @Override
+    public ObjectCodec getCodec() {
+        return codec;
+    }
+
+    @Override
+    public JsonLocation getCurrentLocation() {
+        return JsonLocation.NA;
+    }
+
+    @Override
+    public String getCurrentName() throws IOException {
+        if (_currToken == JsonToken.START_OBJECT || _currToken == JsonToken.START_ARRAY) {
+            JsonReadContext parent = context.getParent();
+            return parent != null ? parent.getCurrentName() : null;
+        }
+        return context.getCurrentName();
+    }
+
+    @Override
+    public BigDecimal getDecimalValue() throws IOException {
+        Number n = getNumberValue();
+        if (n instanceof BigDecimal) {
+            return (BigDecimal) n;
+        }
+        return numberType == NumberType.DOUBLE ? BigDecimal.valueOf(doubleValue) : BigDecimal.valueOf(longValue);
+    }
+
+    @Override
+    public double getDoubleValue() throws IOException {
+        loadNumber();
+        switch (numberType) {
+        case DOUBLE:
+            return doubleValue;
+        case BIG_DECIMAL:
+            return decimalValue.doubleValue();
+        default:
+            return longValue;
+        }
+    }
+
+    @Override
+    public Object getEmbeddedObject() throws IOException {
+        loadValue();
+        return _currToken == JsonToken.VALUE_EMBEDDED_OBJECT ? embedded : null;
+    }
+
+    @Override
+    public float getFloatValue() throws IOException {
+        return (float) getDoubleValue();
+    }
+
+    @Override
+    public int getIntValue() throws IOException {
+        loadNumber();
+        switch (numberType) {
+        case INT:
+            return (int) longValue;
+        case DOUBLE:
+            return (int) doubleValue;
+        case BIG_DECIMAL:
+            return decimalValue.intValue();
+        default:
+            if (longValue < Integer.MIN_VALUE || longValue > Integer.MAX_VALUE) {
+                _reportError("Numeric value (" + longValue + ") out of range of int");
+            }
+            return (int) longValue;
+        }
+    }
+
+    @Override
+    public long getLongValue() throws IOException {
+        loadNumber();
+        switch (numberType) {
+        case DOUBLE:
+            return (long) doubleValue;
+        case BIG_DECIMAL:
+            return decimalValue.longValue();
+        default:
+            return longValue;
+        }
+    }
+
+    @Override
+    public NumberType getNumberType() throws IOException {
+        loadNumber();
+        return numberType;
+    }
+
+    @Override
+    public Number getNumberValue() throws IOException {
+        loadNumber();
+        switch (numberType) {
+        case INT:
+            return (int) longValue;
+        case LONG:
+            return longValue;
+        case DOUBLE:
+            return doubleValue;
+        default:
+            return decimalValue;
+        }
+    }
+
+    @Override
+    public JsonStreamContext getParsingContext() {
+        return context;
+    }
+
+    @Override
+    public String getText() throws IOException {
+        if (_currToken == null) {
+            return null;
+        }
+        switch (_currToken) {
+        case FIELD_NAME:
+            return context.getCurrentName();
+        case VALUE_STRING:
+            loadValue();
+            return text;
+        case VALUE_NUMBER_INT:
+        case VALUE_NUMBER_FLOAT:
+            return String.valueOf(getNumberValue());
+        case VALUE_EMBEDDED_OBJECT:
+            loadValue();
+            return embedded != null ? embedded.toString() : null;
+        default:
+            return _currToken.asString();
+        }
+    }
+
+    @Override
+    public char[] getTextCharacters() throws IOException {
+        String t = getText();
+        return t != null ? t.toCharArray() : null;
+    }
+
+    @Override
+    public int getTextLength() throws IOException {
+        String t = getText();
+        return t != null ? t.length() : 0;
+    }
+
+    @Override
+    public int getTextOffset() throws IOException {
+        return 0;
+    }
+
+    @Override
+    public JsonLocation getTokenLocation() {
+        return JsonLocation.NA;
+    }
+
+    @Override
+    public boolean hasTextCharacters() {
+        return false;
+    }
+
+    @Override
+    public boolean isClosed() {
+        return closed;
+    }
+
+    @Override
+    public JsonToken nextToken() throws IOException {
+        if (closed) {
+            return null;
+        }
+        skipPendingValue();
+        if (!started) {
+            started = true;
+            BsonType type = reader.getCurrentBsonType();
+            return _currToken = valueToken(type != null ? type : BsonType.DOCUMENT);
+        }
+        if (_currToken == JsonToken.FIELD_NAME) {
+            return _currToken = valueToken(fieldType);
+        }
+        if (context.inRoot()) {
+            // Single root value has been consumed
+            return _currToken = null;
+        }
+        BsonType type = reader.readBsonType();
+        if (context.inObject()) {
+            if (type == BsonType.END_OF_DOCUMENT) {
+                reader.readEndDocument();
+                context = context.getParent();
+                return _currToken = JsonToken.END_OBJECT;
+            }
+            context.setCurrentName(reader.readName());
+            fieldType = type;
+            return _currToken = JsonToken.FIELD_NAME;
+        }
+        if (type == BsonType.END_OF_DOCUMENT) {
+            reader.readEndArray();
+            context = context.getParent();
+            return _currToken = JsonToken.END_ARRAY;
+        }
+        context.expectComma();
+        return _currToken = valueToken(type);
+    }
+
+    @Override
+    public void overrideCurrentName(String name) {
+        try {
+            context.setCurrentName(name);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    public void setCodec(ObjectCodec codec) {
+        this.codec = codec;
+    }
+
+    @Override
+    public JsonParser skipChildren() throws IOException {
+        if (_currToken == JsonToken.START_OBJECT) {
+            skipRemaining();
+            _currToken = JsonToken.END_OBJECT;
+        } else if (_currToken == JsonToken.START_ARRAY) {
+            skipRemaining();
+            _currToken = JsonToken.END_ARRAY;
+        }
+        return this;
+    }
+
+    @Override
+    public Version version() {
+        return Version.unknownVersion();
+    }
+
+    @Override
+    protected void _handleEOF() throws JsonParseException {
+        if (!context.inRoot()) {
+            _reportInvalidEOF(": expected close marker for " + context.typeDesc(), null);
+        }
+    }
+
+    private void loadNumber() throws IOException {
+        loadValue();
+        if (numberType == null) {
+            _reportError("Current token (" + _currToken + ") not numeric, can not use numeric value accessors");
+        }
+    }
+
+    private void loadValue() throws IOException {
+        if (!pending) {
+            return;
+        }
+        pending = false;
+        switch (valueType) {
+        case STRING:
+            text = reader.readString();
+            break;
+        case INT32:
+            longValue = reader.readInt32();
+            numberType = NumberType.INT;
+            break;
+        case INT64:
+            longValue = reader.readInt64();
+            numberType = NumberType.LONG;
+            break;
+        case DOUBLE:
+            doubleValue = reader.readDouble();
+            numberType = NumberType.DOUBLE;
+            break;
+        case OBJECT_ID:
+            // BsonReader returns object ids only as ObjectId, hex strings
+            // are made from it
+            embedded = reader.readObjectId();
+            break;
+        case DATE_TIME:
+            embedded = new Date(reader.readDateTime());
+            break;
+        case BINARY:
+            embedded = toEmbedded(reader.readBinaryData());
+            break;
+        case REGULAR_EXPRESSION:
+            embedded = toPattern(reader.readRegularExpression());
+            break;
+        case JAVASCRIPT:
+            embedded = new JavaScript(reader.readJavaScript());
+            break;
+        case JAVASCRIPT_WITH_SCOPE:
+            String code = reader.readJavaScriptWithScope();
+            Document scope = SCOPE_CODEC.decode(reader, DecoderContext.builder().build());
+            embedded = new JavaScript(code, scope);
+            break;
+        case SYMBOL:
+            embedded = new Symbol(reader.readSymbol());
+            break;
+        case TIMESTAMP:
+            BsonTimestamp ts = reader.readTimestamp();
+            embedded = new Timestamp(ts.getTime(), ts.getInc());
+            break;
+        case DB_POINTER:
+            embedded = reader.readDBPointer();
+            break;
+        default:
+            throw new JsonParseException(this, "Unexpected BSON type " + valueType);
+        }
+    }
+
+    private void skipPendingValue() {
+        if (pending) {
+            pending = false;
+            reader.skipValue();
+        }
+    }
+
+    private void skipRemaining() {
+        boolean object = context.inObject();
+        while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+            if (object) {
+                reader.skipName();
+            }
+            reader.skipValue();
+        }
+        if (object) {
+            reader.readEndDocument();
+        } else {
+            reader.readEndArray();
+        }
+        context = context.getParent();
+    }
+
+    private Object toEmbedded(BsonBinary binary) {
+        byte[] data = binary.getData();
+        if (binary.getType() == BsonBinarySubType.UUID_LEGACY.getValue() && data.length == 16) {
+            // Same (java legacy) byte order as bson4jackson
+            return new UUID(littleEndianLong(data, 0), littleEndianLong(data, 8));
+        }
+        return data;
+    }
+
+    private static long littleEndianLong(byte[] data, int offset) {
+        long result = 0;
+        for (int i = 7; i >= 0; --i) {
+            result = (result << 8) | (data[offset + i] & 0xff);
+        }
+        return result;
+    }
+
+    private static Pattern toPattern(BsonRegularExpression regex) {
+        int flags = 0;
+        for (char c : regex.getOptions().toCharArray()) {
+            switch (c) {
+            case 'i':
+                flags |= Pattern.CASE_INSENSITIVE;
+                break;
+            case 'm':
+                flags |= Pattern.MULTILINE;
+                break;
+            case 's':
+                flags |= Pattern.DOTALL;
+                break;
+            case 'u':
+                flags |= Pattern.UNICODE_CASE;
+                break;
+            case 'x':
+                flags |= Pattern.COMMENTS;
+                break;
+            default:
+                break;
+            }
+        }
+        return Pattern.compile(regex.getPattern(), flags);
+    }
+
+    private JsonToken valueToken(BsonType type) throws IOException {
+        text = null;
+        embedded = null;
+        numberType = null;
+        switch (type) {
+        case DOCUMENT:
+            reader.readStartDocument();
+            context = context.createChildObjectContext(-1, -1);
+            return JsonToken.START_OBJECT;
+        case ARRAY:
+            reader.readStartArray();
+            context = context.createChildArrayContext(-1, -1);
+            return JsonToken.START_ARRAY;
+        case BOOLEAN:
+            return reader.readBoolean() ? JsonToken.VALUE_TRUE : JsonToken.VALUE_FALSE;
+        case NULL:
+            reader.readNull();
+            return JsonToken.VALUE_NULL;
+        case UNDEFINED:
+            reader.readUndefined();
+            return JsonToken.VALUE_NULL;
+        case MIN_KEY:
+            reader.readMinKey();
+            text = "MinKey";
+            return JsonToken.VALUE_STRING;
+        case MAX_KEY:
+            reader.readMaxKey();
+            text = "MaxKey";
+            return JsonToken.VALUE_STRING;
+        case STRING:
+            return pending(type, JsonToken.VALUE_STRING);
+        case INT32:
+        case INT64:
+            return pending(type, JsonToken.VALUE_NUMBER_INT);
+        case DOUBLE:
+            return pending(type, JsonToken.VALUE_NUMBER_FLOAT);
+        case DECIMAL128:
+            Decimal128 decimal = reader.readDecimal128();
+            if (decimal.isNaN() || decimal.isInfinite()) {
+                embedded = decimal;
+                return JsonToken.VALUE_EMBEDDED_OBJECT;
+            }
+            decimalValue = decimal.bigDecimalValue();
+            numberType = NumberType.BIG_DECIMAL;
+            return JsonToken.VALUE_NUMBER_FLOAT;
+        case END_OF_DOCUMENT:
+            throw new JsonParseException(this, "Unexpected end of document");
+        default:
+            return pending(type, JsonToken.VALUE_EMBEDDED_OBJECT);
+        }
+    }
+
+    private JsonToken pending(BsonType type, JsonToken token) {
+        pending = true;
+        valueType = type;
+        return token;
+    }
+
+    private final BsonReader reader;
+    private ObjectCodec codec;
+    private JsonReadContext context;
+    private boolean started;
+    private boolean closed;
+
+    private BsonType fieldType;
+    private boolean pending;
+    private BsonType valueType;
+
+    private String text;
+    private Object embedded;
+    private NumberType numberType;
+    private long longValue;
+    private double doubleValue;
+    private BigDecimal decimalValue;
+}
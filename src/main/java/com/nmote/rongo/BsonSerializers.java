@@ -43,8 +43,8 @@ class BsonSerializers extends SimpleSerializers {
 
         public void serialize(MaxKey obj, JsonGenerator jsonGenerator, SerializerProvider serializerProvider)
                 throws IOException, JsonProcessingException {
-            if (jsonGenerator instanceof JongoBsonGenerator) {
-                ((JongoBsonGenerator) jsonGenerator).writeMaxKey(obj);
+            if (jsonGenerator instanceof NativeBsonGenerator) {
+                ((NativeBsonGenerator) jsonGenerator).writeMaxKey(obj);
             } else {
                 jsonGenerator.writeStartObject();
                 jsonGenerator.writeNumberField("$maxKey", 1);
@@ -57,8 +57,8 @@ class BsonSerializers extends SimpleSerializers {
 
         public void serialize(MinKey obj, JsonGenerator jsonGenerator, SerializerProvider serializerProvider)
                 throws IOException, JsonProcessingException {
-            if (jsonGenerator instanceof JongoBsonGenerator) {
-                ((JongoBsonGenerator) jsonGenerator).writeMinKey(obj);
+            if (jsonGenerator instanceof NativeBsonGenerator) {
+                ((NativeBsonGenerator) jsonGenerator).writeMinKey(obj);
             } else {
                 jsonGenerator.writeStartObject();
                 jsonGenerator.writeNumberField("$minKey", 1);
@@ -87,8 +87,8 @@ class BsonSerializers extends SimpleSerializers {
 
         public void serialize(ObjectId obj, JsonGenerator jsonGenerator, SerializerProvider serializerProvider)
                 throws IOException, JsonProcessingException {
-            if (jsonGenerator instanceof JongoBsonGenerator) {
-                ((JongoBsonGenerator) jsonGenerator).writeNativeObjectId(obj);
+            if (jsonGenerator instanceof NativeBsonGenerator) {
+                ((NativeBsonGenerator) jsonGenerator).writeNativeObjectId(obj);
             } else {
                 jsonGenerator.writeStartObject();
                 jsonGenerator.writeStringField("$oid", obj.toHexString());
@@ -101,8 +101,8 @@ class BsonSerializers extends SimpleSerializers {
 
         public void serialize(Binary obj, JsonGenerator jsonGenerator, SerializerProvider serializerProvider)
                 throws IOException, JsonProcessingException {
-            if (jsonGenerator instanceof JongoBsonGenerator) {
-                ((JongoBsonGenerator) jsonGenerator).writeBinary(obj);
+            if (jsonGenerator instanceof NativeBsonGenerator) {
+                ((NativeBsonGenerator) jsonGenerator).writeBinary(obj);
             } else {
                 jsonGenerator.writeStartObject();
                 jsonGenerator.writeBinaryField("$binary", obj.getData());
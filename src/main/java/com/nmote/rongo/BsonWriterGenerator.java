@@ -0,0 +1,354 @@
+package com.nmote.rongo;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.regex.Pattern;
+
+import org.bson.BsonBinary;
+import org.bson.BsonBinarySubType;
+import org.bson.BsonRegularExpression;
+import org.bson.BsonTimestamp;
+import org.bson.BsonWriter;
+import org.bson.Document;
+import org.bson.codecs.DocumentCodec;
+import org.bson.codecs.EncoderContext;
+import org.bson.types.Binary;
+import org.bson.types.MaxKey;
+import org.bson.types.MinKey;
+
+import com.fasterxml.jackson.core.Base64Variant;
+import com.fasterxml.jackson.core.JsonGenerationException;
+import com.fasterxml.jackson.core.json.JsonWriteContext;
+import com.fasterxml.jackson.databind.SerializerProvider;
+
+import de.undercouch.bson4jackson.BsonGenerator;
+import de.undercouch.bson4jackson.types.JavaScript;
+import de.undercouch.bson4jackson.types.ObjectId;
+import de.undercouch.bson4jackson.types.Symbol;
+import de.undercouch.bson4jackson.types.Timestamp;
+
+/**
+ * Jackson generator writing straight into a mongo driver {@link BsonWriter}.
+ * Extends bson4jackson {@link BsonGenerator} so bson4jackson serializers
+ * (dates, regular expressions, UUIDs...) keep working, but none of the
+ * inherited buffering is used. Output matches {@link JongoBsonGenerator}.
+ */
+class BsonWriterGenerator extends BsonGenerator implements NativeBsonGenerator {
+
+    private static final DocumentCodec SCOPE_CODEC = new DocumentCodec();
+
+    private static final ThreadLocal<BsonWriterGenerator> IDLE = new ThreadLocal<>();
+
+    /**
+     * Takes idle generator of the current thread or creates a new one.
+     * Generator returns to the pool on {@link #close()}, so it must not be
+     * used after being closed.
+     *
+     * @param jsonFeatures
+     *            Jackson generator features
+     * @param bsonFeatures
+     *            bson4jackson generator features
+     * @param writer
+     *            target writer
+     * @return generator writing to writer
+     */
+    static BsonWriterGenerator obtain(int jsonFeatures, int bsonFeatures, BsonWriter writer) {
+        BsonWriterGenerator g = IDLE.get();
+        if (g != null && g._bsonFeatures == bsonFeatures) {
+            IDLE.set(null);
+            g.overrideStdFeatures(jsonFeatures, -1);
+            g._cfgPrettyPrinter = null;
+            g._closed = false;
+            g.writer = writer;
+        } else {
+            g = new BsonWriterGenerator(jsonFeatures, bsonFeatures, writer);
+            g.recyclable = true;
+        }
+        return g;
+    }
+
+    public BsonWriterGenerator(int jsonFeatures, int bsonFeatures, BsonWriter writer) {
+        super(jsonFeatures, bsonFeatures, null);
+        this.writer = writer;
+    }
+
+    @Override
+    public void close() throws IOException {
+        // Writer is owned by the driver, nothing is buffered here
+        if (!_closed) {
+            _closed = true;
+            if (recyclable && _writeContext.inRoot() && IDLE.get() == null) {
+                writer = null;
+                setCodec(null);
+                IDLE.set(this);
+            }
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        writer.flush();
+    }
+
+    @Override
+    public void writeBinary(Base64Variant b64variant, byte type, byte[] data, int offset, int len)
+            throws IOException {
+        _verifyValueWrite("write binary");
+        writer.writeBinaryData(new BsonBinary(type, slice(data, offset, len)));
+    }
+
+    @Override
+    public void writeBinary(Base64Variant b64variant, byte[] data, int offset, int len)
+            throws IOException, JsonGenerationException {
+        writeBinary(b64variant, BsonBinarySubType.BINARY.getValue(), data, offset, len);
+    }
+
+    @Override
+    public void writeBinary(Binary binary) throws IOException {
+        _verifyValueWrite("write binary");
+        writer.writeBinaryData(new BsonBinary(binary.getType(), binary.getData()));
+    }
+
+    @Override
+    public void writeBoolean(boolean state) throws IOException, JsonGenerationException {
+        _verifyValueWrite("write boolean");
+        writer.writeBoolean(state);
+    }
+
+    @Override
+    public void writeDateTime(Date date) throws IOException {
+        _verifyValueWrite("write datetime");
+        writer.writeDateTime(date.getTime());
+    }
+
+    @Override
+    public void writeEndArray() throws IOException, JsonGenerationException {
+        if (!_writeContext.inArray()) {
+            _reportError("Current context not an ARRAY but " + _writeContext.typeDesc());
+        }
+        _writeContext = _writeContext.getParent();
+        writer.writeEndArray();
+    }
+
+    @Override
+    public void writeEndObject() throws IOException, JsonGenerationException {
+        if (!_writeContext.inObject()) {
+            _reportError("Current context not an object but " + _writeContext.typeDesc());
+        }
+        _writeContext = _writeContext.getParent();
+        writer.writeEndDocument();
+    }
+
+    @Override
+    public void writeFieldName(String name) throws IOException, JsonGenerationException {
+        if (_writeContext.writeFieldName(name) == JsonWriteContext.STATUS_EXPECT_VALUE) {
+            _reportError("Can not write a field name, expecting a value");
+        }
+        writer.writeName(name);
+    }
+
+    @Override
+    public void writeJavaScript(JavaScript javaScript, SerializerProvider provider) throws IOException {
+        _verifyValueWrite("write javascript");
+        if (javaScript.getScope() == null) {
+            writer.writeJavaScript(javaScript.getCode());
+        } else {
+            writer.writeJavaScriptWithScope(javaScript.getCode());
+            SCOPE_CODEC.encode(writer, new Document(javaScript.getScope()), EncoderContext.builder().build());
+        }
+    }
+
+    @Override
+    public void writeMaxKey(MaxKey key) throws IOException {
+        _verifyValueWrite("write max key");
+        writer.writeMaxKey();
+    }
+
+    @Override
+    public void writeMinKey(MinKey key) throws IOException {
+        _verifyValueWrite("write min key");
+        writer.writeMinKey();
+    }
+
+    @Override
+    public void writeNativeObjectId(org.bson.types.ObjectId objectId) throws IOException {
+        _verifyValueWrite("write object id");
+        writer.writeObjectId(objectId);
+    }
+
+    @Override
+    public void writeObjectIdHex(String hex) throws IOException {
+        // BsonWriter takes object ids only as ObjectId, so this one can't be
+        // avoided without bypassing writer state checks
+        writeNativeObjectId(new org.bson.types.ObjectId(hex));
+    }
+
+    @Override
+    public void writeNull() throws IOException, JsonGenerationException {
+        _verifyValueWrite("write null");
+        writer.writeNull();
+    }
+
+    @Override
+    public void writeNumber(BigDecimal dec) throws IOException, JsonGenerationException {
+        if (dec == null) {
+            writeNull();
+        } else if (isEnabled(Feature.WRITE_BIGDECIMALS_AS_STRINGS)) {
+            writeString(dec.toString());
+        } else {
+            double d = dec.doubleValue();
+            if (Double.isInfinite(d)) {
+                writeString(dec.toString());
+            } else {
+                writeNumber(d);
+            }
+        }
+    }
+
+    @Override
+    public void writeNumber(BigInteger v) throws IOException, JsonGenerationException {
+        if (v == null) {
+            writeNull();
+        } else if (v.bitLength() <= 31) {
+            writeNumber(v.intValue());
+        } else if (v.bitLength() <= 63) {
+            writeNumber(v.longValue());
+        } else {
+            writeString(v.toString());
+        }
+    }
+
+    @Override
+    public void writeNumber(double d) throws IOException, JsonGenerationException {
+        _verifyValueWrite("write number");
+        writer.writeDouble(d);
+    }
+
+    @Override
+    public void writeNumber(float f) throws IOException, JsonGenerationException {
+        writeNumber((double) f);
+    }
+
+    @Override
+    public void writeNumber(int v) throws IOException, JsonGenerationException {
+        _verifyValueWrite("write number");
+        writer.writeInt32(v);
+    }
+
+    @Override
+    public void writeNumber(long v) throws IOException, JsonGenerationException {
+        _verifyValueWrite("write number");
+        writer.writeInt64(v);
+    }
+
+    @Override
+    public void writeNumber(String encodedValue)
+            throws IOException, JsonGenerationException, UnsupportedOperationException {
+        writeString(encodedValue);
+    }
+
+    @Override
+    public void writeObjectId(ObjectId objectId) throws IOException {
+        writeNativeObjectId(org.bson.types.ObjectId.createFromLegacyFormat(objectId.getTime(), objectId.getMachine(),
+                objectId.getInc()));
+    }
+
+    @Override
+    public void writeRaw(char c) throws IOException, JsonGenerationException {
+        writeRaw(String.valueOf(c));
+    }
+
+    @Override
+    public void writeRaw(char[] text, int offset, int len) throws IOException, JsonGenerationException {
+        writeRaw(new String(text, offset, len));
+    }
+
+    @Override
+    public void writeRaw(String text) throws IOException, JsonGenerationException {
+        writeString(text);
+    }
+
+    @Override
+    public void writeRaw(String text, int offset, int len) throws IOException, JsonGenerationException {
+        writeRaw(text.substring(offset, offset + len));
+    }
+
+    @Override
+    public void writeRawUTF8String(byte[] text, int offset, int length) throws IOException, JsonGenerationException {
+        writeString(new String(text, offset, length, StandardCharsets.UTF_8));
+    }
+
+    @Override
+    public void writeRegex(Pattern pattern) throws IOException {
+        _verifyValueWrite("write regex");
+        writer.writeRegularExpression(new BsonRegularExpression(pattern.pattern(), flagsToRegexOptions(pattern.flags())));
+    }
+
+    @Override
+    public void writeStartArray() throws IOException, JsonGenerationException {
+        _verifyValueWrite("start an array");
+        _writeContext = _writeContext.createChildArrayContext();
+        writer.writeStartArray();
+    }
+
+    @Override
+    public void writeStartObject() throws IOException, JsonGenerationException {
+        _verifyValueWrite("start an object");
+        _writeContext = _writeContext.createChildObjectContext();
+        writer.writeStartDocument();
+    }
+
+    @Override
+    public void writeString(char[] text, int offset, int len) throws IOException, JsonGenerationException {
+        writeString(new String(text, offset, len));
+    }
+
+    @Override
+    public void writeString(String text) throws IOException, JsonGenerationException {
+        if (text == null) {
+            writeNull();
+        } else {
+            _verifyValueWrite("write string");
+            writer.writeString(text);
+        }
+    }
+
+    @Override
+    public void writeSymbol(Symbol symbol) throws IOException {
+        _verifyValueWrite("write symbol");
+        writer.writeSymbol(symbol.getSymbol());
+    }
+
+    @Override
+    public void writeTimestamp(Timestamp timestamp) throws IOException {
+        _verifyValueWrite("write timestamp");
+        writer.writeTimestamp(new BsonTimestamp(timestamp.getTime(), timestamp.getInc()));
+    }
+
+    @Override
+    public void writeUTF8String(byte[] text, int offset, int length) throws IOException, JsonGenerationException {
+        writeRawUTF8String(text, offset, length);
+    }
+
+    @Override
+    protected void _releaseBuffers() {
+    }
+
+    @Override
+    protected void _verifyValueWrite(String typeMsg) throws IOException {
+        if (_writeContext.writeValue() == JsonWriteContext.STATUS_EXPECT_NAME) {
+            _reportError("Can not " + typeMsg + ", expecting field name");
+        }
+    }
+
+    private static byte[] slice(byte[] data, int offset, int len) {
+        return offset == 0 && len == data.length ? data : Arrays.copyOfRange(data, offset, offset + len);
+    }
+
+    private boolean recyclable;
+    private BsonWriter writer;
+}
@@ -0,0 +1,68 @@
+package com.nmote.rongo;
+
+import org.bson.BsonValue;
+
+import com.mongodb.bulk.BulkWriteResult;
+import com.mongodb.client.model.WriteModel;
+
+/**
+ * Result of a single write submitted to {@link BulkWriter}.
+ *
+ * @param <T>
+ *            document type
+ */
+public final class BulkItemResult<T> {
+
+    BulkItemResult(WriteModel<? extends T> model, int index, BulkWriteResult batchResult, BsonValue upsertedId) {
+        this.model = model;
+        this.index = index;
+        this.batchResult = batchResult;
+        this.upsertedId = upsertedId;
+    }
+
+    /**
+     * Returns result of the whole batch write was sent in. Counts are
+     * aggregated over all writes in the batch.
+     *
+     * @return batch result
+     */
+    public BulkWriteResult getBatchResult() {
+        return batchResult;
+    }
+
+    /**
+     * Returns position of write within its batch.
+     *
+     * @return index
+     */
+    public int getIndex() {
+        return index;
+    }
+
+    public WriteModel<? extends T> getModel() {
+        return model;
+    }
+
+    /**
+     * Returns _id of document inserted by an upsert.
+     *
+     * @return upserted _id or null if write didn't upsert
+     */
+    public BsonValue getUpsertedId() {
+        return upsertedId;
+    }
+
+    public boolean wasAcknowledged() {
+        return batchResult.wasAcknowledged();
+    }
+
+    @Override
+    public String toString() {
+        return "BulkItemResult{model=" + model + ", index=" + index + ", upsertedId=" + upsertedId + "}";
+    }
+
+    private final BulkWriteResult batchResult;
+    private final int index;
+    private final WriteModel<? extends T> model;
+    private final BsonValue upsertedId;
+}
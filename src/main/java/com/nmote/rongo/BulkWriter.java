@@ -0,0 +1,432 @@
+package com.nmote.rongo;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+import org.bson.BsonValue;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.BsonDocumentCodec;
+import org.bson.codecs.BsonValueCodecProvider;
+import org.bson.codecs.Codec;
+import org.bson.codecs.CollectibleCodec;
+import org.bson.codecs.configuration.CodecRegistries;
+import org.bson.codecs.configuration.CodecRegistry;
+import org.bson.conversions.Bson;
+
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.MongoWriteException;
+import com.mongodb.WriteError;
+import com.mongodb.async.client.MongoCollection;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.bulk.BulkWriteResult;
+import com.mongodb.bulk.BulkWriteUpsert;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.DeleteManyModel;
+import com.mongodb.client.model.DeleteOneModel;
+import com.mongodb.client.model.InsertOneModel;
+import com.mongodb.client.model.ReplaceOneModel;
+import com.mongodb.client.model.UpdateManyModel;
+import com.mongodb.client.model.UpdateOneModel;
+import com.mongodb.client.model.WriteModel;
+
+import reactor.core.Cancellation;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.MonoSink;
+import reactor.core.scheduler.Schedulers;
+
+/**
+ * Coalesces individual writes into bulk writes. Writes are collected into a
+ * batch until it reaches maximum count or size, or until maximum latency
+ * since the first write of the batch passes, and then sent as a single
+ * <code>bulkWrite</code>. Each write completes with its own result or error.
+ *
+ * <p>
+ * Writes are encoded on the subscribing thread. Ordered writer sends one
+ * batch at a time; a failed write fails only itself, writes following it in
+ * the same batch are resent. Cancelling a subscription doesn't withdraw
+ * already submitted write.
+ * </p>
+ *
+ * <pre>
+ * BulkWriter&lt;Instance&gt; writer = instances.bulkWriter();
+ * writer.updateOne(eq("_id", id), set("state", "running")).subscribe();
+ * </pre>
+ *
+ * @param <T>
+ *            document type
+ */
+public final class BulkWriter<T> implements AutoCloseable {
+
+    private static final BsonDocumentCodec BSON_DOCUMENT_CODEC = new BsonDocumentCodec();
+
+    BulkWriter(MongoCollection<T> collection, BulkWriterOptions options, EntityCache cache) {
+        Objects.requireNonNull(collection);
+        Objects.requireNonNull(options);
+        this.collection = collection;
+        this.cache = cache;
+        this.raw = raw(collection);
+        this.ordered = options.isOrdered();
+        this.maxBatchBytes = options.getMaxBatchBytes();
+        this.maxBatchSize = options.getMaxBatchSize();
+        this.maxInFlight = ordered ? 1 : options.getMaxInFlight();
+        this.maxLatency = options.getMaxLatency();
+    }
+
+    /**
+     * Sends pending writes and rejects subsequent ones.
+     */
+    @Override
+    public void close() {
+        synchronized (this) {
+            closed = true;
+        }
+        flush();
+    }
+
+    public Mono<BulkItemResult<T>> deleteOne(Bson filter) {
+        return write(new DeleteOneModel<>(filter));
+    }
+
+    /**
+     * Sends current batch as soon as possible, without waiting for maximum
+     * latency to pass.
+     */
+    public void flush() {
+        synchronized (this) {
+            if (!batch.isEmpty()) {
+                due = true;
+            }
+        }
+        dispatch();
+    }
+
+    /**
+     * Returns number of writes submitted but not yet sent.
+     *
+     * @return number of writes
+     */
+    public synchronized int getPending() {
+        int result = batch.size();
+        for (List<Write<T>> b : ready) {
+            result += b.size();
+        }
+        return result;
+    }
+
+    public Mono<BulkItemResult<T>> insertOne(T document) {
+        return write(new InsertOneModel<>(document));
+    }
+
+    public Mono<BulkItemResult<T>> replaceOne(Bson filter, T replacement) {
+        return write(new ReplaceOneModel<>(filter, replacement));
+    }
+
+    public Mono<BulkItemResult<T>> updateOne(Bson filter, Bson update) {
+        return write(new UpdateOneModel<>(filter, update));
+    }
+
+    /**
+     * Submits a write when returned mono is subscribed to.
+     *
+     * @param model
+     *            write model
+     * @return write result, or {@link MongoWriteException} if write failed
+     */
+    public Mono<BulkItemResult<T>> write(WriteModel<? extends T> model) {
+        Objects.requireNonNull(model);
+        return Mono.create(sink -> {
+            Write<T> write;
+            try {
+                write = new Write<>(model, encode(model), sink);
+            } catch (RuntimeException e) {
+                sink.error(e);
+                return;
+            }
+            submit(write);
+        });
+    }
+
+    private void completed(List<Write<T>> writes, BulkWriteResult result, Throwable t) {
+        invalidate(writes);
+        List<Write<T>> resend = Collections.emptyList();
+        if (t == null) {
+            Map<Integer, BsonValue> upserts = upserts(result);
+            for (int i = 0; i < writes.size(); ++i) {
+                writes.get(i).success(i, result, upserts);
+            }
+        } else if (t instanceof MongoBulkWriteException) {
+            MongoBulkWriteException e = (MongoBulkWriteException) t;
+            Map<Integer, BulkWriteError> errors = new HashMap<>();
+            int failed = writes.size();
+            for (BulkWriteError error : e.getWriteErrors()) {
+                errors.put(error.getIndex(), error);
+                failed = Math.min(failed, error.getIndex());
+            }
+            Map<Integer, BsonValue> upserts = upserts(e.getWriteResult());
+            resend = new ArrayList<>();
+            for (int i = 0; i < writes.size(); ++i) {
+                Write<T> write = writes.get(i);
+                BulkWriteError error = errors.get(i);
+                if (error != null) {
+                    write.sink.error(new MongoWriteException(new WriteError(error), e.getServerAddress()));
+                } else if (ordered && i > failed) {
+                    // Not attempted, ordered bulk write stops at first error
+                    resend.add(write);
+                } else if (e.getWriteConcernError() != null) {
+                    write.sink.error(e);
+                } else {
+                    write.success(i, e.getWriteResult(), upserts);
+                }
+            }
+        } else {
+            for (Write<T> write : writes) {
+                write.sink.error(t);
+            }
+        }
+        synchronized (this) {
+            --inFlight;
+            if (!resend.isEmpty()) {
+                ready.addFirst(resend);
+            }
+        }
+        dispatch();
+    }
+
+    /**
+     * Sends ready batches while there are free batch slots.
+     */
+    private void dispatch() {
+        List<List<Write<T>>> send = null;
+        synchronized (this) {
+            while (inFlight < maxInFlight) {
+                if (ready.isEmpty() && due) {
+                    seal();
+                }
+                List<Write<T>> writes = ready.poll();
+                if (writes == null) {
+                    break;
+                }
+                ++inFlight;
+                if (send == null) {
+                    send = new ArrayList<>();
+                }
+                send.add(writes);
+            }
+        }
+        if (send != null) {
+            for (List<Write<T>> writes : send) {
+                send(writes);
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private WriteModel<RawBsonDocument> encode(WriteModel<? extends T> model) {
+        WriteModel<RawBsonDocument> result;
+        if (model instanceof InsertOneModel) {
+            result = new InsertOneModel<>(encodeDocument(collection, ((InsertOneModel<T>) model).getDocument(), true));
+        } else if (model instanceof ReplaceOneModel) {
+            ReplaceOneModel<T> m = (ReplaceOneModel<T>) model;
+            result = new ReplaceOneModel<>(encode(m.getFilter()),
+                    encodeDocument(collection, m.getReplacement(), false), m.getOptions());
+        } else if (model instanceof UpdateOneModel) {
+            UpdateOneModel<T> m = (UpdateOneModel<T>) model;
+            result = new UpdateOneModel<>(encode(m.getFilter()), encode(m.getUpdate()), m.getOptions());
+        } else if (model instanceof UpdateManyModel) {
+            UpdateManyModel<T> m = (UpdateManyModel<T>) model;
+            result = new UpdateManyModel<>(encode(m.getFilter()), encode(m.getUpdate()), m.getOptions());
+        } else if (model instanceof DeleteOneModel) {
+            DeleteOneModel<T> m = (DeleteOneModel<T>) model;
+            result = new DeleteOneModel<>(encode(m.getFilter()), m.getOptions());
+        } else if (model instanceof DeleteManyModel) {
+            DeleteManyModel<T> m = (DeleteManyModel<T>) model;
+            result = new DeleteManyModel<>(encode(m.getFilter()), m.getOptions());
+        } else {
+            throw new IllegalArgumentException("unsupported write model: " + model.getClass().getName());
+        }
+        return result;
+    }
+
+    private RawBsonDocument encode(Bson bson) {
+        Objects.requireNonNull(bson);
+        if (bson instanceof RawBsonDocument) {
+            return (RawBsonDocument) bson;
+        }
+        return new RawBsonDocument(bson.toBsonDocument(collection.getDocumentClass(), collection.getCodecRegistry()),
+                BSON_DOCUMENT_CODEC);
+    }
+
+    private synchronized void expired(long generation) {
+        if (generation == this.generation) {
+            due = true;
+        }
+    }
+
+    /**
+     * Moves current batch to ready batches.
+     */
+    private void seal() {
+        if (!batch.isEmpty()) {
+            ready.add(batch);
+            batch = new ArrayList<>();
+            batchBytes = 0;
+        }
+        due = false;
+        ++generation;
+        if (timer != null) {
+            timer.dispose();
+            timer = null;
+        }
+    }
+
+    private void invalidate(List<Write<T>> writes) {
+        if (cache != null) {
+            for (Write<T> write : writes) {
+                cache.invalidate(write.encoded, RawBsonDocument.class, raw.getCodecRegistry());
+            }
+        }
+    }
+
+    private void send(List<Write<T>> writes) {
+        invalidate(writes);
+        List<WriteModel<RawBsonDocument>> models = new ArrayList<>(writes.size());
+        for (Write<T> write : writes) {
+            models.add(write.encoded);
+        }
+        try {
+            raw.bulkWrite(models, new BulkWriteOptions().ordered(ordered), (r, t) -> completed(writes, r, t));
+        } catch (RuntimeException e) {
+            completed(writes, null, e);
+        }
+    }
+
+    private void submit(Write<T> write) {
+        synchronized (this) {
+            if (closed) {
+                write.sink.error(new IllegalStateException("bulk writer closed"));
+                return;
+            }
+            if (!batch.isEmpty() && batchBytes + write.size > maxBatchBytes) {
+                seal();
+            }
+            batch.add(write);
+            batchBytes += write.size;
+            if (batch.size() >= maxBatchSize || batchBytes >= maxBatchBytes) {
+                seal();
+            } else if (batch.size() == 1) {
+                if (maxLatency == 0) {
+                    due = true;
+                } else {
+                    long g = generation;
+                    timer = Schedulers.timer().schedule(() -> {
+                        expired(g);
+                        dispatch();
+                    }, maxLatency, TimeUnit.MILLISECONDS);
+                }
+            }
+        }
+        dispatch();
+    }
+
+    /**
+     * Encodes document with collection codec, generating _id for inserts the
+     * same way driver does.
+     */
+    static <T> RawBsonDocument encodeDocument(MongoCollection<T> collection, T document, boolean generateId) {
+        Objects.requireNonNull(document);
+        Codec<T> codec = collection.getCodecRegistry().get(collection.getDocumentClass());
+        if (generateId && codec instanceof CollectibleCodec) {
+            document = ((CollectibleCodec<T>) codec).generateIdIfAbsentFromDocument(document);
+        }
+        return new RawBsonDocument(document, codec);
+    }
+
+    /**
+     * Returns collection writing already encoded documents. Filters and
+     * updates are still encoded with codecs of the original collection.
+     */
+    static MongoCollection<RawBsonDocument> raw(MongoCollection<?> collection) {
+        CodecRegistry registry = CodecRegistries.fromRegistries(
+                CodecRegistries.fromProviders(new BsonValueCodecProvider()), collection.getCodecRegistry());
+        return collection.withDocumentClass(RawBsonDocument.class).withCodecRegistry(registry);
+    }
+
+    private static Map<Integer, BsonValue> upserts(BulkWriteResult result) {
+        if (result == null || !result.wasAcknowledged() || result.getUpserts().isEmpty()) {
+            return Collections.emptyMap();
+        }
+        Map<Integer, BsonValue> upserts = new HashMap<>();
+        for (BulkWriteUpsert upsert : result.getUpserts()) {
+            upserts.put(upsert.getIndex(), upsert.getId());
+        }
+        return upserts;
+    }
+
+    private static final class Write<T> {
+
+        Write(WriteModel<? extends T> model, WriteModel<RawBsonDocument> encoded, MonoSink<BulkItemResult<T>> sink) {
+            this.model = model;
+            this.encoded = encoded;
+            this.sink = sink;
+            this.size = size(encoded);
+        }
+
+        void success(int index, BulkWriteResult result, Map<Integer, BsonValue> upserts) {
+            sink.success(new BulkItemResult<>(model, index, result, upserts.get(index)));
+        }
+
+        private static int size(WriteModel<RawBsonDocument> model) {
+            int result;
+            if (model instanceof InsertOneModel) {
+                result = size(((InsertOneModel<RawBsonDocument>) model).getDocument());
+            } else if (model instanceof ReplaceOneModel) {
+                ReplaceOneModel<RawBsonDocument> m = (ReplaceOneModel<RawBsonDocument>) model;
+                result = size(m.getFilter()) + size(m.getReplacement());
+            } else if (model instanceof UpdateOneModel) {
+                UpdateOneModel<RawBsonDocument> m = (UpdateOneModel<RawBsonDocument>) model;
+                result = size(m.getFilter()) + size(m.getUpdate());
+            } else if (model instanceof UpdateManyModel) {
+                UpdateManyModel<RawBsonDocument> m = (UpdateManyModel<RawBsonDocument>) model;
+                result = size(m.getFilter()) + size(m.getUpdate());
+            } else if (model instanceof DeleteOneModel) {
+                result = size(((DeleteOneModel<RawBsonDocument>) model).getFilter());
+            } else {
+                result = size(((DeleteManyModel<RawBsonDocument>) model).getFilter());
+            }
+            return result;
+        }
+
+        private static int size(Bson raw) {
+            return ((RawBsonDocument) raw).getByteBuffer().remaining();
+        }
+
+        final WriteModel<RawBsonDocument> encoded;
+        final WriteModel<? extends T> model;
+        final MonoSink<BulkItemResult<T>> sink;
+        final int size;
+    }
+
+    private List<Write<T>> batch = new ArrayList<>();
+    private long batchBytes;
+    private final EntityCache cache;
+    private boolean closed;
+    private final MongoCollection<T> collection;
+    private boolean due;
+    private long generation;
+    private int inFlight;
+    private final int maxBatchBytes;
+    private final int maxBatchSize;
+    private final int maxInFlight;
+    private final long maxLatency;
+    private final boolean ordered;
+    private final MongoCollection<RawBsonDocument> raw;
+    private final Deque<List<Write<T>>> ready = new ArrayDeque<>();
+    private Cancellation timer;
+}
@@ -0,0 +1,117 @@
+package com.nmote.rongo;
+
+/**
+ * Options for {@link RongoCollection#bulkWriter(BulkWriterOptions)}.
+ */
+public class BulkWriterOptions {
+
+    public static final int DEFAULT_MAX_BATCH_BYTES = 8 << 20;
+
+    public static final int DEFAULT_MAX_BATCH_SIZE = 1000;
+
+    public static final int DEFAULT_MAX_IN_FLIGHT = 2;
+
+    public static final long DEFAULT_MAX_LATENCY = 5;
+
+    public int getMaxBatchBytes() {
+        return maxBatchBytes;
+    }
+
+    public int getMaxBatchSize() {
+        return maxBatchSize;
+    }
+
+    public int getMaxInFlight() {
+        return maxInFlight;
+    }
+
+    public long getMaxLatency() {
+        return maxLatency;
+    }
+
+    public boolean isOrdered() {
+        return ordered;
+    }
+
+    /**
+     * Sets approximate maximum size of a batch in bytes. A single write larger
+     * than that is sent in a batch of its own.
+     *
+     * @param maxBatchBytes
+     *            size in bytes
+     * @return this
+     */
+    public BulkWriterOptions maxBatchBytes(int maxBatchBytes) {
+        if (maxBatchBytes < 1) {
+            throw new IllegalArgumentException("maxBatchBytes < 1");
+        }
+        this.maxBatchBytes = maxBatchBytes;
+        return this;
+    }
+
+    public BulkWriterOptions maxBatchSize(int maxBatchSize) {
+        if (maxBatchSize < 1) {
+            throw new IllegalArgumentException("maxBatchSize < 1");
+        }
+        this.maxBatchSize = maxBatchSize;
+        return this;
+    }
+
+    /**
+     * Sets maximum number of batches sent but not yet acknowledged. Writes
+     * keep coalescing while the limit is reached. Ordered writer always sends
+     * one batch at a time.
+     *
+     * @param maxInFlight
+     *            number of batches
+     * @return this
+     */
+    public BulkWriterOptions maxInFlight(int maxInFlight) {
+        if (maxInFlight < 1) {
+            throw new IllegalArgumentException("maxInFlight < 1");
+        }
+        this.maxInFlight = maxInFlight;
+        return this;
+    }
+
+    /**
+     * Sets how long in milliseconds the first write of a batch waits for
+     * others to join. Zero sends batches as soon as a batch slot is free.
+     *
+     * @param maxLatency
+     *            milliseconds
+     * @return this
+     */
+    public BulkWriterOptions maxLatency(long maxLatency) {
+        if (maxLatency < 0) {
+            throw new IllegalArgumentException("maxLatency < 0");
+        }
+        this.maxLatency = maxLatency;
+        return this;
+    }
+
+    /**
+     * Sets if writes are applied in the order they were submitted. Defaults to
+     * true.
+     *
+     * @param ordered
+     *            ordered writes
+     * @return this
+     */
+    public BulkWriterOptions ordered(boolean ordered) {
+        this.ordered = ordered;
+        return this;
+    }
+
+    @Override
+    public String toString() {
+        return "BulkWriterOptions{ordered=" + ordered + ", maxBatchSize=" + maxBatchSize + ", maxBatchBytes="
+                + maxBatchBytes + ", maxLatency=" + maxLatency + ", maxInFlight=" + maxInFlight + "}";
+    }
+
+    private int maxBatchBytes = DEFAULT_MAX_BATCH_BYTES;
+    private int maxBatchSize = DEFAULT_MAX_BATCH_SIZE;
+    private int maxInFlight = DEFAULT_MAX_IN_FLIGHT;
+    private long maxLatency = DEFAULT_MAX_LATENCY;
+    private boolean ordered = true;
+}
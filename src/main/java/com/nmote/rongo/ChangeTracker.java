@@ -0,0 +1,279 @@
+package com.nmote.rongo;
+
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.bson.BsonDocument;
+import org.bson.BsonInt32;
+import org.bson.BsonInt64;
+import org.bson.BsonNull;
+import org.bson.BsonValue;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.BsonDocumentCodec;
+import org.bson.codecs.Codec;
+import org.bson.conversions.Bson;
+
+import com.mongodb.async.client.MongoCollection;
+import com.mongodb.client.model.UpdateOptions;
+import com.mongodb.client.result.UpdateResult;
+
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ * Saves documents by sending only what changed since they were read. Each
+ * document found through tracker is remembered as raw BSON by its _id, and on
+ * {@link #save(Object)} it is compared field by field, recursing into
+ * embedded documents, with the document encoded again. Changes are sent as
+ * an <code>updateOne</code> with <code>$set</code> and <code>$unset</code>,
+ * or as a <code>replaceOne</code> when update would be larger than the
+ * document itself.
+ *
+ * <pre>
+ * ChangeTracker&lt;Instance&gt; tracker = instances.tracker("version");
+ * tracker.findById(id).then(i -&gt; {
+ *     i.setState("running");
+ *     return tracker.save(i); // { $set: { state: 'running', version: 8 } }
+ * });
+ * </pre>
+ *
+ * With a version field, a save matches only if the stored version is still
+ * the one read, and increments it. Version is then maintained by tracker, its
+ * value in the document itself is ignored. Arrays are compared and set whole.
+ * Snapshots are kept until {@link #forget(Object)} or {@link #clear()}, so a
+ * tracker is meant for a unit of work rather than the application lifetime.
+ *
+ * @param <T>
+ *            document type
+ */
+public final class ChangeTracker<T> {
+
+    private static final String ID = "_id";
+
+    private static final Codec<BsonDocument> DOCUMENT_CODEC = new BsonDocumentCodec();
+
+    ChangeTracker(MongoCollection<T> collection, RongoCollection<RawBsonDocument> raw, String versionField) {
+        Objects.requireNonNull(collection);
+        this.collection = collection;
+        this.codec = collection.getCodecRegistry().get(collection.getDocumentClass());
+        this.raw = raw;
+        this.versionField = versionField;
+    }
+
+    /**
+     * Forgets all tracked documents.
+     */
+    public void clear() {
+        snapshots.clear();
+    }
+
+    /**
+     * Finds and tracks documents matching filter.
+     *
+     * @param filter
+     *            filter, may be null
+     * @return flux of documents
+     */
+    public Flux<T> find(Bson filter) {
+        return raw.find(filter).flux().map(this::tracked);
+    }
+
+    /**
+     * Finds and tracks a document by _id.
+     *
+     * @param id
+     *            _id
+     * @return document or empty if not found
+     */
+    public Mono<T> findById(Object id) {
+        BsonValue key = RongoCollection.toBsonValue(id, collection.getCodecRegistry());
+        return raw.find(new BsonDocument(ID, key)).first().map(this::tracked);
+    }
+
+    /**
+     * Stops tracking document, so the next save will replace it.
+     *
+     * @param document
+     *            document
+     */
+    public void forget(T document) {
+        snapshots.remove(id(encode(document)));
+    }
+
+    public String getVersionField() {
+        return versionField;
+    }
+
+    /**
+     * Saves document. Untracked documents are replaced, or inserted if they
+     * don't exist, without a version check. Tracked ones are updated with
+     * changed fields only, and an unchanged document isn't sent at all. When
+     * saved, document is tracked in its new state.
+     *
+     * @param document
+     *            document with _id
+     * @return true if saved, false if tracked document no longer exists or
+     *         its version has changed
+     * @throws IllegalArgumentException
+     *             if document has no _id
+     */
+    public Mono<Boolean> save(T document) {
+        return Mono.defer(() -> {
+            BsonDocument current = encode(document);
+            BsonValue id = id(current);
+            RawBsonDocument snapshot = snapshots.get(id);
+            if (snapshot == null) {
+                RawBsonDocument replacement = new RawBsonDocument(current, DOCUMENT_CODEC);
+                return saved(id, replacement,
+                        raw.replaceOne(new BsonDocument(ID, id), replacement, new UpdateOptions().upsert(true)));
+            }
+            BsonDocument previous = snapshot.decode(DOCUMENT_CODEC);
+            BsonDocument filter = new BsonDocument(ID, id);
+            if (versionField != null) {
+                // Not a change by itself
+                current.remove(versionField);
+                BsonValue version = previous.remove(versionField);
+                if (previous.equals(current)) {
+                    return Mono.just(true);
+                }
+                filter.put(versionField, version != null ? version : BsonNull.VALUE);
+                previous.put(versionField, version != null ? version : BsonNull.VALUE);
+                current.put(versionField, increment(version));
+            }
+            BsonDocument set = new BsonDocument();
+            BsonDocument unset = new BsonDocument();
+            boolean partial = diff("", previous, current, set, unset);
+            if (partial && set.isEmpty() && unset.isEmpty()) {
+                return Mono.just(true);
+            }
+            RawBsonDocument replacement = new RawBsonDocument(current, DOCUMENT_CODEC);
+            BsonDocument update = new BsonDocument();
+            if (!set.isEmpty()) {
+                update.put("$set", set);
+            }
+            if (!unset.isEmpty()) {
+                update.put("$unset", unset);
+            }
+            if (!partial || size(update) >= replacement.getByteBuffer().remaining()) {
+                return saved(id, replacement, raw.replaceOne(filter, replacement));
+            }
+            return saved(id, replacement, raw.updateOne(filter, update));
+        });
+    }
+
+    /**
+     * Number of tracked documents.
+     *
+     * @return size
+     */
+    public int size() {
+        return snapshots.size();
+    }
+
+    /**
+     * Tracks document in its current state, e.g. one read some other way.
+     *
+     * @param document
+     *            document with _id
+     * @return document
+     * @throws IllegalArgumentException
+     *             if document has no _id
+     */
+    public T track(T document) {
+        BsonDocument encoded = encode(document);
+        snapshots.put(id(encoded), new RawBsonDocument(encoded, DOCUMENT_CODEC));
+        return document;
+    }
+
+    private BsonDocument encode(T document) {
+        return BulkWriter.encodeDocument(collection, document, false).decode(DOCUMENT_CODEC);
+    }
+
+    private Mono<Boolean> saved(BsonValue id, RawBsonDocument replacement, Mono<UpdateResult> write) {
+        return write.map(r -> !r.wasAcknowledged() || r.getMatchedCount() > 0 || r.getUpsertedId() != null)
+                .doOnSuccess(saved -> {
+                    if (Boolean.TRUE.equals(saved)) {
+                        snapshots.put(id, replacement);
+                    }
+                });
+    }
+
+    private T tracked(RawBsonDocument document) {
+        snapshots.put(id(document), document);
+        return document.decode(codec);
+    }
+
+    /**
+     * Collects differences into $set and $unset, returning false if they
+     * can't be expressed by paths, e.g. a field name contains a dot.
+     */
+    private static boolean diff(String prefix, BsonDocument previous, BsonDocument current, BsonDocument set,
+            BsonDocument unset) {
+        for (String name : previous.keySet()) {
+            if (!current.containsKey(name)) {
+                if (!pathSafe(name)) {
+                    return false;
+                }
+                unset.put(prefix + name, new BsonInt32(1));
+            }
+        }
+        for (Map.Entry<String, BsonValue> e : current.entrySet()) {
+            String name = e.getKey();
+            BsonValue value = e.getValue();
+            BsonValue old = previous.get(name);
+            if (value.equals(old)) {
+                continue;
+            }
+            if (!pathSafe(name)) {
+                return false;
+            }
+            String path = prefix + name;
+            if (old != null && old.isDocument() && value.isDocument()) {
+                BsonDocument nestedSet = new BsonDocument();
+                BsonDocument nestedUnset = new BsonDocument();
+                if (diff(path + ".", old.asDocument(), value.asDocument(), nestedSet, nestedUnset)) {
+                    set.putAll(nestedSet);
+                    unset.putAll(nestedUnset);
+                    continue;
+                }
+            }
+            set.put(path, value);
+        }
+        return true;
+    }
+
+    private static BsonValue id(BsonDocument document) {
+        BsonValue result = document.get(ID);
+        if (result == null || result.isNull()) {
+            throw new IllegalArgumentException("document has no _id");
+        }
+        return result;
+    }
+
+    private static BsonValue increment(BsonValue version) {
+        if (version == null || version.isNull()) {
+            return new BsonInt32(1);
+        } else if (version.isInt32()) {
+            return new BsonInt32(version.asInt32().getValue() + 1);
+        } else if (version.isInt64()) {
+            return new BsonInt64(version.asInt64().getValue() + 1);
+        }
+        throw new IllegalStateException("version isn't an integer: " + version);
+    }
+
+    private static boolean pathSafe(String name) {
+        return !name.isEmpty() && name.indexOf('.') < 0 && name.charAt(0) != '$';
+    }
+
+    private static int size(BsonDocument document) {
+        return new RawBsonDocument(document, DOCUMENT_CODEC).getByteBuffer().remaining();
+    }
+
+    private final Codec<T> codec;
+    private final MongoCollection<T> collection;
+    private final RongoCollection<RawBsonDocument> raw;
+    private final ConcurrentMap<BsonValue, RawBsonDocument> snapshots = new ConcurrentHashMap<>();
+    private final String versionField;
+}
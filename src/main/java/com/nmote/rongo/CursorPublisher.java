@@ -0,0 +1,246 @@
+package com.nmote.rongo;
+
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import java.util.function.ToIntFunction;
+
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import com.mongodb.async.AsyncBatchCursor;
+
+import reactor.core.publisher.Operators;
+
+/**
+ * Strictly backpressured publisher of cursor documents. Emits only what was
+ * requested, holds at most one batch and fetches next batch only when
+ * downstream demand exceeds documents held. Batch sizes are chosen by
+ * {@link PrefetchPolicy}. Cursor is closed when subscription is cancelled.
+ *
+ * <p>
+ * Cursor can be consumed once, other subscribers are completed immediately.
+ * </p>
+ *
+ * @param <T>
+ *            document type
+ */
+public final class CursorPublisher<T> implements Publisher<T> {
+
+    public CursorPublisher(AsyncBatchCursor<T> cursor) {
+        this(cursor, new PrefetchPolicy());
+    }
+
+    public CursorPublisher(AsyncBatchCursor<T> cursor, PrefetchPolicy policy) {
+        Objects.requireNonNull(cursor);
+        Objects.requireNonNull(policy);
+        this.cursor = cursor;
+        this.policy = policy;
+    }
+
+    @Override
+    public void subscribe(Subscriber<? super T> s) {
+        Objects.requireNonNull(s);
+        if (subscribed.compareAndSet(false, true)) {
+            s.onSubscribe(new CursorSubscription<>(s, cursor, policy));
+        } else {
+            Operators.complete(s);
+        }
+    }
+
+    private static final class CursorSubscription<T> implements Subscription {
+
+        /** Weight of the latest sample in moving averages */
+        private static final double ALPHA = 0.3;
+
+        @SuppressWarnings("rawtypes")
+        private static final AtomicLongFieldUpdater<CursorSubscription> REQUESTED = AtomicLongFieldUpdater
+                .newUpdater(CursorSubscription.class, "requested");
+
+        @SuppressWarnings("rawtypes")
+        private static final AtomicIntegerFieldUpdater<CursorSubscription> WIP = AtomicIntegerFieldUpdater
+                .newUpdater(CursorSubscription.class, "wip");
+
+        CursorSubscription(Subscriber<? super T> actual, AsyncBatchCursor<T> cursor, PrefetchPolicy policy) {
+            this.actual = actual;
+            this.cursor = cursor;
+            this.highWatermark = policy.getHighWatermark();
+            this.maxBatchBytes = policy.getMaxBatchBytes();
+            this.maxBatchSize = Math.min(policy.getMaxBatchSize(), highWatermark);
+            this.minBatchSize = Math.min(policy.getMinBatchSize(), maxBatchSize);
+            this.sizer = policy.getDocumentSizer();
+        }
+
+        @Override
+        public void cancel() {
+            if (!cancelled) {
+                cancelled = true;
+                drain();
+            }
+        }
+
+        @Override
+        public void request(long n) {
+            if (Operators.validate(n)) {
+                Operators.getAndAddCap(REQUESTED, this, n);
+                drain();
+            }
+        }
+
+        private int batchSize(long demand) {
+            long size;
+            if (roundTrip == 0) {
+                // First batch, size it by demand
+                size = demand;
+            } else {
+                size = highWatermark;
+                if (rate > 0) {
+                    // Enough to keep consumer busy for a couple of round trips
+                    size = Math.min(size, (long) (rate * roundTrip * 2));
+                }
+            }
+            if (documentSize > 0) {
+                size = Math.min(size, (long) (maxBatchBytes / documentSize));
+            }
+            return (int) Math.max(Math.min(size, maxBatchSize), minBatchSize);
+        }
+
+        private void close() {
+            if (!closed) {
+                closed = true;
+                cursor.close();
+            }
+        }
+
+        private void drain() {
+            if (WIP.getAndIncrement(this) != 0) {
+                return;
+            }
+            int missed = 1;
+            for (;;) {
+                if (cancelled) {
+                    batch = null;
+                    close();
+                    return;
+                }
+                List<T> b = batch;
+                long r = requested;
+                long e = 0;
+                if (b != null) {
+                    int i = index;
+                    int size = b.size();
+                    while (e != r && i < size && !cancelled) {
+                        actual.onNext(b.get(i++));
+                        ++e;
+                    }
+                    index = i;
+                    if (i == size) {
+                        batch = null;
+                        b = null;
+                    }
+                    if (e != 0) {
+                        emitted += e;
+                        if (r != Long.MAX_VALUE) {
+                            r = REQUESTED.addAndGet(this, -e);
+                        }
+                    }
+                }
+                if (b == null && !fetching && !cancelled) {
+                    if (error != null) {
+                        close();
+                        actual.onError(error);
+                        return;
+                    } else if (done) {
+                        close();
+                        actual.onComplete();
+                        return;
+                    } else if (r > 0) {
+                        fetching = true;
+                        fetch(r);
+                    }
+                }
+                missed = WIP.addAndGet(this, -missed);
+                if (missed == 0) {
+                    break;
+                }
+            }
+        }
+
+        private void fetch(long demand) {
+            long now = System.nanoTime();
+            if (receivedAt != 0 && now > receivedAt && emitted > emittedAt) {
+                // Documents emitted since last batch arrived
+                rate = average(rate, (double) (emitted - emittedAt) / (now - receivedAt));
+            }
+            cursor.setBatchSize(batchSize(demand));
+            long start = System.nanoTime();
+            cursor.next((x, t) -> {
+                if (t != null) {
+                    error = t;
+                } else if (x == null) {
+                    done = true;
+                } else {
+                    received(x, System.nanoTime() - start);
+                }
+                fetching = false;
+                drain();
+            });
+        }
+
+        private void received(List<T> b, long elapsed) {
+            roundTrip = average(roundTrip, elapsed);
+            if (!b.isEmpty()) {
+                long bytes = 0;
+                int sized = 0;
+                for (T document : b) {
+                    int size = sizer.applyAsInt(document);
+                    if (size >= 0) {
+                        bytes += size;
+                        ++sized;
+                    }
+                }
+                if (sized > 0) {
+                    documentSize = average(documentSize, (double) bytes / sized);
+                }
+                emittedAt = emitted;
+                receivedAt = System.nanoTime();
+                index = 0;
+                batch = b;
+            }
+        }
+
+        private static double average(double average, double sample) {
+            return average == 0 ? sample : average + ALPHA * (sample - average);
+        }
+
+        private final Subscriber<? super T> actual;
+        private volatile List<T> batch;
+        private volatile boolean cancelled;
+        private boolean closed;
+        private final AsyncBatchCursor<T> cursor;
+        private volatile boolean done;
+        private double documentSize;
+        private long emitted;
+        private long emittedAt;
+        private volatile Throwable error;
+        private volatile boolean fetching;
+        private final int highWatermark;
+        private int index;
+        private final int maxBatchBytes;
+        private final int maxBatchSize;
+        private final int minBatchSize;
+        private double rate;
+        private long receivedAt;
+        private volatile long requested;
+        private double roundTrip;
+        private final ToIntFunction<Object> sizer;
+        private volatile int wip;
+    }
+
+    private final AsyncBatchCursor<T> cursor;
+    private final PrefetchPolicy policy;
+    private final AtomicBoolean subscribed = new AtomicBoolean();
+}
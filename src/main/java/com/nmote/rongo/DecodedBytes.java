@@ -0,0 +1,69 @@
+package com.nmote.rongo;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.bson.BsonBinaryReader;
+import org.bson.BsonReader;
+
+/**
+ * Average BSON size of documents decoded by {@link JacksonCodec} and
+ * {@link SpecializedCodec}, per decoded type. Driver decodes cursor batches
+ * before handing them over, so a batch of decoded documents can only be
+ * sized approximately, as number of documents times average size of their
+ * type. Sizes are recorded only while {@link Rongo#getMetrics() metrics} are
+ * enabled.
+ */
+final class DecodedBytes {
+
+    private static final double ALPHA = 0.3;
+
+    private static final ConcurrentMap<Class<?>, DecodedBytes> SIZES = new ConcurrentHashMap<>();
+
+    /**
+     * Returns approximate BSON size of a batch of decoded documents, or -1 if
+     * no document of their type was measured.
+     */
+    static long estimate(List<?> batch) {
+        if (batch.isEmpty()) {
+            return -1;
+        }
+        for (Class<?> c = batch.get(0).getClass(); c != null; c = c.getSuperclass()) {
+            DecodedBytes size = SIZES.get(c);
+            if (size != null) {
+                return Math.round(size.average * batch.size());
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns position of reader before decoding a document, or -1 if its
+     * input position isn't known.
+     */
+    static int position(BsonReader reader) {
+        return reader instanceof BsonBinaryReader ? ((BsonBinaryReader) reader).getBsonInput().getPosition() : -1;
+    }
+
+    /**
+     * Records size of a document of type decoded from position.
+     */
+    static void record(Class<?> type, BsonReader reader, int position) {
+        if (position >= 0) {
+            int bytes = ((BsonBinaryReader) reader).getBsonInput().getPosition() - position;
+            SIZES.computeIfAbsent(type, t -> new DecodedBytes(bytes)).add(bytes);
+        }
+    }
+
+    private DecodedBytes(int bytes) {
+        this.average = bytes;
+    }
+
+    private void add(int bytes) {
+        // Racy updates only lose a sample
+        average += ALPHA * (bytes - average);
+    }
+
+    private volatile double average;
+}
@@ -0,0 +1,345 @@
+package com.nmote.rongo;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.bson.BsonDocument;
+import org.bson.BsonValue;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.configuration.CodecRegistry;
+import org.bson.conversions.Bson;
+
+import com.mongodb.client.model.DeleteManyModel;
+import com.mongodb.client.model.DeleteOneModel;
+import com.mongodb.client.model.InsertOneModel;
+import com.mongodb.client.model.ReplaceOneModel;
+import com.mongodb.client.model.UpdateManyModel;
+import com.mongodb.client.model.UpdateOneModel;
+import com.mongodb.client.model.WriteModel;
+
+/**
+ * In-process cache of documents by _id used by
+ * {@link RongoCollection#findById(Object)}. Entries are kept as raw BSON and
+ * decoded on each hit, or optionally as decoded documents shared by all
+ * callers. Missing documents are cached too, for a shorter time.
+ *
+ * <p>
+ * Writes through {@link RongoCollection} invalidate entries of _ids pinned by
+ * filter, e.g. <code>{ _id: id, version: 3 }</code>, or the whole cache for
+ * filters which don't pin _id. Inserts drop missing
+ * document entries. A document read while a write was in progress isn't
+ * cached. Writes bypassing Rongo aren't seen, so time to live bounds
+ * staleness.
+ * </p>
+ *
+ * <pre>
+ * RongoCollection&lt;Instance&gt; cached = instances.withCache(new EntityCache().setMaximumSize(50000));
+ * cached.findById(id).subscribe(...);
+ * </pre>
+ */
+public class EntityCache {
+
+    public static final int DEFAULT_MAXIMUM_SIZE = 10000;
+
+    public static final long DEFAULT_NEGATIVE_TTL = TimeUnit.SECONDS.toMillis(5);
+
+    public static final long DEFAULT_TTL = TimeUnit.MINUTES.toMillis(1);
+
+    private static final String ID = "_id";
+
+    /**
+     * Removes all entries.
+     */
+    public void clear() {
+        synchronized (entries) {
+            invalidations.incrementAndGet();
+            entries.clear();
+        }
+    }
+
+    public long getEvictionCount() {
+        return evictions.sum();
+    }
+
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    public int getMaximumSize() {
+        return maximumSize;
+    }
+
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    public long getNegativeTtl() {
+        return negativeTtl;
+    }
+
+    public long getTtl() {
+        return ttl;
+    }
+
+    /**
+     * Removes document with given _id.
+     *
+     * @param id
+     *            _id
+     */
+    public void invalidate(BsonValue id) {
+        synchronized (entries) {
+            invalidations.incrementAndGet();
+            entries.remove(id);
+        }
+    }
+
+    public boolean isDecoded() {
+        return decoded;
+    }
+
+    /**
+     * Sets if documents are cached decoded instead of as raw BSON. Decoded
+     * documents are shared and mustn't be modified.
+     *
+     * @param decoded
+     *            keep decoded documents
+     * @return this
+     */
+    public EntityCache setDecoded(boolean decoded) {
+        this.decoded = decoded;
+        return this;
+    }
+
+    /**
+     * Sets maximum number of entries, least recently used ones are evicted
+     * first.
+     *
+     * @param maximumSize
+     *            number of entries
+     * @return this
+     */
+    public EntityCache setMaximumSize(int maximumSize) {
+        if (maximumSize < 1) {
+            throw new IllegalArgumentException("maximumSize < 1");
+        }
+        this.maximumSize = maximumSize;
+        return this;
+    }
+
+    /**
+     * Sets for how long in milliseconds a missing document is remembered.
+     * Zero disables caching of missing documents.
+     *
+     * @param negativeTtl
+     *            milliseconds
+     * @return this
+     */
+    public EntityCache setNegativeTtl(long negativeTtl) {
+        if (negativeTtl < 0) {
+            throw new IllegalArgumentException("negativeTtl < 0");
+        }
+        this.negativeTtl = negativeTtl;
+        return this;
+    }
+
+    /**
+     * Sets for how long in milliseconds a document is cached since it was
+     * read.
+     *
+     * @param ttl
+     *            milliseconds
+     * @return this
+     */
+    public EntityCache setTtl(long ttl) {
+        if (ttl < 1) {
+            throw new IllegalArgumentException("ttl < 1");
+        }
+        this.ttl = ttl;
+        return this;
+    }
+
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "EntityCache{size=" + size() + ", hits=" + getHitCount() + ", misses=" + getMissCount()
+                + ", evictions=" + getEvictionCount() + "}";
+    }
+
+    /**
+     * Looks up cached entry, counting a hit or a miss.
+     *
+     * @return entry or null if not cached
+     */
+    Cached get(BsonValue id, Class<?> documentClass) {
+        Cached result;
+        synchronized (entries) {
+            result = entries.get(id);
+            if (result != null && result.expires - System.nanoTime() < 0) {
+                entries.remove(id);
+                evictions.increment();
+                result = null;
+            }
+        }
+        if (result != null && result.document != null && !(result.document instanceof RawBsonDocument)
+                && result.document.getClass() != documentClass) {
+            // Decoded by a collection with other document class
+            result = null;
+        }
+        if (result != null) {
+            hits.increment();
+        } else {
+            misses.increment();
+        }
+        return result;
+    }
+
+    /**
+     * Drops missing documents entries.
+     */
+    void invalidateMissing() {
+        synchronized (entries) {
+            invalidations.incrementAndGet();
+            for (Iterator<Cached> i = entries.values().iterator(); i.hasNext();) {
+                if (i.next().document == null) {
+                    i.remove();
+                }
+            }
+        }
+    }
+
+    /**
+     * Drops entries filter may match, whole cache unless filter limits _id to
+     * an equality or $in, at top level or in a conjunct of top level $and.
+     */
+    void invalidate(Bson filter, Class<?> documentClass, CodecRegistry registry) {
+        List<BsonValue> ids = filter != null ? ids(filter.toBsonDocument(documentClass, registry)) : null;
+        if (ids == null) {
+            clear();
+        } else {
+            for (BsonValue id : ids) {
+                invalidate(id);
+            }
+        }
+    }
+
+    void invalidate(WriteModel<?> model, Class<?> documentClass, CodecRegistry registry) {
+        Bson filter;
+        if (model instanceof InsertOneModel) {
+            invalidateMissing();
+            return;
+        } else if (model instanceof ReplaceOneModel) {
+            filter = ((ReplaceOneModel<?>) model).getFilter();
+        } else if (model instanceof UpdateOneModel) {
+            filter = ((UpdateOneModel<?>) model).getFilter();
+        } else if (model instanceof UpdateManyModel) {
+            filter = ((UpdateManyModel<?>) model).getFilter();
+        } else if (model instanceof DeleteOneModel) {
+            filter = ((DeleteOneModel<?>) model).getFilter();
+        } else if (model instanceof DeleteManyModel) {
+            filter = ((DeleteManyModel<?>) model).getFilter();
+        } else {
+            filter = null;
+        }
+        invalidate(filter, documentClass, registry);
+    }
+
+    /**
+     * Caches document, or absence of it if document is null, unless cache was
+     * invalidated since stamp was taken.
+     */
+    void put(BsonValue id, Object document, long stamp) {
+        long ttl = document != null ? this.ttl : negativeTtl;
+        if (ttl > 0) {
+            Cached entry = new Cached(document, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(ttl));
+            synchronized (entries) {
+                if (stamp == invalidations.get()) {
+                    entries.put(id, entry);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns stamp to be passed to {@link #put(BsonValue, Object, long)}
+     * taken before reading a document.
+     */
+    long stamp() {
+        return invalidations.get();
+    }
+
+    /**
+     * Returns _ids filter matches can have, or null if any.
+     */
+    private static List<BsonValue> ids(BsonDocument filter) {
+        BsonValue id = filter.get(ID);
+        if (id != null) {
+            if (!isOperator(id)) {
+                return Collections.singletonList(id);
+            }
+            BsonDocument operator = id.asDocument();
+            if (operator.size() == 1 && operator.containsKey("$eq")) {
+                return Collections.singletonList(operator.get("$eq"));
+            } else if (operator.size() == 1 && operator.isArray("$in")) {
+                return operator.getArray("$in").getValues();
+            }
+        }
+        if (filter.isArray("$and")) {
+            for (BsonValue conjunct : filter.getArray("$and")) {
+                List<BsonValue> result = conjunct.isDocument() ? ids(conjunct.asDocument()) : null;
+                if (result != null) {
+                    return result;
+                }
+            }
+        }
+        return null;
+    }
+
+    private static boolean isOperator(BsonValue value) {
+        return value.isDocument() && !value.asDocument().isEmpty()
+                && value.asDocument().keySet().iterator().next().startsWith("$");
+    }
+
+    static final class Cached {
+
+        Cached(Object document, long expires) {
+            this.document = document;
+            this.expires = expires;
+        }
+
+        /** Raw or decoded document, null if missing */
+        final Object document;
+        final long expires;
+    }
+
+    private volatile boolean decoded;
+    @SuppressWarnings("serial")
+    private final Map<BsonValue, Cached> entries = new LinkedHashMap<BsonValue, Cached>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<BsonValue, Cached> eldest) {
+            boolean result = size() > maximumSize;
+            if (result) {
+                evictions.increment();
+            }
+            return result;
+        }
+    };
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder hits = new LongAdder();
+    private final AtomicLong invalidations = new AtomicLong();
+    private volatile int maximumSize = DEFAULT_MAXIMUM_SIZE;
+    private final LongAdder misses = new LongAdder();
+    private volatile long negativeTtl = DEFAULT_NEGATIVE_TTL;
+    private volatile long ttl = DEFAULT_TTL;
+}
@@ -18,42 +18,65 @@ package com.nmote.rongo;
 
 import java.io.IOException;
 import java.io.UncheckedIOException;
+import java.util.Optional;
 
+import org.bson.BsonDocument;
 import org.bson.BsonReader;
 import org.bson.BsonWriter;
-import org.bson.RawBsonDocument;
 import org.bson.codecs.Codec;
 import org.bson.codecs.DecoderContext;
 import org.bson.codecs.EncoderContext;
 import org.bson.codecs.configuration.CodecRegistry;
 
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
 
 public class JacksonCodec<T> implements Codec<T> {
 
-    public JacksonCodec(ObjectMapper bsonObjectMapper, CodecRegistry codecRegistry, Class<T> type) {
+    public JacksonCodec(ObjectMapper bsonObjectMapper, Class<T> type) {
         this.bsonObjectMapper = bsonObjectMapper;
-        this.rawBsonDocumentCodec = codecRegistry.get(RawBsonDocument.class);
         this.type = type;
+        // Root (de)serializers are resolved eagerly here, once per type
+        this.objectReader = bsonObjectMapper.readerFor(type);
+        this.objectWriter = bsonObjectMapper.writerFor(type);
+    }
+
+    /**
+     * @deprecated codec registry is no longer used, use
+     *             {@link #JacksonCodec(ObjectMapper, Class)}
+     */
+    @Deprecated
+    public JacksonCodec(ObjectMapper bsonObjectMapper, CodecRegistry codecRegistry, Class<T> type) {
+        this(bsonObjectMapper, type);
     }
 
     @Override
     public T decode(BsonReader reader, DecoderContext decoderContext) {
-        try {
-            RawBsonDocument document = rawBsonDocumentCodec.decode(reader, decoderContext);
-            return bsonObjectMapper.readValue(document.getByteBuffer().array(), type);
-        } catch (IOException e) {
-            throw new UncheckedIOException(e);
+        RongoMetrics metrics = Rongo.getMetrics();
+        if (metrics == null) {
+            return decodeDocument(reader);
         }
+        int position = DecodedBytes.position(reader);
+        long start = System.nanoTime();
+        T result = decodeDocument(reader);
+        metrics.decode(type, System.nanoTime() - start);
+        DecodedBytes.record(type, reader, position);
+        return result;
     }
 
     @Override
     public void encode(BsonWriter writer, Object value, EncoderContext encoderContext) {
-        try {
-            byte[] data = bsonObjectMapper.writeValueAsBytes(value);
-            rawBsonDocumentCodec.encode(writer, new RawBsonDocument(data), encoderContext);
-        } catch (IOException e) {
-            throw new UncheckedIOException(e);
+        RongoMetrics metrics = Rongo.getMetrics();
+        if (metrics == null) {
+            encodeDocument(writer, value);
+        } else {
+            long start = System.nanoTime();
+            encodeDocument(writer, value);
+            metrics.encode(type, System.nanoTime() - start);
         }
     }
 
@@ -62,7 +85,64 @@ public class JacksonCodec<T> implements Codec<T> {
         return this.type;
     }
 
+    /**
+     * Returns inclusion projection of fields this codec reads, computed once
+     * per codec. Returned document is shared and must not be modified.
+     *
+     * @return projection, or null if all fields may be needed
+     * @see RongoFindIterable#autoProjection()
+     */
+    public BsonDocument getProjection() {
+        Optional<BsonDocument> result = projection;
+        if (result == null) {
+            result = Optional.ofNullable(AutoProjection.create(bsonObjectMapper, type));
+            projection = result;
+        }
+        return result.orElse(null);
+    }
+
+    private T decodeDocument(BsonReader reader) {
+        try (JsonParser parser = createParser(bsonObjectMapper, reader)) {
+            return objectReader.readValue(parser);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void encodeDocument(BsonWriter writer, Object value) {
+        try (JsonGenerator generator = createGenerator(bsonObjectMapper, writer)) {
+            if (value.getClass() == type) {
+                objectWriter.writeValue(generator, value);
+            } else {
+                // Subclass instance, let mapper find serializer for runtime type
+                bsonObjectMapper.writeValue(generator, value);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    static JsonGenerator createGenerator(ObjectMapper mapper, BsonWriter writer) {
+        JsonFactory factory = mapper.getFactory();
+        if (factory instanceof RongoBsonFactory) {
+            return ((RongoBsonFactory) factory).createGenerator(writer);
+        }
+        JsonGenerator generator = new BsonWriterGenerator(0, 0, writer);
+        generator.setCodec(mapper);
+        return generator;
+    }
+
+    static JsonParser createParser(ObjectMapper mapper, BsonReader reader) {
+        JsonFactory factory = mapper.getFactory();
+        if (factory instanceof RongoBsonFactory) {
+            return ((RongoBsonFactory) factory).createParser(reader);
+        }
+        return new BsonReaderParser(reader, mapper);
+    }
+
     private final ObjectMapper bsonObjectMapper;
-    private final Codec<RawBsonDocument> rawBsonDocumentCodec;
+    private final ObjectReader objectReader;
+    private final ObjectWriter objectWriter;
+    private volatile Optional<BsonDocument> projection;
     private final Class<T> type;
 }
\ No newline at end of file
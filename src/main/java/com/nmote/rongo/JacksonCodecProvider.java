@@ -16,6 +16,10 @@
 
 package com.nmote.rongo;
 
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
 import org.bson.codecs.Codec;
 import org.bson.codecs.configuration.CodecProvider;
 import org.bson.codecs.configuration.CodecRegistry;
@@ -25,13 +29,85 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 public class JacksonCodecProvider implements CodecProvider {
 
     public JacksonCodecProvider(ObjectMapper mapper) {
+        this(mapper, false);
+    }
+
+    /**
+     * Creates provider, optionally serving {@link SpecializedCodec}s for
+     * POJOs which support them and {@link JacksonCodec}s for other types.
+     *
+     * @param mapper
+     *            object mapper
+     * @param specializeCodecs
+     *            true to use specialized codecs where possible
+     */
+    public JacksonCodecProvider(ObjectMapper mapper, boolean specializeCodecs) {
         this.mapper = mapper;
+        this.lazyDocumentCodec = new LazyDocumentCodec(mapper);
+        this.specializeCodecs = specializeCodecs;
     }
 
+    @SuppressWarnings("unchecked")
     @Override
     public <T> Codec<T> get(final Class<T> type, final CodecRegistry registry) {
-        return new JacksonCodec<>(mapper, registry, type);
+        if (type == LazyDocument.class) {
+            return (Codec<T>) lazyDocumentCodec;
+        }
+        Codec<?> codec = codecs.get(type);
+        if (codec != null) {
+            hits.increment();
+        } else {
+            misses.increment();
+            codec = codecs.computeIfAbsent(type, this::createCodec);
+        }
+        return (Codec<T>) codec;
+    }
+
+    /**
+     * Number of codec lookups served from cache.
+     *
+     * @return cache hits
+     */
+    public long getCacheHits() {
+        return hits.sum();
+    }
+
+    /**
+     * Number of codec lookups which had to create a codec (and resolve
+     * Jackson serializers) or raced with another thread doing so.
+     *
+     * @return cache misses
+     */
+    public long getCacheMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * Number of cached codecs.
+     *
+     * @return cache size
+     */
+    public int getCacheSize() {
+        return codecs.size();
+    }
+
+    public ObjectMapper getMapper() {
+        return mapper;
+    }
+
+    public boolean isSpecializeCodecs() {
+        return specializeCodecs;
+    }
+
+    private <T> Codec<T> createCodec(Class<T> type) {
+        Codec<T> codec = specializeCodecs ? SpecializedCodec.create(mapper, type) : null;
+        return codec != null ? codec : new JacksonCodec<>(mapper, type);
     }
 
+    private final ConcurrentMap<Class<?>, Codec<?>> codecs = new ConcurrentHashMap<>();
+    private final LongAdder hits = new LongAdder();
+    private final LazyDocumentCodec lazyDocumentCodec;
     private final ObjectMapper mapper;
+    private final LongAdder misses = new LongAdder();
+    private final boolean specializeCodecs;
 }
\ No newline at end of file
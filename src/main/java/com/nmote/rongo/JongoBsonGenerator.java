@@ -26,20 +26,111 @@ import org.bson.types.MinKey;
 import de.undercouch.bson4jackson.BsonConstants;
 import de.undercouch.bson4jackson.BsonGenerator;
 
-class JongoBsonGenerator extends BsonGenerator {
+class JongoBsonGenerator extends BsonGenerator implements NativeBsonGenerator {
+
+    /**
+     * Takes idle generator of the current thread or creates a new one. Pooled
+     * generators write through a retargetable stream and return themselves
+     * to the pool on {@link #close()}, so they must not be used after being
+     * closed.
+     *
+     * @param jsonFeatures
+     *            Jackson generator features
+     * @param bsonFeatures
+     *            bson4jackson generator features
+     * @param out
+     *            target stream
+     * @param maxRecycledSize
+     *            generators which wrote more bytes than this aren't
+     *            returned to the pool
+     * @return generator writing to out
+     */
+    static JongoBsonGenerator obtain(int jsonFeatures, int bsonFeatures, OutputStream out, int maxRecycledSize) {
+        JongoBsonGenerator g = IDLE.get();
+        if (g != null && g._bsonFeatures == bsonFeatures) {
+            IDLE.set(null);
+            g.overrideStdFeatures(jsonFeatures, -1);
+            g._cfgPrettyPrinter = null;
+            g._closed = false;
+        } else {
+            g = new JongoBsonGenerator(jsonFeatures, bsonFeatures, new Target());
+        }
+        g.target.out = out;
+        g.maxRecycledSize = maxRecycledSize;
+        return g;
+    }
 
     public JongoBsonGenerator(int jsonFeatures, int bsonFeatures, OutputStream out) {
         super(jsonFeatures, bsonFeatures, out);
+        this.target = null;
+    }
+
+    private JongoBsonGenerator(int jsonFeatures, int bsonFeatures, Target target) {
+        super(jsonFeatures, bsonFeatures, target);
+        this.target = target;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (target == null) {
+            super.close();
+        } else if (!_closed) {
+            boolean recycle = _buffer.size() <= maxRecycledSize;
+            try {
+                super.close();
+            } finally {
+                target.out = null;
+                // Only generators which finished cleanly go back to the pool
+                if (recycle && _currentDocument == null && _writeContext.inRoot() && IDLE.get() == null) {
+                    setCodec(null);
+                    setCharacterEscapes(null);
+                    IDLE.set(this);
+                }
+            }
+        }
     }
 
+    @Override
     public void writeNativeObjectId(org.bson.types.ObjectId objectId) throws IOException {
         _writeArrayFieldNameIfNeeded();
         _verifyValueWrite("write datetime");
         _buffer.putByte(_typeMarker, BsonConstants.TYPE_OBJECTID);
-        _buffer.putBytes(objectId.toByteArray());
+        // Big endian timestamp, machine, process and counter without an
+        // intermediate byte array
+        int timestamp = objectId.getTimestamp();
+        int machine = objectId.getMachineIdentifier();
+        short process = objectId.getProcessIdentifier();
+        int counter = objectId.getCounter();
+        _buffer.putByte((byte) (timestamp >> 24));
+        _buffer.putByte((byte) (timestamp >> 16));
+        _buffer.putByte((byte) (timestamp >> 8));
+        _buffer.putByte((byte) timestamp);
+        _buffer.putByte((byte) (machine >> 16));
+        _buffer.putByte((byte) (machine >> 8));
+        _buffer.putByte((byte) machine);
+        _buffer.putByte((byte) (process >> 8));
+        _buffer.putByte((byte) process);
+        _buffer.putByte((byte) (counter >> 16));
+        _buffer.putByte((byte) (counter >> 8));
+        _buffer.putByte((byte) counter);
+        flushBuffer();
+    }
+
+    @Override
+    public void writeObjectIdHex(String hex) throws IOException {
+        if (!org.bson.types.ObjectId.isValid(hex)) {
+            throw new IllegalArgumentException("invalid hexadecimal representation of an ObjectId: [" + hex + "]");
+        }
+        _writeArrayFieldNameIfNeeded();
+        _verifyValueWrite("write object id");
+        _buffer.putByte(_typeMarker, BsonConstants.TYPE_OBJECTID);
+        for (int i = 0; i < 24; i += 2) {
+            _buffer.putByte((byte) (Character.digit(hex.charAt(i), 16) << 4 | Character.digit(hex.charAt(i + 1), 16)));
+        }
         flushBuffer();
     }
 
+    @Override
     public void writeMinKey(MinKey key) throws IOException {
         _writeArrayFieldNameIfNeeded();
         _verifyValueWrite("write int");
@@ -47,6 +138,7 @@ class JongoBsonGenerator extends BsonGenerator {
         flushBuffer();
     }
 
+    @Override
     public void writeMaxKey(MaxKey key) throws IOException {
         _writeArrayFieldNameIfNeeded();
         _verifyValueWrite("write boolean");
@@ -54,6 +146,7 @@ class JongoBsonGenerator extends BsonGenerator {
         flushBuffer();
     }
 
+    @Override
     public void writeBinary(Binary binary) throws IOException {
         _writeArrayFieldNameIfNeeded();
         _verifyValueWrite("write binary");
@@ -64,4 +157,34 @@ class JongoBsonGenerator extends BsonGenerator {
         _buffer.putBytes(binary.getData());
         flushBuffer();
     }
+
+    private static final class Target extends OutputStream {
+
+        @Override
+        public void close() throws IOException {
+            out.close();
+        }
+
+        @Override
+        public void flush() throws IOException {
+            out.flush();
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+        }
+
+        private OutputStream out;
+    }
+
+    private static final ThreadLocal<JongoBsonGenerator> IDLE = new ThreadLocal<>();
+
+    private int maxRecycledSize;
+    private final Target target;
 }
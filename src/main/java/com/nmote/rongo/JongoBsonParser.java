@@ -20,6 +20,7 @@ import java.io.IOException;
 import java.io.InputStream;
 
 import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.core.io.IOContext;
 
 import de.undercouch.bson4jackson.BsonParser;
@@ -27,6 +28,14 @@ import de.undercouch.bson4jackson.types.ObjectId;
 
 class JongoBsonParser extends BsonParser {
 
+    /**
+     * Placeholder value bson4jackson keeps for object ids read by this parser,
+     * actual id bytes are held by the parser itself.
+     */
+    private static final ObjectId PENDING = new ObjectId(0, 0, 0);
+
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
     public JongoBsonParser(IOContext ctxt, int jsonFeatures, int bsonFeatures, InputStream in) {
         super(ctxt, jsonFeatures, bsonFeatures, in);
     }
@@ -34,13 +43,62 @@ class JongoBsonParser extends BsonParser {
     @Override
     public Object getEmbeddedObject() throws IOException, JsonParseException {
         Object object = super.getEmbeddedObject();
+        if (object == PENDING) {
+            // Materialized only when asked for, skipped ids cost nothing
+            if (objectId == null) {
+                objectId = new org.bson.types.ObjectId(objectIdBytes);
+            }
+            return objectId;
+        }
         if (object instanceof ObjectId) {
             return convertToNativeObjectId((ObjectId) object);
         }
         return object;
     }
 
+    @Override
+    public String getText() throws IOException, JsonParseException {
+        if (getCurrentToken() == JsonToken.VALUE_EMBEDDED_OBJECT && super.getEmbeddedObject() == PENDING) {
+            return objectId != null ? objectId.toHexString() : hex(objectIdBytes);
+        }
+        return super.getText();
+    }
+
+    @Override
+    protected JsonToken handleDBPointer() throws IOException {
+        // Pointer embeds bson4jackson id, read it the usual way
+        dbPointer = true;
+        try {
+            return super.handleDBPointer();
+        } finally {
+            dbPointer = false;
+        }
+    }
+
+    @Override
+    protected ObjectId readObjectId() throws IOException {
+        if (dbPointer) {
+            return super.readObjectId();
+        }
+        _in.readFully(objectIdBytes);
+        objectId = null;
+        return PENDING;
+    }
+
     private org.bson.types.ObjectId convertToNativeObjectId(ObjectId id) {
         return org.bson.types.ObjectId.createFromLegacyFormat(id.getTime(), id.getMachine(), id.getInc());
     }
+
+    private static String hex(byte[] bytes) {
+        char[] result = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; ++i) {
+            result[i * 2] = HEX_DIGITS[(bytes[i] >> 4) & 0xf];
+            result[i * 2 + 1] = HEX_DIGITS[bytes[i] & 0xf];
+        }
+        return new String(result);
+    }
+
+    private boolean dbPointer;
+    private org.bson.types.ObjectId objectId;
+    private final byte[] objectIdBytes = new byte[12];
 }
@@ -0,0 +1,311 @@
+package com.nmote.rongo;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.bson.BsonBinaryReader;
+import org.bson.BsonDocument;
+import org.bson.BsonReader;
+import org.bson.BsonType;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.RawBsonDocumentCodec;
+import org.bson.codecs.configuration.CodecRegistry;
+import org.bson.conversions.Bson;
+import org.bson.io.ByteBufferBsonInput;
+import org.bson.types.ObjectId;
+
+import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Document which keeps raw BSON bytes and decodes fields with Jackson only
+ * when they are accessed. Useful when only a few fields of large documents
+ * are needed:
+ *
+ * <pre>
+ * RongoCollection&lt;LazyDocument&gt; docs = instances.withJacksonCodecRegistry().withDocumentClass(LazyDocument.class);
+ * docs.find().flux().map(d -&gt; d.getString("owner.name"));
+ * </pre>
+ *
+ * Fields are addressed by dotted paths, array elements by their index (eg.
+ * "items.0.price"). Decoded values are cached per path and requested type.
+ * Instances may be read from many threads, e.g. when shared by coalesced
+ * reads, concurrent first accesses may decode a value more than once.
+ */
+public class LazyDocument implements Bson {
+
+    private static final RawBsonDocumentCodec RAW_CODEC = new RawBsonDocumentCodec();
+
+    public LazyDocument(byte[] bytes) {
+        this(new RawBsonDocument(bytes));
+    }
+
+    public LazyDocument(RawBsonDocument raw) {
+        this(raw, null);
+    }
+
+    public LazyDocument(RawBsonDocument raw, ObjectMapper mapper) {
+        Objects.requireNonNull(raw);
+        this.raw = raw;
+        this.mapper = mapper;
+    }
+
+    /**
+     * Decodes complete document to type.
+     *
+     * @param type
+     *            target type
+     * @return decoded document
+     */
+    public <V> V as(Class<V> type) {
+        BsonBinaryReader reader = newReader();
+        try {
+            return decode(reader, getMapper().constructType(type));
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Is there a value (possibly null) on path?
+     *
+     * @param path
+     *            dotted path
+     * @return true if path exists
+     */
+    public boolean contains(String path) {
+        if (path.indexOf('.') < 0) {
+            return raw.containsKey(path);
+        }
+        BsonBinaryReader reader = seek(path);
+        if (reader != null) {
+            reader.close();
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        return obj instanceof LazyDocument && raw.equals(((LazyDocument) obj).raw);
+    }
+
+    public Object get(String path) {
+        return get(path, Object.class);
+    }
+
+    /**
+     * Decodes value on path to type. Scalar types, POJOs, maps and anything
+     * else Jackson can deserialize are supported.
+     *
+     * @param path
+     *            dotted path
+     * @param type
+     *            target type
+     * @return decoded value or null if there is no value on path
+     */
+    public <V> V get(String path, Class<V> type) {
+        return getCached(path, type);
+    }
+
+    /**
+     * Decodes value on path to a generic type.
+     *
+     * @param path
+     *            dotted path
+     * @param type
+     *            target type
+     * @return decoded value or null if there is no value on path
+     */
+    public <V> V get(String path, JavaType type) {
+        return getCached(path, type);
+    }
+
+    public Boolean getBoolean(String path) {
+        return get(path, Boolean.class);
+    }
+
+    public Date getDate(String path) {
+        return get(path, Date.class);
+    }
+
+    /**
+     * Returns sub document on path, still lazily decoded.
+     *
+     * @param path
+     *            dotted path
+     * @return sub document or null
+     */
+    public LazyDocument getDocument(String path) {
+        return get(path, LazyDocument.class);
+    }
+
+    public Double getDouble(String path) {
+        return get(path, Double.class);
+    }
+
+    public Integer getInteger(String path) {
+        return get(path, Integer.class);
+    }
+
+    public <V> List<V> getList(String path, Class<V> elementType) {
+        return get(path, getMapper().getTypeFactory().constructCollectionType(List.class, elementType));
+    }
+
+    public Long getLong(String path) {
+        return get(path, Long.class);
+    }
+
+    public ObjectId getObjectId(String path) {
+        return get(path, ObjectId.class);
+    }
+
+    public RawBsonDocument getRawDocument() {
+        return raw;
+    }
+
+    public String getString(String path) {
+        return get(path, String.class);
+    }
+
+    @Override
+    public int hashCode() {
+        return raw.hashCode();
+    }
+
+    public Set<String> keySet() {
+        return raw.keySet();
+    }
+
+    @Override
+    public <TDocument> BsonDocument toBsonDocument(Class<TDocument> documentClass, CodecRegistry codecRegistry) {
+        return raw;
+    }
+
+    public String toJson() {
+        return raw.toJson();
+    }
+
+    @Override
+    public String toString() {
+        return "LazyDocument{" + raw.toJson() + "}";
+    }
+
+    private Object decode(String path, Object type) {
+        BsonBinaryReader reader = seek(path);
+        if (reader == null) {
+            return null;
+        }
+        try {
+            if (type == LazyDocument.class) {
+                return reader.getCurrentBsonType() == BsonType.DOCUMENT
+                        ? new LazyDocument(RAW_CODEC.decode(reader, DecoderContext.builder().build()), mapper)
+                        : null;
+            }
+            return decode(reader, type instanceof JavaType ? (JavaType) type
+                    : getMapper().constructType((Class<?>) type));
+        } finally {
+            reader.close();
+        }
+    }
+
+    private <V> V decode(BsonReader reader, JavaType type) {
+        try {
+            return getMapper().readValue(new BsonReaderParser(reader, getMapper()), type);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Returns value decoded to type (a Class or JavaType), decoding it on
+     * first access.
+     */
+    @SuppressWarnings("unchecked")
+    private <V> V getCached(String path, Object type) {
+        Decoded d = decoded.get(path);
+        if (d == null || !d.type.equals(type)) {
+            d = new Decoded(type, decode(path, type));
+            decoded.put(path, d);
+        }
+        return (V) d.value;
+    }
+
+    private ObjectMapper getMapper() {
+        return mapper != null ? mapper : Rongo.getObjectMapper();
+    }
+
+    private BsonBinaryReader newReader() {
+        return new BsonBinaryReader(new ByteBufferBsonInput(raw.getByteBuffer()));
+    }
+
+    /**
+     * Positions reader on value addressed by path.
+     *
+     * @return reader or null if path doesn't exist
+     */
+    private BsonBinaryReader seek(String path) {
+        BsonBinaryReader reader = newReader();
+        reader.readStartDocument();
+        boolean array = false;
+        for (int start = 0;;) {
+            int dot = path.indexOf('.', start);
+            String name = dot < 0 ? path.substring(start) : path.substring(start, dot);
+            BsonType type = seek(reader, name, array);
+            if (type != null && dot < 0) {
+                return reader;
+            } else if (type == BsonType.DOCUMENT) {
+                reader.readStartDocument();
+                array = false;
+            } else if (type == BsonType.ARRAY) {
+                reader.readStartArray();
+                array = true;
+            } else {
+                reader.close();
+                return null;
+            }
+            start = dot + 1;
+        }
+    }
+
+    private static BsonType seek(BsonReader reader, String name, boolean array) {
+        int index = -1;
+        if (array) {
+            try {
+                index = Integer.parseInt(name);
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+        BsonType type;
+        for (int i = 0; (type = reader.readBsonType()) != BsonType.END_OF_DOCUMENT; ++i) {
+            if (array ? i == index : reader.readName().equals(name)) {
+                return type;
+            }
+            reader.skipValue();
+        }
+        return null;
+    }
+
+    private static final class Decoded {
+
+        Decoded(Object type, Object value) {
+            this.type = type;
+            this.value = value;
+        }
+
+        final Object type;
+        final Object value;
+    }
+
+    private final Map<String, Decoded> decoded = new ConcurrentHashMap<>();
+    private final ObjectMapper mapper;
+    private final RawBsonDocument raw;
+}
@@ -0,0 +1,39 @@
+package com.nmote.rongo;
+
+import org.bson.BsonReader;
+import org.bson.BsonWriter;
+import org.bson.codecs.Codec;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.EncoderContext;
+import org.bson.codecs.RawBsonDocumentCodec;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Codec for {@link LazyDocument}. Decoding only copies document bytes, field
+ * values are deserialized later on access.
+ */
+public class LazyDocumentCodec implements Codec<LazyDocument> {
+
+    public LazyDocumentCodec(ObjectMapper mapper) {
+        this.mapper = mapper;
+    }
+
+    @Override
+    public LazyDocument decode(BsonReader reader, DecoderContext decoderContext) {
+        return new LazyDocument(rawCodec.decode(reader, decoderContext), mapper);
+    }
+
+    @Override
+    public void encode(BsonWriter writer, LazyDocument value, EncoderContext encoderContext) {
+        rawCodec.encode(writer, value.getRawDocument(), encoderContext);
+    }
+
+    @Override
+    public Class<LazyDocument> getEncoderClass() {
+        return LazyDocument.class;
+    }
+
+    private final ObjectMapper mapper;
+    private final RawBsonDocumentCodec rawCodec = new RawBsonDocumentCodec();
+}
@@ -0,0 +1,35 @@
+package com.nmote.rongo;
+
+import java.io.IOException;
+
+import org.bson.types.Binary;
+import org.bson.types.MaxKey;
+import org.bson.types.MinKey;
+import org.bson.types.ObjectId;
+
+/**
+ * Generator capable of writing mongo driver native BSON types. Implemented by
+ * both {@link JongoBsonGenerator} and {@link BsonWriterGenerator}, used by
+ * {@link BsonSerializers}.
+ */
+interface NativeBsonGenerator {
+
+    void writeBinary(Binary binary) throws IOException;
+
+    void writeMaxKey(MaxKey key) throws IOException;
+
+    void writeMinKey(MinKey key) throws IOException;
+
+    void writeNativeObjectId(ObjectId objectId) throws IOException;
+
+    /**
+     * Writes object id given as 24 character hex string. Implementations may
+     * avoid creating an intermediate {@link ObjectId}.
+     *
+     * @param hex
+     *            hex representation of an object id
+     * @throws IOException
+     *             in case of write error
+     */
+    void writeObjectIdHex(String hex) throws IOException;
+}
@@ -21,12 +21,11 @@ import java.io.IOException;
 import org.bson.types.ObjectId;
 
 import com.fasterxml.jackson.core.JsonParser;
-import com.fasterxml.jackson.core.TreeNode;
+import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.databind.BeanProperty;
 import com.fasterxml.jackson.databind.DeserializationContext;
 import com.fasterxml.jackson.databind.JsonDeserializer;
 import com.fasterxml.jackson.databind.JsonMappingException;
-import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.deser.ContextualDeserializer;
 
 public class ObjectIdDeserializer extends JsonDeserializer<Object> implements ContextualDeserializer {
@@ -46,23 +45,58 @@ public class ObjectIdDeserializer extends JsonDeserializer<Object> implements Co
 
     @Override
     public Object deserialize(JsonParser jp, DeserializationContext ctxt) throws IOException {
-        TreeNode treeNode = jp.readValueAsTree();
-        JsonNode oid = ((JsonNode) treeNode).get("$oid");
-        Object result;
-        if (fieldIsObjectId) {
-            if (oid != null) {
-                result = new ObjectId(oid.asText());
-            } else {
-                result = new ObjectId(((JsonNode) treeNode).asText());
+        return read(jp, fieldIsObjectId);
+    }
+
+    /**
+     * Reads object id from current token without building a tree. Accepts
+     * embedded object ids, {$oid: "..."} documents and plain values.
+     *
+     * @param jp
+     *            parser positioned on value
+     * @param fieldIsObjectId
+     *            true to return ObjectId, otherwise hex string
+     * @return ObjectId or String
+     * @throws IOException
+     *             in case of parser error
+     */
+    static Object read(JsonParser jp, boolean fieldIsObjectId) throws IOException {
+        String text;
+        JsonToken token = jp.getCurrentToken();
+        if (token == JsonToken.VALUE_EMBEDDED_OBJECT) {
+            if (!fieldIsObjectId) {
+                // Rongo parsers give ids as hex text without creating ObjectId
+                text = jp.getText();
+                if (text != null) {
+                    return text;
+                }
             }
-        } else {
-            if (oid != null) {
-                result = oid.asText();
-            } else {
-                result = ((JsonNode) treeNode).asText();
+            Object embedded = jp.getEmbeddedObject();
+            if (embedded instanceof ObjectId) {
+                return fieldIsObjectId ? embedded : ((ObjectId) embedded).toHexString();
             }
+            text = String.valueOf(embedded);
+        } else if (token == JsonToken.START_OBJECT) {
+            text = null;
+            while (jp.nextToken() == JsonToken.FIELD_NAME) {
+                String name = jp.getCurrentName();
+                jp.nextToken();
+                if (text == null && "$oid".equals(name)) {
+                    text = jp.getText();
+                } else {
+                    jp.skipChildren();
+                }
+            }
+            if (text == null) {
+                text = "";
+            }
+        } else if (token == JsonToken.START_ARRAY) {
+            jp.skipChildren();
+            text = "";
+        } else {
+            text = jp.getText();
         }
-        return result;
+        return fieldIsObjectId ? new ObjectId(text) : text;
     }
 
     private final boolean fieldIsObjectId;
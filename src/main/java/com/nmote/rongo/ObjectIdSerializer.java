@@ -46,6 +46,12 @@ public class ObjectIdSerializer extends JsonSerializer<Object> implements Contex
     public void serialize(Object value, JsonGenerator jgen, SerializerProvider provider) throws IOException {
         if (value == null) {
             jgen.writeNull();
+        } else if (jgen instanceof NativeBsonGenerator) {
+            if (fieldIsObjectId) {
+                ((NativeBsonGenerator) jgen).writeNativeObjectId((ObjectId) value);
+            } else {
+                ((NativeBsonGenerator) jgen).writeObjectIdHex(value.toString());
+            }
         } else if (fieldIsObjectId) {
             jgen.writeObject(value);
         } else {
@@ -0,0 +1,90 @@
+package com.nmote.rongo;
+
+import org.bson.conversions.Bson;
+
+/**
+ * Options for {@link RongoCollection#parallelScan(ParallelScanOptions)}.
+ */
+public class ParallelScanOptions {
+
+    public static final int DEFAULT_PARTITIONS = 16;
+
+    public ParallelScanOptions batchSize(int batchSize) {
+        this.batchSize = batchSize;
+        return this;
+    }
+
+    /**
+     * Sets maximum number of partitions scanned at once. Defaults to number
+     * of available processors.
+     *
+     * @param concurrency
+     *            number of concurrently open cursors
+     * @return this
+     */
+    public ParallelScanOptions concurrency(int concurrency) {
+        if (concurrency < 1) {
+            throw new IllegalArgumentException("concurrency < 1");
+        }
+        this.concurrency = concurrency;
+        return this;
+    }
+
+    public ParallelScanOptions filter(Bson filter) {
+        this.filter = filter;
+        return this;
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    public int getConcurrency() {
+        return concurrency;
+    }
+
+    public Bson getFilter() {
+        return filter;
+    }
+
+    public int getPartitions() {
+        return partitions;
+    }
+
+    public Bson getProjection() {
+        return projection;
+    }
+
+    /**
+     * Sets number of _id ranges collection is split into. Fewer partitions are
+     * used if there aren't enough distinct boundaries.
+     *
+     * @param partitions
+     *            number of partitions
+     * @return this
+     */
+    public ParallelScanOptions partitions(int partitions) {
+        if (partitions < 1) {
+            throw new IllegalArgumentException("partitions < 1");
+        }
+        this.partitions = partitions;
+        return this;
+    }
+
+    public ParallelScanOptions projection(Bson projection) {
+        this.projection = projection;
+        return this;
+    }
+
+    @Override
+    public String toString() {
+        return "ParallelScanOptions{partitions=" + partitions + ", concurrency=" + concurrency + ", batchSize="
+                + batchSize + ", filter=" + filter + ", projection=" + projection + "}";
+    }
+
+    private int batchSize;
+    private int concurrency = Runtime.getRuntime().availableProcessors();
+    private Bson filter;
+    private int partitions = DEFAULT_PARTITIONS;
+    private Bson projection;
+}
@@ -0,0 +1,157 @@
+package com.nmote.rongo;
+
+import java.util.function.ToIntFunction;
+
+import org.bson.RawBsonDocument;
+
+/**
+ * Controls how {@link CursorPublisher} fetches batches. Batch size follows
+ * observed consumer rate and round trip time, never letting held documents
+ * exceed high watermark or a batch exceed byte limit.
+ *
+ * <p>
+ * Document size is estimated by {@link #setDocumentSizer(ToIntFunction)
+ * document sizer}. Default one knows sizes of {@link RawBsonDocument}s and
+ * {@link LazyDocument}s. Byte limit applies only to documents the sizer can
+ * measure, so for POJOs and other decoded documents it takes a sizer which
+ * knows their size. Batches of documents sizer can't measure are sized by
+ * count alone.
+ * </p>
+ */
+public class PrefetchPolicy {
+
+    public static final int DEFAULT_HIGH_WATERMARK = 10000;
+
+    public static final int DEFAULT_MAX_BATCH_BYTES = 4 << 20;
+
+    public static final int DEFAULT_MAX_BATCH_SIZE = 10000;
+
+    public static final int DEFAULT_MIN_BATCH_SIZE = 50;
+
+    /**
+     * Creates policy always fetching batchSize documents.
+     *
+     * @param batchSize
+     *            batch size
+     * @return prefetch policy
+     */
+    public static PrefetchPolicy fixed(int batchSize) {
+        return new PrefetchPolicy().setHighWatermark(batchSize).setMaxBatchSize(batchSize)
+                .setMinBatchSize(batchSize);
+    }
+
+    /**
+     * Returns BSON size of raw and lazy documents, -1 for anything else.
+     *
+     * @param document
+     *            document
+     * @return size in bytes or -1 if unknown
+     */
+    public static int rawDocumentSize(Object document) {
+        RawBsonDocument raw;
+        if (document instanceof RawBsonDocument) {
+            raw = (RawBsonDocument) document;
+        } else if (document instanceof LazyDocument) {
+            raw = ((LazyDocument) document).getRawDocument();
+        } else {
+            return -1;
+        }
+        return raw.getByteBuffer().remaining();
+    }
+
+    public ToIntFunction<Object> getDocumentSizer() {
+        return documentSizer;
+    }
+
+    public int getHighWatermark() {
+        return highWatermark;
+    }
+
+    public int getMaxBatchBytes() {
+        return maxBatchBytes;
+    }
+
+    public int getMaxBatchSize() {
+        return maxBatchSize;
+    }
+
+    public int getMinBatchSize() {
+        return minBatchSize;
+    }
+
+    /**
+     * Sets function estimating BSON size of a decoded document, returning -1
+     * when size isn't known.
+     *
+     * @param documentSizer
+     *            document sizer
+     * @return this
+     */
+    public PrefetchPolicy setDocumentSizer(ToIntFunction<Object> documentSizer) {
+        if (documentSizer == null) {
+            throw new IllegalArgumentException("documentSizer == null");
+        }
+        this.documentSizer = documentSizer;
+        return this;
+    }
+
+    /**
+     * Sets maximum number of fetched documents waiting for downstream demand,
+     * effectively a limit of batch size.
+     *
+     * @param highWatermark
+     *            number of documents
+     * @return this
+     */
+    public PrefetchPolicy setHighWatermark(int highWatermark) {
+        if (highWatermark < 1) {
+            throw new IllegalArgumentException("highWatermark < 1");
+        }
+        this.highWatermark = highWatermark;
+        return this;
+    }
+
+    /**
+     * Sets approximate maximum size of a batch in bytes.
+     *
+     * @param maxBatchBytes
+     *            size in bytes
+     * @return this
+     */
+    public PrefetchPolicy setMaxBatchBytes(int maxBatchBytes) {
+        if (maxBatchBytes < 1) {
+            throw new IllegalArgumentException("maxBatchBytes < 1");
+        }
+        this.maxBatchBytes = maxBatchBytes;
+        return this;
+    }
+
+    public PrefetchPolicy setMaxBatchSize(int maxBatchSize) {
+        if (maxBatchSize < 1) {
+            throw new IllegalArgumentException("maxBatchSize < 1");
+        }
+        this.maxBatchSize = maxBatchSize;
+        return this;
+    }
+
+    public PrefetchPolicy setMinBatchSize(int minBatchSize) {
+        if (minBatchSize < 1) {
+            throw new IllegalArgumentException("minBatchSize < 1");
+        }
+        this.minBatchSize = minBatchSize;
+        return this;
+    }
+
+    @Override
+    public String toString() {
+        return "PrefetchPolicy{highWatermark=" + highWatermark
+                + ", minBatchSize=" + minBatchSize + ", maxBatchSize=" + maxBatchSize + ", maxBatchBytes="
+                + maxBatchBytes + "}";
+    }
+
+    private ToIntFunction<Object> documentSizer = PrefetchPolicy::rawDocumentSize;
+    private int highWatermark = DEFAULT_HIGH_WATERMARK;
+    private int maxBatchBytes = DEFAULT_MAX_BATCH_BYTES;
+    private int maxBatchSize = DEFAULT_MAX_BATCH_SIZE;
+    private int minBatchSize = DEFAULT_MIN_BATCH_SIZE;
+}
@@ -1,11 +1,16 @@
 package com.nmote.rongo;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Consumer;
 
 import org.bson.Document;
@@ -15,66 +20,135 @@ import org.bson.codecs.configuration.CodecRegistry;
 import com.fasterxml.jackson.databind.AnnotationIntrospector;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.introspect.AnnotationIntrospectorPair;
+import com.mongodb.MongoNamespace;
 import com.mongodb.async.AsyncBatchCursor;
 import com.mongodb.async.SingleResultCallback;
 import com.mongodb.async.client.FindIterable;
 import com.mongodb.async.client.MongoClients;
 import com.mongodb.async.client.MongoCollection;
+import com.mongodb.async.client.MongoIterable;
 
 import reactor.core.publisher.Flux;
-import reactor.core.publisher.FluxSink;
 import reactor.core.publisher.Mono;
 import reactor.core.publisher.MonoSink;
 
 public class Rongo {
 
-    private static class CursorEmitter<T> implements Consumer<FluxSink<T>> {
+    /** Default number of compiled templates kept by {@link #template(String)} */
+    public static final int DEFAULT_TEMPLATE_CACHE_SIZE = 256;
 
-        public CursorEmitter(AsyncBatchCursor<T> cursor) {
-            Objects.requireNonNull(cursor);
+    /** Cached registries are dropped once there are this many */
+    private static final int MAX_CACHED_REGISTRIES = 256;
+
+    /**
+     * Presents each batch of a cursor as a single element batch, letting
+     * {@link CursorPublisher} emit batches.
+     */
+    private static class BatchCursor<T> implements AsyncBatchCursor<List<T>> {
+
+        BatchCursor(AsyncBatchCursor<T> cursor) {
             this.cursor = cursor;
         }
 
         @Override
-        public void accept(FluxSink<T> emitter) {
-            synchronized (this) {
-                if (this.emitter == null) {
-                    this.emitter = emitter;
-                    emitter.setCancellation(cursor::close);
-                    nextBatch();
-                } else {
-                    emitter.complete();
-                }
-            }
+        public void close() {
+            cursor.close();
+        }
+
+        @Override
+        public int getBatchSize() {
+            return 1;
+        }
+
+        @Override
+        public boolean isClosed() {
+            return cursor.isClosed();
+        }
+
+        @Override
+        public void next(SingleResultCallback<List<List<T>>> callback) {
+            cursor.next((x, t) -> callback.onResult(x != null ? Collections.singletonList(x) : null, t));
         }
 
-        private void nextBatch() {
-            if (emitter.isCancelled()) {
-                // System.out.println("cancel");
-                return;
+        @Override
+        public void setBatchSize(int batchSize) {
+            // Batch size of the underlying cursor is kept
+        }
+
+        private final AsyncBatchCursor<T> cursor;
+    }
+
+    /**
+     * Reports batches of a cursor to metrics, and its totals once closed.
+     */
+    private static class MetricsCursor<T> implements AsyncBatchCursor<T> {
+
+        MetricsCursor(AsyncBatchCursor<T> cursor, RongoMetrics metrics, MongoNamespace namespace, long openedAt) {
+            this.cursor = cursor;
+            this.metrics = metrics;
+            this.namespace = namespace;
+            this.openedAt = openedAt;
+        }
+
+        @Override
+        public void close() {
+            if (!reported) {
+                reported = true;
+                metrics.cursor(namespace, documents, bytes, error);
             }
-            long requested = emitter.requestedFromDownstream();
-            int rate = (int) Math.max(Math.min(requested, 10000), 50);
-            // System.out.println("next " + requested + " rate " + rate);
-            cursor.setBatchSize(rate);
+            cursor.close();
+        }
+
+        @Override
+        public int getBatchSize() {
+            return cursor.getBatchSize();
+        }
+
+        @Override
+        public boolean isClosed() {
+            return cursor.isClosed();
+        }
+
+        @Override
+        public void next(SingleResultCallback<List<T>> callback) {
+            // First batch time includes opening the cursor
+            long start = first ? openedAt : System.nanoTime();
             cursor.next((x, t) -> {
+                long elapsed = System.nanoTime() - start;
                 if (t != null) {
-                    emitter.error(t);
+                    error = t;
                 } else if (x != null) {
-                    x.forEach(emitter::next);
-                    // TODO Adjust batch size based on
-                    // emitter::requestedFromDownstream
-                    nextBatch();
-                } else {
-                    emitter.complete();
+                    long b = 0;
+                    for (T document : x) {
+                        b += Math.max(PrefetchPolicy.rawDocumentSize(document), 0);
+                    }
+                    if (b == 0 && !x.isEmpty()) {
+                        // Decoded documents, approximated by codec
+                        b = Math.max(DecodedBytes.estimate(x), 0);
+                    }
+                    documents += x.size();
+                    bytes += b;
+                    metrics.batch(namespace, first, x.size(), b, elapsed);
                 }
+                first = false;
+                callback.onResult(x, t);
             });
         }
 
-        private final AsyncBatchCursor<T> cursor;
-
-        private FluxSink<T> emitter;
+        @Override
+        public void setBatchSize(int batchSize) {
+            cursor.setBatchSize(batchSize);
+        }
 
+        private volatile long bytes;
+        private final AsyncBatchCursor<T> cursor;
+        private volatile long documents;
+        private volatile Throwable error;
+        private volatile boolean first = true;
+        private final RongoMetrics metrics;
+        private final MongoNamespace namespace;
+        private final long openedAt;
+        private volatile boolean reported;
     }
 
     private static class MonoCallbackSink<T> implements SingleResultCallback<T>, Consumer<MonoSink<T>> {
@@ -93,6 +167,9 @@ public class Rongo {
         public void onResult(T result, Throwable t) {
             if (t != null) {
                 sink.error(t);
+            } else if (result == null) {
+                // Not found, complete empty instead of emitting null
+                sink.success();
             } else {
                 sink.success(result);
             }
@@ -144,19 +221,66 @@ public class Rongo {
     }
 
     public static Document bind(String doc, Map<String, Object> parameters) {
-        return bind(Document.parse(doc), parameters);
+        return template(doc).bindDocument(parameters);
     }
 
     public static Document bind(String doc, Object... parameters) {
-        Document result =  bind(Document.parse(doc), parameters);
-        return result;
+        return template(doc).bindDocument(parameters);
     }
 
+    /**
+     * Creates a codec registry which falls back to Jackson (using shared
+     * {@link #getObjectMapper() object mapper}) for classes not handled by
+     * given registries. Registries are cached per configuration, so
+     * collections share one registry and one warmed-up mapper.
+     *
+     * @param registry
+     *            registries to consult before Jackson, mongo default
+     *            registry if none are given
+     * @return codec registry
+     */
     public static CodecRegistry codecRegistry(CodecRegistry... registry) {
-        return codecRegistry(null, registry);
+        List<CodecRegistry> key = registry.length == 0
+                ? Collections.singletonList(MongoClients.getDefaultCodecRegistry())
+                : Arrays.asList(registry.clone());
+        CodecRegistry result = registries.get(key);
+        if (result == null) {
+            // Built under the same lock as setObjectMapper, so registry isn't
+            // cached for a replaced mapper
+            synchronized (Rongo.class) {
+                result = registries.get(key);
+                if (result == null) {
+                    List<CodecRegistry> regs = new ArrayList<>(key);
+                    regs.add(jacksonCodecRegistry());
+                    result = CodecRegistries.fromRegistries(regs);
+                    if (registries.size() >= MAX_CACHED_REGISTRIES) {
+                        registries.clear();
+                    }
+                    registries.put(key, result);
+                    // Already backed by Jackson, returned as is
+                    registries.put(Collections.singletonList(result), result);
+                }
+            }
+        }
+        return result;
     }
 
+    /**
+     * Creates a codec registry using a dedicated object mapper customized by
+     * mapperModifier. Unlike {@link #codecRegistry(CodecRegistry...)} result
+     * isn't cached unless mapperModifier is null, so prefer
+     * {@link #setObjectMapper(ObjectMapper)} for process wide customization.
+     *
+     * @param mapperModifier
+     *            customizes new object mapper, may be null
+     * @param registry
+     *            registries to consult before Jackson
+     * @return codec registry
+     */
     public static CodecRegistry codecRegistry(Consumer<ObjectMapper> mapperModifier, CodecRegistry... registry) {
+        if (mapperModifier == null) {
+            return codecRegistry(registry);
+        }
         List<CodecRegistry> regs = new ArrayList<>();
         if (registry.length == 0) {
             regs.add(MongoClients.getDefaultCodecRegistry());
@@ -170,7 +294,21 @@ public class Rongo {
     }
 
     public static CodecRegistry codecRegistry(ObjectMapper mapper) {
-        return CodecRegistries.fromProviders(new JacksonCodecProvider(mapper));
+        return codecRegistry(mapper, false);
+    }
+
+    /**
+     * Creates Jackson codec registry, optionally using reflection free
+     * {@link SpecializedCodec}s for supported POJOs.
+     *
+     * @param mapper
+     *            object mapper
+     * @param specializeCodecs
+     *            true to use specialized codecs where possible
+     * @return codec registry
+     */
+    public static CodecRegistry codecRegistry(ObjectMapper mapper, boolean specializeCodecs) {
+        return CodecRegistries.fromProviders(new JacksonCodecProvider(mapper, specializeCodecs));
     }
 
     public static ObjectMapper createObjectMapper(Consumer<ObjectMapper> mapperModifier) {
@@ -189,12 +327,103 @@ public class Rongo {
         return mapper;
     }
 
+    /**
+     * Returns process wide object mapper used by Jackson codec registries.
+     * Created with {@link #createObjectMapper(Consumer)} unless one was
+     * registered with {@link #setObjectMapper(ObjectMapper)}.
+     *
+     * @return shared object mapper
+     */
+    public static ObjectMapper getObjectMapper() {
+        ObjectMapper result = objectMapper;
+        if (result == null) {
+            synchronized (Rongo.class) {
+                result = objectMapper;
+                if (result == null) {
+                    objectMapper = result = createObjectMapper(null);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns metrics operations and cursors report to, null if disabled.
+     *
+     * @return metrics or null
+     */
+    public static RongoMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Returns default policy cursor fluxes use to fetch batches.
+     *
+     * @return prefetch policy
+     */
+    public static PrefetchPolicy getPrefetchPolicy() {
+        return prefetchPolicy;
+    }
+
+    /**
+     * Registers process wide object mapper. Mapper should be created with
+     * {@link #createObjectMapper(Consumer)} or otherwise use
+     * {@link RongoBsonFactory}. Previously cached codec registries are
+     * discarded, collections already using them are unaffected.
+     *
+     * @param mapper
+     *            object mapper
+     */
+    public static void setObjectMapper(ObjectMapper mapper) {
+        Objects.requireNonNull(mapper);
+        synchronized (Rongo.class) {
+            objectMapper = mapper;
+            jacksonCodecRegistry = null;
+            registries.clear();
+        }
+    }
+
     public static <T> Flux<T> flux(AsyncBatchCursor<T> cursor) {
-        return Flux.create(new CursorEmitter<>(cursor));
+        return flux(cursor, getPrefetchPolicy());
+    }
+
+    /**
+     * Creates flux of cursor documents, fetching batches as directed by
+     * policy.
+     *
+     * @param cursor
+     *            cursor
+     * @param policy
+     *            prefetch policy
+     * @return flux of documents
+     */
+    public static <T> Flux<T> flux(AsyncBatchCursor<T> cursor, PrefetchPolicy policy) {
+        return Flux.from(new CursorPublisher<>(cursor, policy));
     }
 
     public static <T> Flux<T> flux(FindIterable<T> iterable) {
-        return mono(iterable::batchCursor).flatMap(Rongo::flux);
+        return flux(iterable, getPrefetchPolicy());
+    }
+
+    public static <T> Flux<T> flux(MongoIterable<T> iterable, PrefetchPolicy policy) {
+        return flux(iterable, policy, null);
+    }
+
+    /**
+     * Creates flux emitting each cursor batch as a list. One batch is
+     * fetched per requested list.
+     *
+     * @param cursor
+     *            cursor
+     * @return flux of batches
+     */
+    public static <T> Flux<List<T>> fluxBatches(AsyncBatchCursor<T> cursor) {
+        return Flux.from(new CursorPublisher<>(new BatchCursor<>(cursor), PrefetchPolicy.fixed(1)))
+                .filter(b -> !b.isEmpty());
+    }
+
+    public static <T> Flux<List<T>> fluxBatches(MongoIterable<T> iterable) {
+        return fluxBatches(iterable, null);
     }
 
     public static <T> RongoCollection<T> from(MongoCollection<T> instances) {
@@ -209,6 +438,149 @@ public class Rongo {
         return Mono.create(new MonoCallbackVoid(action));
     }
 
+    /**
+     * Sets process wide metrics, see {@link RongoStats} for a built-in
+     * implementation. Operations and cursors started afterwards report to
+     * it. Disabled by default, when only a null check is paid.
+     *
+     * @param metrics
+     *            metrics, null to disable
+     */
+    public static void setMetrics(RongoMetrics metrics) {
+        Rongo.metrics = metrics;
+    }
+
+    /**
+     * Sets default policy cursor fluxes use to fetch batches. Policy
+     * shouldn't be modified once set.
+     *
+     * @param prefetchPolicy
+     *            prefetch policy
+     */
+    public static void setPrefetchPolicy(PrefetchPolicy prefetchPolicy) {
+        Objects.requireNonNull(prefetchPolicy);
+        Rongo.prefetchPolicy = prefetchPolicy;
+    }
+
+    /**
+     * Sets maximum number of compiled templates kept by
+     * {@link #template(String)}, zero disables caching. Cache is cleared
+     * when it fills up.
+     *
+     * @param templateCacheSize
+     *            cache size
+     */
+    public static void setTemplateCacheSize(int templateCacheSize) {
+        if (templateCacheSize < 0) {
+            throw new IllegalArgumentException("templateCacheSize < 0");
+        }
+        Rongo.templateCacheSize = templateCacheSize;
+        templates.clear();
+    }
+
+    /**
+     * Returns compiled template, parsing it only if it isn't
+     * {@link #setTemplateCacheSize(int) cached}.
+     *
+     * @param template
+     *            JSON template
+     * @return compiled template
+     */
+    public static RongoTemplate template(String template) {
+        RongoTemplate result = templates.get(template);
+        if (result == null) {
+            // Racing threads compile the same template
+            result = RongoTemplate.compile(template);
+            int size = templateCacheSize;
+            if (size > 0) {
+                if (templates.size() >= size) {
+                    templates.clear();
+                }
+                templates.put(template, result);
+            }
+        }
+        return result;
+    }
+
+    static <T> Flux<T> flux(MongoIterable<T> iterable, PrefetchPolicy policy, MongoNamespace namespace) {
+        return batchCursor(iterable, namespace).flatMap(c -> flux(c, policy));
+    }
+
+    static <T> Flux<List<T>> fluxBatches(MongoIterable<T> iterable, MongoNamespace namespace) {
+        return batchCursor(iterable, namespace).flatMap(Rongo::fluxBatches);
+    }
+
+    /**
+     * Reports latency and outcome of operation to metrics.
+     */
+    static <T> Mono<T> timed(RongoMetrics metrics, MongoNamespace namespace, String operation, Mono<T> mono) {
+        return Mono.defer(() -> {
+            long start = System.nanoTime();
+            return mono.doOnTerminate((v, t) -> metrics.operation(namespace, operation, System.nanoTime() - start, t));
+        });
+    }
+
+    /**
+     * Opens cursor, closing it if subscription was cancelled before cursor
+     * became available.
+     */
+    private static <T> Mono<AsyncBatchCursor<T>> batchCursor(MongoIterable<T> iterable) {
+        return Mono.create(sink -> {
+            AtomicReference<AsyncBatchCursor<T>> cursor = new AtomicReference<>();
+            AtomicBoolean cancelled = new AtomicBoolean();
+            sink.setCancellation(() -> {
+                cancelled.set(true);
+                AsyncBatchCursor<T> c = cursor.get();
+                if (c != null) {
+                    c.close();
+                }
+            });
+            iterable.batchCursor((c, t) -> {
+                if (t != null) {
+                    sink.error(t);
+                } else {
+                    cursor.set(c);
+                    if (cancelled.get()) {
+                        if (c != null) {
+                            c.close();
+                        }
+                    } else {
+                        sink.success(c);
+                    }
+                }
+            });
+        });
+    }
+
+    /**
+     * Opens cursor reporting to metrics, if enabled.
+     */
+    private static <T> Mono<AsyncBatchCursor<T>> batchCursor(MongoIterable<T> iterable, MongoNamespace namespace) {
+        RongoMetrics m = metrics;
+        if (m == null) {
+            return batchCursor(iterable);
+        }
+        return Mono.defer(() -> {
+            long openedAt = System.nanoTime();
+            return Rongo.batchCursor(iterable)
+                    .<AsyncBatchCursor<T>> map(c -> new MetricsCursor<>(c, m, namespace, openedAt))
+                    .doOnError(t -> m.cursor(namespace, 0, 0, t));
+        });
+    }
+
+    private static CodecRegistry jacksonCodecRegistry() {
+        CodecRegistry result = jacksonCodecRegistry;
+        if (result == null) {
+            synchronized (Rongo.class) {
+                result = jacksonCodecRegistry;
+                if (result == null) {
+                    jacksonCodecRegistry = result = codecRegistry(getObjectMapper());
+                }
+            }
+        }
+        return result;
+    }
+
     private static void bindInternal(Map<String, Object> template, Map<String, Object> parameters,
             Map<String, Object> result) {
         for (Map.Entry<String, Object> e : template.entrySet()) {
@@ -255,4 +627,12 @@ public class Rongo {
         }
         return result;
     }
+
+    private static volatile CodecRegistry jacksonCodecRegistry;
+    private static volatile RongoMetrics metrics;
+    private static volatile ObjectMapper objectMapper;
+    private static volatile PrefetchPolicy prefetchPolicy = new PrefetchPolicy();
+    private static final Map<List<CodecRegistry>, CodecRegistry> registries = new ConcurrentHashMap<>();
+    private static volatile int templateCacheSize = DEFAULT_TEMPLATE_CACHE_SIZE;
+    private static final Map<String, RongoTemplate> templates = new ConcurrentHashMap<>();
 }
@@ -0,0 +1,130 @@
+package com.nmote.rongo;
+
+import java.util.concurrent.TimeUnit;
+
+import com.mongodb.async.client.AggregateIterable;
+import com.mongodb.client.model.Collation;
+
+import reactor.core.publisher.Mono;
+
+/**
+ * Iterable for aggregate.
+ *
+ * @param <T>
+ *            The type of the result.
+ */
+public class RongoAggregateIterable<T> extends RongoIterable<T, AggregateIterable<T>> {
+
+    public RongoAggregateIterable(AggregateIterable<T> iterable) {
+        super(iterable);
+    }
+
+    /**
+     * Enables writing to temporary files. A null value indicates that it's
+     * unspecified.
+     *
+     * @param allowDiskUse
+     *            true if writing to temporary files is enabled
+     * @return this
+     * @mongodb.driver.manual reference/command/aggregate/ Aggregation
+     */
+    public RongoAggregateIterable<T> allowDiskUse(Boolean allowDiskUse) {
+        iterable.allowDiskUse(allowDiskUse);
+        return this;
+    }
+
+    /**
+     * Sets the number of documents to return per batch.
+     *
+     * @param batchSize
+     *            the batch size
+     * @return this
+     * @mongodb.driver.manual reference/method/cursor.batchSize/#cursor.batchSize
+     *                        Batch Size
+     */
+    @Override
+    public RongoAggregateIterable<T> batchSize(int batchSize) {
+        super.batchSize(batchSize);
+        return this;
+    }
+
+    /**
+     * Sets the bypass document level validation flag. Only applies when the
+     * pipeline ends with $out.
+     *
+     * @param bypassDocumentValidation
+     *            If true, allows the write to opt-out of document level
+     *            validation.
+     * @return this
+     * @since 3.2
+     * @mongodb.server.release 3.2
+     */
+    public RongoAggregateIterable<T> bypassDocumentValidation(Boolean bypassDocumentValidation) {
+        iterable.bypassDocumentValidation(bypassDocumentValidation);
+        return this;
+    }
+
+    /**
+     * Sets the collation options
+     *
+     * <p>
+     * A null value represents the server default.
+     * </p>
+     *
+     * @param collation
+     *            the collation options to use
+     * @return this
+     * @since 3.4
+     * @mongodb.server.release 3.4
+     */
+    public RongoAggregateIterable<T> collation(Collation collation) {
+        iterable.collation(collation);
+        return this;
+    }
+
+    /**
+     * Sets the maximum execution time on the server for this operation.
+     *
+     * @param maxTime
+     *            the max time
+     * @param timeUnit
+     *            the time unit, which may not be null
+     * @return this
+     * @mongodb.driver.manual reference/method/cursor.maxTimeMS/#cursor.maxTimeMS
+     *                        Max Time
+     */
+    public RongoAggregateIterable<T> maxTime(long maxTime, TimeUnit timeUnit) {
+        iterable.maxTime(maxTime, timeUnit);
+        return this;
+    }
+
+    @Override
+    public RongoAggregateIterable<T> prefetch(PrefetchPolicy prefetchPolicy) {
+        super.prefetch(prefetchPolicy);
+        return this;
+    }
+
+    /**
+     * Aggregates documents according to the specified aggregation pipeline,
+     * which must end with a $out stage.
+     *
+     * @return completes when aggregation is done
+     * @mongodb.driver.manual aggregation/ Aggregation
+     */
+    public Mono<Boolean> toCollection() {
+        return Rongo.monoVoid(iterable::toCollection);
+    }
+
+    /**
+     * Sets whether the server should use a cursor to return results.
+     *
+     * @param useCursor
+     *            whether the server should use a cursor to return results
+     * @return this
+     * @mongodb.driver.manual reference/command/aggregate/ Aggregation
+     */
+    public RongoAggregateIterable<T> useCursor(Boolean useCursor) {
+        iterable.useCursor(useCursor);
+        return this;
+    }
+}
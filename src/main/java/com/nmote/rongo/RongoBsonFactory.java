@@ -20,7 +20,11 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 
+import org.bson.BsonReader;
+import org.bson.BsonWriter;
+
 import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.core.ObjectCodec;
 import com.fasterxml.jackson.core.io.IOContext;
 
@@ -30,12 +34,102 @@ import de.undercouch.bson4jackson.BsonParser;
 
 public class RongoBsonFactory extends BsonFactory {
 
+    /**
+     * Default maximum size of documents written by recycled generators, 1MB.
+     */
+    public static final int DEFAULT_MAX_RECYCLED_SIZE = 1 << 20;
+
     private static final long serialVersionUID = 1L;
 
     public RongoBsonFactory() {
         enable(BsonParser.Feature.HONOR_DOCUMENT_LENGTH);
     }
 
+    /**
+     * Creates a generator writing directly into a mongo driver
+     * {@link BsonWriter}.
+     *
+     * @param writer
+     *            target writer
+     * @return generator
+     */
+    public BsonGenerator createGenerator(BsonWriter writer) {
+        BsonGenerator g;
+        if (recycleGenerators) {
+            g = BsonWriterGenerator.obtain(_generatorFeatures, _bsonGeneratorFeatures, writer);
+        } else {
+            g = new BsonWriterGenerator(_generatorFeatures, _bsonGeneratorFeatures, writer);
+        }
+        ObjectCodec codec = getCodec();
+        if (codec != null) {
+            g.setCodec(codec);
+        }
+        return g;
+    }
+
+    /**
+     * Creates a parser reading directly from a mongo driver {@link BsonReader}.
+     *
+     * @param reader
+     *            source reader
+     * @return parser
+     */
+    public JsonParser createParser(BsonReader reader) {
+        return new BsonReaderParser(reader, getCodec());
+    }
+
+    /**
+     * Maximum number of bytes a recycled generator may have written and still
+     * be returned to the pool.
+     *
+     * @return size in bytes
+     */
+    public int getMaxRecycledSize() {
+        return maxRecycledSize;
+    }
+
+    /**
+     * Are generators recycled? When enabled each thread keeps idle
+     * generators, together with their write contexts and output buffers, and
+     * reuses them for the next document instead of allocating new ones.
+     * Generators must not be used after being closed. Enabled by default.
+     *
+     * @return true if generators are recycled
+     */
+    public boolean isRecycleGenerators() {
+        return recycleGenerators;
+    }
+
+    /**
+     * Sets maximum number of bytes a recycled generator may have written and
+     * still be returned to the pool. Generators which wrote larger documents
+     * are dropped so a single huge document doesn't stay retained.
+     *
+     * @param maxRecycledSize
+     *            size in bytes
+     * @return this factory
+     */
+    public RongoBsonFactory setMaxRecycledSize(int maxRecycledSize) {
+        if (maxRecycledSize < 0) {
+            throw new IllegalArgumentException("maxRecycledSize < 0");
+        }
+        this.maxRecycledSize = maxRecycledSize;
+        return this;
+    }
+
+    /**
+     * Enables or disables generator recycling.
+     *
+     * @param recycleGenerators
+     *            true to recycle generators
+     * @return this factory
+     * @see #isRecycleGenerators()
+     */
+    public RongoBsonFactory setRecycleGenerators(boolean recycleGenerators) {
+        this.recycleGenerators = recycleGenerators;
+        return this;
+    }
+
     @Override
     protected BsonParser _createParser(InputStream in, IOContext ctxt) {
         BsonParser p = new JongoBsonParser(ctxt, _parserFeatures, _bsonParserFeatures, in);
@@ -48,12 +142,17 @@ public class RongoBsonFactory extends BsonFactory {
 
     @Override
     public BsonGenerator createGenerator(OutputStream out, JsonEncoding enc) throws IOException {
-        IOContext ctxt = _createContext(out, true);
-        ctxt.setEncoding(enc);
         if (enc == JsonEncoding.UTF8 && _outputDecorator != null) {
+            IOContext ctxt = _createContext(out, true);
+            ctxt.setEncoding(enc);
             out = _outputDecorator.decorate(ctxt, out);
         }
-        BsonGenerator g = new JongoBsonGenerator(_generatorFeatures, _bsonGeneratorFeatures, out);
+        BsonGenerator g;
+        if (recycleGenerators) {
+            g = JongoBsonGenerator.obtain(_generatorFeatures, _bsonGeneratorFeatures, out, maxRecycledSize);
+        } else {
+            g = new JongoBsonGenerator(_generatorFeatures, _bsonGeneratorFeatures, out);
+        }
         ObjectCodec codec = getCodec();
         if (codec != null) {
             g.setCodec(codec);
@@ -64,4 +163,7 @@ public class RongoBsonFactory extends BsonFactory {
         return g;
 
     }
+
+    private int maxRecycledSize = DEFAULT_MAX_RECYCLED_SIZE;
+    private boolean recycleGenerators = true;
 }
@@ -1,16 +1,35 @@
 package com.nmote.rongo;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.Objects;
-
+import java.util.concurrent.TimeUnit;
+
+import org.bson.BsonArray;
+import org.bson.BsonDocument;
+import org.bson.BsonDocumentWriter;
+import org.bson.BsonInt32;
+import org.bson.BsonObjectId;
+import org.bson.BsonValue;
+import org.bson.BsonWriter;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.Codec;
+import org.bson.codecs.EncoderContext;
 import org.bson.codecs.configuration.CodecRegistry;
 import org.bson.conversions.Bson;
+import org.bson.types.ObjectId;
+import org.reactivestreams.Publisher;
 
 import com.mongodb.MongoNamespace;
 import com.mongodb.ReadConcern;
 import com.mongodb.ReadPreference;
 import com.mongodb.WriteConcern;
+import com.mongodb.async.client.FindIterable;
 import com.mongodb.async.client.MongoCollection;
+import com.mongodb.bulk.BulkWriteResult;
+import com.mongodb.client.model.BulkWriteOptions;
 import com.mongodb.client.model.CountOptions;
 import com.mongodb.client.model.DeleteOptions;
 import com.mongodb.client.model.FindOneAndDeleteOptions;
@@ -19,76 +38,225 @@ import com.mongodb.client.model.FindOneAndUpdateOptions;
 import com.mongodb.client.model.InsertManyOptions;
 import com.mongodb.client.model.InsertOneOptions;
 import com.mongodb.client.model.UpdateOptions;
+import com.mongodb.client.model.WriteModel;
 import com.mongodb.client.result.DeleteResult;
 import com.mongodb.client.result.UpdateResult;
 
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
+import reactor.core.publisher.ParallelFlux;
+import reactor.core.publisher.SynchronousSink;
 
 public class RongoCollection<T> {
 
+    private static final String ID = "_id";
+
+    /** Number of _ids sampled per partition when splitting non ObjectId ranges */
+    private static final int SAMPLES_PER_PARTITION = 10;
+
     public RongoCollection(MongoCollection<T> collection) {
+        this(collection, null);
+    }
+
+    /**
+     * Creates collection reading documents by _id through cache.
+     *
+     * @param collection
+     *            collection
+     * @param cache
+     *            entity cache, may be null
+     */
+    public RongoCollection(MongoCollection<T> collection, EntityCache cache) {
+        this(collection, cache, null);
+    }
+
+    /**
+     * Creates collection reading documents by _id through cache and
+     * coalescing identical reads in flight.
+     *
+     * @param collection
+     *            collection
+     * @param cache
+     *            entity cache, may be null
+     * @param singleFlight
+     *            single flight, may be null
+     */
+    public RongoCollection(MongoCollection<T> collection, EntityCache cache, SingleFlight singleFlight) {
+        this(collection, cache, singleFlight, false);
+    }
+
+    private RongoCollection(MongoCollection<T> collection, EntityCache cache, SingleFlight singleFlight,
+            boolean autoProjection) {
         Objects.requireNonNull(collection);
         this.collection = collection;
+        this.cache = cache;
+        this.singleFlight = singleFlight;
+        this.autoProjection = autoProjection;
+    }
+
+    public RongoAggregateIterable<T> aggregate(List<? extends Bson> pipeline) {
+        return namespaced(new RongoAggregateIterable<>(collection.aggregate(pipeline)));
+    }
+
+    public <R> RongoAggregateIterable<R> aggregate(List<? extends Bson> pipeline, Class<R> resultClass) {
+        return namespaced(new RongoAggregateIterable<>(collection.aggregate(pipeline, resultClass)));
+    }
+
+    /**
+     * Aggregates documents by pipeline template, see {@link RongoTemplate}.
+     *
+     * @param pipeline
+     *            JSON array pipeline template
+     * @param parameters
+     *            positional parameters
+     * @return aggregate iterable
+     */
+    public RongoAggregateIterable<T> aggregate(String pipeline, Object... parameters) {
+        return aggregate(Rongo.template(pipeline).bindPipeline(parameters));
+    }
+
+    public Mono<BulkWriteResult> bulkWrite(List<? extends WriteModel<? extends T>> requests) {
+        return invalidating(requests, timed("bulkWrite", Rongo.mono(c -> collection.bulkWrite(requests, c))));
+    }
+
+    public Mono<BulkWriteResult> bulkWrite(List<? extends WriteModel<? extends T>> requests,
+            BulkWriteOptions options) {
+        return invalidating(requests, timed("bulkWrite", Rongo.mono(c -> collection.bulkWrite(requests, options, c))));
+    }
+
+    public BulkWriter<T> bulkWriter() {
+        return bulkWriter(new BulkWriterOptions());
+    }
+
+    /**
+     * Creates a writer coalescing individual writes into bulk writes.
+     *
+     * @param options
+     *            batching options
+     * @return bulk writer
+     */
+    public BulkWriter<T> bulkWriter(BulkWriterOptions options) {
+        return new BulkWriter<>(collection, options, cache);
     }
 
     public Mono<Long> count() {
-        return Rongo.mono(collection::count);
+        return coalesce(timed("count", Rongo.mono(collection::count)), null, null);
     }
 
     public Mono<Long> count(Bson filter) {
-        return Rongo.mono(c -> collection.count(filter, c));
+        return coalesce(timed("count", Rongo.mono(c -> collection.count(filter, c))), filter, null);
     }
 
     public Mono<Long> count(CountOptions options, Bson filter) {
-        return Rongo.mono(c -> collection.count(filter, options, c));
+        return coalesce(timed("count", Rongo.mono(c -> collection.count(filter, options, c))), filter, options);
     }
 
     public Mono<DeleteResult> deleteMany(Bson filter) {
-        return Rongo.mono(c -> collection.deleteMany(filter, c));
+        return invalidating(filter, timed("deleteMany", Rongo.mono(c -> collection.deleteMany(filter, c))));
     }
 
     public Mono<DeleteResult> deleteMany(Bson filter, DeleteOptions options) {
-        return Rongo.mono(c -> collection.deleteMany(filter, options, c));
+        return invalidating(filter, timed("deleteMany", Rongo.mono(c -> collection.deleteMany(filter, options, c))));
     }
 
     public Mono<DeleteResult> deleteOne(Bson filter) {
-        return Rongo.mono(c -> collection.deleteOne(filter, c));
+        return invalidating(filter, timed("deleteOne", Rongo.mono(c -> collection.deleteOne(filter, c))));
     }
 
     public Mono<DeleteResult> deleteOne(Bson filter, DeleteOptions options) {
-        return Rongo.mono(c -> collection.deleteOne(filter, options, c));
+        return invalidating(filter, timed("deleteOne", Rongo.mono(c -> collection.deleteOne(filter, options, c))));
+    }
+
+    public <R> RongoDistinctIterable<R> distinct(String fieldName, Bson filter, Class<R> resultClass) {
+        return namespaced(new RongoDistinctIterable<>(collection.distinct(fieldName, filter, resultClass)));
+    }
+
+    public <R> RongoDistinctIterable<R> distinct(String fieldName, Class<R> resultClass) {
+        return namespaced(new RongoDistinctIterable<>(collection.distinct(fieldName, resultClass)));
     }
 
     public RongoFindIterable<T> find() {
-        return new RongoFindIterable<>(collection.find());
+        return find(null);
     }
 
     public RongoFindIterable<T> find(Bson filter) {
-        return new RongoFindIterable<>(collection.find(filter));
+        RongoFindIterable<T> result = new RongoFindIterable<>(collection, filter).coalesce(singleFlight);
+        return autoProjection ? result.autoProjection() : result;
+    }
+
+    /**
+     * Finds a document by _id, through {@link EntityCache} if collection has
+     * one.
+     *
+     * @param id
+     *            _id
+     * @return document or empty if not found
+     */
+    public Mono<T> findById(Object id) {
+        BsonValue key = toBsonValue(id);
+        if (cache == null) {
+            return find(new BsonDocument(ID, key)).first();
+        }
+        return Mono.defer(() -> {
+            Codec<T> codec = getCodecRegistry().get(getDocumentClass());
+            EntityCache.Cached entry = cache.get(key, getDocumentClass());
+            if (entry != null) {
+                return Mono.justOrEmpty(decode(entry.document, codec));
+            }
+            long stamp = cache.stamp();
+            boolean decoded = cache.isDecoded();
+            return new RongoFindIterable<>(BulkWriter.raw(collection), new BsonDocument(ID, key))
+                    .coalesce(singleFlight).first()
+                    .map(raw -> decoded ? raw.decode(codec) : raw).doOnSuccess(d -> cache.put(key, d, stamp))
+                    .map(d -> decode(d, codec));
+        });
+    }
+
+    /**
+     * Finds documents matching filter template, see {@link RongoTemplate}.
+     *
+     * @param filter
+     *            JSON filter template
+     * @param parameters
+     *            positional parameters
+     * @return find iterable
+     */
+    public RongoFindIterable<T> find(String filter, Object... parameters) {
+        return find(Rongo.template(filter).bind(parameters));
     }
 
     public Mono<T> findOneAndDelete(Bson filter) {
-        return Rongo.mono(c -> collection.findOneAndDelete(filter, c));
+        return invalidating(filter, timed("findOneAndDelete", Rongo.mono(c -> collection.findOneAndDelete(filter, c))));
     }
 
     public Mono<T> findOneAndDelete(Bson filter, FindOneAndDeleteOptions options) {
-        return Rongo.mono(c -> collection.findOneAndDelete(filter, options, c));
+        return invalidating(filter,
+                timed("findOneAndDelete", Rongo.mono(c -> collection.findOneAndDelete(filter, options, c))));
     }
 
     public Mono<T> findOneAndReplace(Bson filter, T replacement) {
-        return Rongo.mono(c -> collection.findOneAndReplace(filter, replacement, c));
+        return invalidating(filter,
+                timed("findOneAndReplace", Rongo.mono(c -> collection.findOneAndReplace(filter, replacement, c))));
     }
 
     public Mono<T> findOneAndReplace(Bson filter, T replacement, FindOneAndReplaceOptions options) {
-        return Rongo.mono(c -> collection.findOneAndReplace(filter, replacement, options, c));
+        return invalidating(filter,
+                timed("findOneAndReplace",
+                        Rongo.mono(c -> collection.findOneAndReplace(filter, replacement, options, c))));
     }
 
     public Mono<T> findOneAndUpdate(Bson filter, Bson update) {
-        return Rongo.mono(c -> collection.findOneAndUpdate(filter, update, c));
+        return invalidating(filter,
+                timed("findOneAndUpdate", Rongo.mono(c -> collection.findOneAndUpdate(filter, update, c))));
     }
 
     public Mono<T> findOneAndUpdate(Bson filter, Bson update, FindOneAndUpdateOptions options) {
-        return Rongo.mono(c -> collection.findOneAndUpdate(filter, update, options, c));
+        return invalidating(filter,
+                timed("findOneAndUpdate", Rongo.mono(c -> collection.findOneAndUpdate(filter, update, options, c))));
+    }
+
+    public EntityCache getCache() {
+        return cache;
     }
 
     public CodecRegistry getCodecRegistry() {
@@ -115,48 +283,205 @@ public class RongoCollection<T> {
         return collection.getReadPreference();
     }
 
+    public SingleFlight getSingleFlight() {
+        return singleFlight;
+    }
+
     public WriteConcern getWriteConcern() {
         return collection.getWriteConcern();
     }
 
+    /**
+     * Inserts a stream of documents in batches split by count and size.
+     * Documents are requested only as batches are acknowledged, so memory use
+     * is bounded by batch size and number of batches in flight. Insertion
+     * stops at the first failed batch. Ordered inserts send one batch at a
+     * time, maximum latency isn't used.
+     *
+     * @param options
+     *            batching options
+     * @param documents
+     *            documents to insert
+     * @return number of documents inserted by each batch
+     */
+    public Flux<Integer> insertMany(BulkWriterOptions options, Publisher<? extends T> documents) {
+        MongoCollection<RawBsonDocument> raw = BulkWriter.raw(collection);
+        InsertManyOptions insertOptions = new InsertManyOptions().ordered(options.isOrdered());
+        int maxInFlight = options.isOrdered() ? 1 : options.getMaxInFlight();
+        return Flux.defer(() -> {
+            Batcher batcher = new Batcher(options.getMaxBatchSize(), options.getMaxBatchBytes());
+            return Flux.from(documents).map(d -> BulkWriter.encodeDocument(collection, d, true))
+                    .handle(batcher::add).concatWith(Mono.defer(() -> Mono.justOrEmpty(batcher.rest())));
+        }).flatMapSequential(
+                batch -> inserting(timed("insertMany", Rongo.monoVoid(c -> raw.insertMany(batch, insertOptions, c))))
+                        .map(ok -> batch.size()),
+                maxInFlight);
+    }
+
     public Mono<Boolean> insertMany(InsertManyOptions options, List<T> documents) {
-        return Rongo.monoVoid(c -> collection.insertMany(documents, options, c));
+        return inserting(timed("insertMany", Rongo.monoVoid(c -> collection.insertMany(documents, options, c))));
     }
 
     public Mono<Boolean> insertMany(List<T> documents) {
-        return Rongo.monoVoid(c -> collection.insertMany(documents, c));
+        return inserting(timed("insertMany", Rongo.monoVoid(c -> collection.insertMany(documents, c))));
+    }
+
+    /**
+     * Inserts a stream of documents in unordered batches, see
+     * {@link #insertMany(BulkWriterOptions, Publisher)}.
+     *
+     * @param documents
+     *            documents to insert
+     * @return number of documents inserted by each batch
+     */
+    public Flux<Integer> insertMany(Publisher<? extends T> documents) {
+        return insertMany(new BulkWriterOptions().ordered(false), documents);
     }
 
     public Mono<Boolean> insertOne(InsertOneOptions options, T document) {
-        return Rongo.monoVoid(c -> collection.insertOne(document, options, c));
+        return inserting(timed("insertOne", Rongo.monoVoid(c -> collection.insertOne(document, options, c))));
     }
 
     public Mono<Boolean> insertOne(T document) {
-        return Rongo.monoVoid(c -> collection.insertOne(document, c));
+        return inserting(timed("insertOne", Rongo.monoVoid(c -> collection.insertOne(document, c))));
+    }
+
+    public ParallelFlux<T> parallelScan() {
+        return parallelScan(new ParallelScanOptions());
+    }
+
+    /**
+     * Scans collection with several concurrent cursors, each reading an _id
+     * range. Ranges are split on embedded timestamp of ObjectId _ids, or on
+     * sampled _ids otherwise. Every rail reads whole partitions, one at a
+     * time. Cancelling closes all open cursors.
+     *
+     * @param options
+     *            scan options
+     * @return documents, partitioned into rails
+     */
+    public ParallelFlux<T> parallelScan(ParallelScanOptions options) {
+        return partitions(options).flatMap(Flux::fromIterable).parallel(options.getConcurrency(), 1)
+                .concatMap(range -> scan(range, options, false), 1);
+    }
+
+    /**
+     * Like {@link #parallelScan(ParallelScanOptions)} but merges partitions
+     * into a single flux ordered by _id.
+     *
+     * @param options
+     *            scan options
+     * @return documents ordered by _id
+     */
+    public Flux<T> parallelScanOrdered(ParallelScanOptions options) {
+        return partitions(options).flatMap(Flux::fromIterable)
+                .flatMapSequential(range -> scan(range, options, true), options.getConcurrency());
+    }
+
+    public BatchLoader<T> loader() {
+        return loader(ID);
+    }
+
+    /**
+     * Creates loader batching lookups by field into <code>$in</code> queries.
+     *
+     * @param field
+     *            key field, may be a dotted path
+     * @return batch loader
+     */
+    public BatchLoader<T> loader(String field) {
+        return new BatchLoader<>(collection, field, this::toBsonValue);
+    }
+
+    public RongoMapReduceIterable<T> mapReduce(String mapFunction, String reduceFunction) {
+        return namespaced(new RongoMapReduceIterable<>(collection.mapReduce(mapFunction, reduceFunction)));
+    }
+
+    public <R> RongoMapReduceIterable<R> mapReduce(String mapFunction, String reduceFunction, Class<R> resultClass) {
+        return namespaced(new RongoMapReduceIterable<>(collection.mapReduce(mapFunction, reduceFunction, resultClass)));
     }
 
     public Mono<UpdateResult> replaceOne(Bson filter, T replacement) {
-        return Rongo.mono(c -> collection.replaceOne(filter, replacement, c));
+        return invalidating(filter,
+                timed("replaceOne", Rongo.mono(c -> collection.replaceOne(filter, replacement, c))));
     }
 
     public Mono<UpdateResult> replaceOne(Bson filter, T replacement, UpdateOptions options) {
-        return Rongo.mono(c -> collection.replaceOne(filter, replacement, options, c));
+        return invalidating(filter,
+                timed("replaceOne", Rongo.mono(c -> collection.replaceOne(filter, replacement, options, c))));
+    }
+
+    /**
+     * Creates tracker saving documents it found by sending only changed
+     * fields.
+     *
+     * @return change tracker
+     */
+    public ChangeTracker<T> tracker() {
+        return tracker(null);
+    }
+
+    /**
+     * Creates tracker saving documents it found by sending only changed
+     * fields, with optimistic version check.
+     *
+     * @param versionField
+     *            top level integer field incremented on each save, null for
+     *            no version check
+     * @return change tracker
+     */
+    public ChangeTracker<T> tracker(String versionField) {
+        return new ChangeTracker<>(collection, new RongoCollection<>(BulkWriter.raw(collection), cache, singleFlight),
+                versionField);
     }
 
     public Mono<UpdateResult> updateMany(Bson filter, Bson update) {
-        return Rongo.mono(c -> collection.updateMany(filter, update, c));
+        return invalidating(filter, timed("updateMany", Rongo.mono(c -> collection.updateMany(filter, update, c))));
     }
 
     public Mono<UpdateResult> updateMany(Bson filter, Bson update, UpdateOptions options) {
-        return Rongo.mono(c -> collection.updateMany(filter, update, options, c));
+        return invalidating(filter,
+                timed("updateMany", Rongo.mono(c -> collection.updateMany(filter, update, options, c))));
     }
 
     public Mono<UpdateResult> updateOne(Bson filter, Bson update) {
-        return Rongo.mono(c -> collection.updateOne(filter, update, c));
+        return invalidating(filter, timed("updateOne", Rongo.mono(c -> collection.updateOne(filter, update, c))));
     }
 
     public Mono<UpdateResult> updateOne(Bson filter, Bson update, UpdateOptions options) {
-        return Rongo.mono(c -> collection.updateOne(filter, update, options, c));
+        return invalidating(filter,
+                timed("updateOne", Rongo.mono(c -> collection.updateOne(filter, update, options, c))));
+    }
+
+    /**
+     * Returns collection reading documents by _id through cache, and
+     * invalidating it on writes. A cache may be shared by collections with
+     * different document classes.
+     *
+     * @param cache
+     *            entity cache, null for none
+     * @return collection
+     * @see #findById(Object)
+     */
+    public RongoCollection<T> withCache(EntityCache cache) {
+        return new RongoCollection<>(collection, cache, singleFlight, autoProjection);
+    }
+
+    /**
+     * Returns collection whose finds transfer only fields read by Jackson
+     * codec of document class, see {@link RongoFindIterable#autoProjection()}.
+     * Mode is kept by {@link #withDocumentClass(Class)}.
+     *
+     * <pre>
+     * users.withAutoProjection(true).withDocumentClass(UserSummary.class).find()
+     * </pre>
+     *
+     * @param autoProjection
+     *            true to enable automatic projection
+     * @return collection
+     */
+    public RongoCollection<T> withAutoProjection(boolean autoProjection) {
+        return new RongoCollection<>(collection, cache, singleFlight, autoProjection);
     }
 
     public RongoCollection<T> withJacksonCodecRegistry() {
@@ -164,24 +489,285 @@ public class RongoCollection<T> {
     }
 
     public RongoCollection<T> withCodecRegistry(CodecRegistry codecRegistry) {
-        return Rongo.from(collection.withCodecRegistry(codecRegistry));
-    }
-
+        return new RongoCollection<>(collection.withCodecRegistry(codecRegistry), cache, singleFlight, autoProjection);
+    }
+
+    /**
+     * Returns collection mapping documents to newDocumentClass. With Jackson
+     * codec registry {@link LazyDocument} may be used to decode fields only
+     * when accessed.
+     *
+     * @param newDocumentClass
+     *            document class
+     * @return collection
+     */
     public <S> RongoCollection<S> withDocumentClass(Class<S> newDocumentClass) {
-        return Rongo.from(collection.withDocumentClass(newDocumentClass));
+        return new RongoCollection<>(collection.withDocumentClass(newDocumentClass), cache, singleFlight,
+                autoProjection);
     }
 
     public RongoCollection<T> withReadConcern(ReadConcern readConcern) {
-        return Rongo.from(collection.withReadConcern(readConcern));
+        return new RongoCollection<>(collection.withReadConcern(readConcern), cache, singleFlight, autoProjection);
     }
 
     public RongoCollection<T> withReadPreference(ReadPreference readPreference) {
-        return Rongo.from(collection.withReadPreference(readPreference));
+        return new RongoCollection<>(collection.withReadPreference(readPreference), cache, singleFlight,
+                autoProjection);
     }
 
-    public RongoCollection<T> withWriteConcern(WriteConcern writeConcern) {
-        return Rongo.from(collection.withWriteConcern(writeConcern));
+    /**
+     * Returns collection where concurrent identical first() and count()
+     * reads share a single server operation.
+     *
+     * @param singleFlight
+     *            single flight, null to disable
+     * @return collection
+     */
+    public RongoCollection<T> withSingleFlight(SingleFlight singleFlight) {
+        return new RongoCollection<>(collection, cache, singleFlight, autoProjection);
     }
 
+    public RongoCollection<T> withWriteConcern(WriteConcern writeConcern) {
+        return new RongoCollection<>(collection.withWriteConcern(writeConcern), cache, singleFlight, autoProjection);
+    }
+
+    private Mono<Long> coalesce(Mono<Long> count, Bson filter, CountOptions options) {
+        if (singleFlight == null) {
+            return count;
+        }
+        List<Object> key = new ArrayList<>(Arrays.asList("count", getNamespace(), getReadPreference(),
+                getReadConcern(), filter != null ? toBsonDocument(filter) : null));
+        if (options != null) {
+            key.addAll(Arrays.asList(options.getLimit(), options.getSkip(), options.getMaxTime(TimeUnit.MILLISECONDS),
+                    options.getHint() != null ? toBsonDocument(options.getHint()) : options.getHintString(),
+                    options.getCollation()));
+        }
+        return singleFlight.execute(key, count);
+    }
+
+    private Mono<BsonValue> idBound(BsonDocument filter, int direction) {
+        FindIterable<BsonDocument> it = collection.find(filter, BsonDocument.class)
+                .projection(new BsonDocument(ID, new BsonInt32(1))).sort(new BsonDocument(ID, new BsonInt32(direction)))
+                .limit(1);
+        return Rongo.mono(it::first).map(d -> d.get(ID));
+    }
+
+    private <R> Mono<R> inserting(Mono<R> write) {
+        return cache != null ? invalidating(cache::invalidateMissing, write) : write;
+    }
+
+    private <R> Mono<R> invalidating(Bson filter, Mono<R> write) {
+        return cache != null
+                ? invalidating(() -> cache.invalidate(filter, getDocumentClass(), getCodecRegistry()), write)
+                : write;
+    }
+
+    private <R> Mono<R> invalidating(List<? extends WriteModel<?>> requests, Mono<R> write) {
+        return cache != null ? invalidating(() -> {
+            for (WriteModel<?> request : requests) {
+                cache.invalidate(request, getDocumentClass(), getCodecRegistry());
+            }
+        }, write) : write;
+    }
+
+    /**
+     * Invalidates cache before write is sent and once again when it's done,
+     * so reads running concurrently with write don't populate cache.
+     */
+    private <R> Mono<R> invalidating(Runnable invalidate, Mono<R> write) {
+        return Mono.defer(() -> {
+            invalidate.run();
+            return write;
+        }).doOnTerminate((r, t) -> invalidate.run()).doOnCancel(invalidate);
+    }
+
+    private <I extends RongoIterable<?, ?>> I namespaced(I iterable) {
+        iterable.setNamespace(getNamespace());
+        return iterable;
+    }
+
+    private Mono<List<BsonDocument>> partitions(ParallelScanOptions options) {
+        List<BsonDocument> whole = Collections.singletonList(new BsonDocument());
+        int n = options.getPartitions();
+        if (n < 2) {
+            return Mono.just(whole);
+        }
+        BsonDocument filter = toBsonDocument(options.getFilter());
+        return Mono.when(idBound(filter, 1), idBound(filter, -1)).then(t -> {
+            BsonValue min = t.getT1();
+            BsonValue max = t.getT2();
+            if (min.isObjectId() && max.isObjectId()) {
+                return Mono.just(timestampBoundaries(min.asObjectId().getValue(), max.asObjectId().getValue(), n));
+            } else if (min.getBsonType() == max.getBsonType()) {
+                return sampledBoundaries(filter, n);
+            } else {
+                return Mono.just(Collections.<BsonValue> emptyList());
+            }
+        }).map(RongoCollection::ranges).defaultIfEmpty(whole);
+    }
+
+    private Mono<List<BsonValue>> sampledBoundaries(BsonDocument filter, int n) {
+        List<BsonDocument> pipeline = Arrays.asList(new BsonDocument("$match", filter),
+                new BsonDocument("$sample", new BsonDocument("size", new BsonInt32(n * SAMPLES_PER_PARTITION))),
+                new BsonDocument("$project", new BsonDocument(ID, new BsonInt32(1))),
+                new BsonDocument("$sort", new BsonDocument(ID, new BsonInt32(1))));
+        return Rongo.flux(collection.aggregate(pipeline, BsonDocument.class), Rongo.getPrefetchPolicy())
+                .map(d -> d.get(ID)).collectList().map(ids -> {
+                    List<BsonValue> result = new ArrayList<>(n - 1);
+                    for (int i = 1; i < n; ++i) {
+                        BsonValue id = ids.get(i * ids.size() / n);
+                        if (result.isEmpty() || !result.get(result.size() - 1).equals(id)) {
+                            result.add(id);
+                        }
+                    }
+                    return result;
+                });
+    }
+
+    private Flux<T> scan(BsonDocument range, ParallelScanOptions options, boolean sorted) {
+        BsonDocument filter = toBsonDocument(options.getFilter());
+        RongoFindIterable<T> it = find(filter.isEmpty() ? range
+                : range.isEmpty() ? filter : new BsonDocument("$and", new BsonArray(Arrays.asList(filter, range))));
+        if (options.getProjection() != null) {
+            it.projection(options.getProjection());
+        }
+        if (options.getBatchSize() > 0) {
+            it.batchSize(options.getBatchSize());
+        }
+        if (sorted) {
+            it.sort(new BsonDocument(ID, new BsonInt32(1)));
+        }
+        return it.flux();
+    }
+
+    private <R> Mono<R> timed(String operation, Mono<R> mono) {
+        RongoMetrics metrics = Rongo.getMetrics();
+        return metrics != null ? Rongo.timed(metrics, getNamespace(), operation, mono) : mono;
+    }
+
+    private BsonValue toBsonValue(Object id) {
+        return toBsonValue(id, getCodecRegistry());
+    }
+
+    private BsonDocument toBsonDocument(Bson filter) {
+        return filter != null ? filter.toBsonDocument(getDocumentClass(), getCodecRegistry()) : new BsonDocument();
+    }
+
+    /**
+     * Encodes value with codec from registry, BSON values are returned as
+     * they are.
+     */
+    static BsonValue toBsonValue(Object value, CodecRegistry codecRegistry) {
+        Objects.requireNonNull(value);
+        if (value instanceof BsonValue) {
+            return (BsonValue) value;
+        }
+        BsonDocument result = new BsonDocument();
+        try (BsonDocumentWriter writer = new BsonDocumentWriter(result)) {
+            writer.writeStartDocument();
+            writer.writeName(ID);
+            encode(writer, value, codecRegistry.get(value.getClass()));
+            writer.writeEndDocument();
+        }
+        return result.get(ID);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T decode(Object document, Codec<T> codec) {
+        return document instanceof RawBsonDocument ? ((RawBsonDocument) document).decode(codec) : (T) document;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <V> void encode(BsonWriter writer, Object value, Codec<V> codec) {
+        EncoderContext.builder().build().encodeWithChildContext(codec, writer, (V) value);
+    }
+
+    /**
+     * Creates _id range filters from ordered boundaries. First and last ranges
+     * are open to include documents outside sampled bounds.
+     */
+    private static List<BsonDocument> ranges(List<BsonValue> boundaries) {
+        List<BsonDocument> result = new ArrayList<>(boundaries.size() + 1);
+        BsonValue lower = null;
+        for (int i = 0; i <= boundaries.size(); ++i) {
+            BsonValue upper = i < boundaries.size() ? boundaries.get(i) : null;
+            BsonDocument range = new BsonDocument();
+            if (lower != null) {
+                range.append("$gte", lower);
+            }
+            if (upper != null) {
+                range.append("$lt", upper);
+            }
+            result.add(range.isEmpty() ? range : new BsonDocument(ID, range));
+            lower = upper;
+        }
+        return result;
+    }
+
+    /**
+     * Splits ObjectId range on embedded timestamps.
+     */
+    private static List<BsonValue> timestampBoundaries(ObjectId min, ObjectId max, int n) {
+        long from = min.getTimestamp();
+        long span = max.getTimestamp() - from + 1L;
+        List<BsonValue> result = new ArrayList<>(n - 1);
+        int previous = (int) from;
+        for (int i = 1; i < n; ++i) {
+            int timestamp = (int) (from + span * i / n);
+            if (timestamp != previous) {
+                result.add(new BsonObjectId(new ObjectId(timestamp, 0, (short) 0, 0)));
+                previous = timestamp;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Groups encoded documents into batches limited by count and size.
+     */
+    private static final class Batcher {
+
+        Batcher(int maxBatchSize, int maxBatchBytes) {
+            this.maxBatchSize = maxBatchSize;
+            this.maxBatchBytes = maxBatchBytes;
+        }
+
+        void add(RawBsonDocument document, SynchronousSink<List<RawBsonDocument>> sink) {
+            int size = document.getByteBuffer().remaining();
+            List<RawBsonDocument> full = null;
+            if (!batch.isEmpty() && bytes + size > maxBatchBytes) {
+                full = rest();
+            }
+            batch.add(document);
+            bytes += size;
+            // At most one batch per document, an oversized one waits for the
+            // next document or completion
+            if (full == null && (batch.size() >= maxBatchSize || bytes >= maxBatchBytes)) {
+                full = rest();
+            }
+            if (full != null) {
+                sink.next(full);
+            }
+        }
+
+        /**
+         * Takes current batch, returning null if it's empty.
+         */
+        List<RawBsonDocument> rest() {
+            List<RawBsonDocument> result = batch.isEmpty() ? null : batch;
+            batch = new ArrayList<>();
+            bytes = 0;
+            return result;
+        }
+
+        private List<RawBsonDocument> batch = new ArrayList<>();
+        private long bytes;
+        private final int maxBatchBytes;
+        private final int maxBatchSize;
+    }
+
+    private final boolean autoProjection;
+    private final EntityCache cache;
     private final MongoCollection<T> collection;
+    private final SingleFlight singleFlight;
 }
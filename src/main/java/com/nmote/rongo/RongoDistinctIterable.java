@@ -0,0 +1,89 @@
+package com.nmote.rongo;
+
+import java.util.concurrent.TimeUnit;
+
+import org.bson.conversions.Bson;
+
+import com.mongodb.async.client.DistinctIterable;
+import com.mongodb.client.model.Collation;
+
+/**
+ * Iterable for distinct.
+ *
+ * @param <T>
+ *            The type of the result.
+ */
+public class RongoDistinctIterable<T> extends RongoIterable<T, DistinctIterable<T>> {
+
+    public RongoDistinctIterable(DistinctIterable<T> iterable) {
+        super(iterable);
+    }
+
+    /**
+     * Sets the number of documents to return per batch.
+     *
+     * @param batchSize
+     *            the batch size
+     * @return this
+     * @mongodb.driver.manual reference/method/cursor.batchSize/#cursor.batchSize
+     *                        Batch Size
+     */
+    @Override
+    public RongoDistinctIterable<T> batchSize(int batchSize) {
+        super.batchSize(batchSize);
+        return this;
+    }
+
+    /**
+     * Sets the collation options
+     *
+     * <p>
+     * A null value represents the server default.
+     * </p>
+     *
+     * @param collation
+     *            the collation options to use
+     * @return this
+     * @since 3.4
+     * @mongodb.server.release 3.4
+     */
+    public RongoDistinctIterable<T> collation(Collation collation) {
+        iterable.collation(collation);
+        return this;
+    }
+
+    /**
+     * Sets the query filter to apply to the query.
+     *
+     * @param filter
+     *            the filter, which may be null.
+     * @return this
+     * @mongodb.driver.manual reference/method/db.collection.distinct/ Filter
+     */
+    public RongoDistinctIterable<T> filter(Bson filter) {
+        iterable.filter(filter);
+        return this;
+    }
+
+    /**
+     * Sets the maximum execution time on the server for this operation.
+     *
+     * @param maxTime
+     *            the max time
+     * @param timeUnit
+     *            the time unit, which may not be null
+     * @return this
+     * @mongodb.driver.manual reference/method/cursor.maxTimeMS/#cursor.maxTimeMS
+     *                        Max Time
+     */
+    public RongoDistinctIterable<T> maxTime(long maxTime, TimeUnit timeUnit) {
+        iterable.maxTime(maxTime, timeUnit);
+        return this;
+    }
+
+    @Override
+    public RongoDistinctIterable<T> prefetch(PrefetchPolicy prefetchPolicy) {
+        super.prefetch(prefetchPolicy);
+        return this;
+    }
+}
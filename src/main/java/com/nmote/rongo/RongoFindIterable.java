@@ -1,14 +1,35 @@
 package com.nmote.rongo;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Function;
 
+import org.bson.BsonArray;
+import org.bson.BsonDocument;
+import org.bson.BsonInt32;
+import org.bson.BsonValue;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.Codec;
 import org.bson.conversions.Bson;
 
 import com.mongodb.CursorType;
+import com.mongodb.MongoException;
+import com.mongodb.MongoNamespace;
 import com.mongodb.async.client.FindIterable;
+import com.mongodb.async.client.MongoCollection;
 import com.mongodb.client.model.Collation;
 
 import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
 
 /**
  * Iterable for find.
@@ -18,8 +39,61 @@ import reactor.core.publisher.Flux;
  */
 public class RongoFindIterable<T> extends RongoIterable<T, FindIterable<T>> {
 
+    /** Smallest number of documents decoded by one parallel task */
+    private static final int MIN_CHUNK_SIZE = 16;
+
+    /** Oplog timestamp field, tailing by it enables oplog replay */
+    private static final String OPLOG_FIELD = "ts";
+
     public RongoFindIterable(FindIterable<T> iterable) {
         super(iterable);
+        this.collection = null;
+    }
+
+    /**
+     * Creates find iterable which can also re-issue the query for raw
+     * documents, see {@link #fluxParallel(Scheduler, int, boolean)}.
+     *
+     * @param collection
+     *            collection
+     * @param filter
+     *            filter, may be null
+     */
+    public RongoFindIterable(MongoCollection<T> collection, Bson filter) {
+        super(filter != null ? collection.find(filter) : collection.find());
+        this.collection = collection;
+        if (filter != null) {
+            options.add(i -> i.filter(filter));
+            keys.put("filter", filter);
+        }
+    }
+
+    /**
+     * Sets projection including only fields read by Jackson codec of document
+     * class, including fields of embedded beans, so that fields which would
+     * be ignored aren't transferred. Projection follows names resolved by the
+     * codec's object mapper, e.g. {@link MongoId} properties as _id, and is
+     * computed once per class. Fields whose content Jackson can't describe by
+     * a fixed set of properties, such as maps or polymorphic types, are
+     * included whole. Does nothing if document class isn't decoded by
+     * {@link JacksonCodec} or {@link SpecializedCodec}, or when all fields may
+     * be needed.
+     *
+     * @return this
+     * @throws IllegalStateException
+     *             if iterable wasn't created from a collection
+     * @see RongoCollection#withAutoProjection(boolean)
+     */
+    public RongoFindIterable<T> autoProjection() {
+        MongoCollection<T> c = getCollection();
+        Codec<T> codec = c.getCodecRegistry().get(c.getDocumentClass());
+        BsonDocument projection = null;
+        if (codec instanceof JacksonCodec) {
+            projection = ((JacksonCodec<T>) codec).getProjection();
+        } else if (codec instanceof SpecializedCodec) {
+            projection = ((SpecializedCodec<T>) codec).getProjection();
+        }
+        return projection != null ? projection(projection) : this;
     }
 
     /**
@@ -33,6 +107,13 @@ public class RongoFindIterable<T> extends RongoIterable<T, FindIterable<T>> {
      */
     public RongoFindIterable<T> batchSize(int batchSize) {
         super.batchSize(batchSize);
+        options.add(i -> i.batchSize(batchSize));
+        return this;
+    }
+
+    @Override
+    public RongoFindIterable<T> coalesce(SingleFlight singleFlight) {
+        super.coalesce(singleFlight);
         return this;
     }
 
@@ -50,8 +131,7 @@ public class RongoFindIterable<T> extends RongoIterable<T, FindIterable<T>> {
      * @mongodb.server.release 3.4
      */
     public RongoFindIterable<T> collation(Collation collation) {
-        iterable.collation(collation);
-        return this;
+        return apply("collation", collation, i -> i.collation(collation));
     }
 
     /**
@@ -62,8 +142,7 @@ public class RongoFindIterable<T> extends RongoIterable<T, FindIterable<T>> {
      * @return this
      */
     public RongoFindIterable<T> cursorType(CursorType cursorType) {
-        iterable.cursorType(cursorType);
-        return this;
+        return apply("cursorType", cursorType, i -> i.cursorType(cursorType));
     }
 
     /**
@@ -75,12 +154,50 @@ public class RongoFindIterable<T> extends RongoIterable<T, FindIterable<T>> {
      * @mongodb.driver.manual reference/method/db.collection.find/ Filter
      */
     public RongoFindIterable<T> filter(Bson filter) {
-        iterable.filter(filter);
-        return this;
+        return apply("filter", filter, i -> i.filter(filter));
     }
 
-    public Flux<T> flux() {
-        return Rongo.flux(iterable);
+    /**
+     * Decodes documents in parallel, preserving order, on parallel scheduler.
+     *
+     * @return flux of documents
+     * @see #fluxParallel(Scheduler, int, boolean)
+     */
+    public Flux<T> fluxParallel() {
+        return fluxParallel(Schedulers.parallel(), Runtime.getRuntime().availableProcessors(), true);
+    }
+
+    /**
+     * Fetches raw BSON batches and decodes them on scheduler, leaving only I/O
+     * to the driver thread. Each batch is split into chunks decoded
+     * concurrently. Use {@link Schedulers#fromExecutorService} to decode on a
+     * {@link java.util.concurrent.ForkJoinPool}.
+     *
+     * @param scheduler
+     *            scheduler decoding documents
+     * @param parallelism
+     *            maximum number of chunks decoded concurrently
+     * @param ordered
+     *            true to emit documents in cursor order, false to emit them
+     *            as soon as decoded
+     * @return flux of documents
+     * @throws IllegalStateException
+     *             if iterable wasn't created from a collection
+     */
+    public Flux<T> fluxParallel(Scheduler scheduler, int parallelism, boolean ordered) {
+        Objects.requireNonNull(scheduler);
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("parallelism < 1");
+        }
+        Codec<T> codec = getCollection().getCodecRegistry().get(getCollection().getDocumentClass());
+        Function<List<RawBsonDocument>, Mono<List<T>>> decoder = chunk -> Mono
+                .fromCallable(() -> decode(codec, chunk)).subscribeOn(scheduler);
+        // Prefetch one batch while previous is being decoded
+        Flux<List<RawBsonDocument>> chunks = Rongo.fluxBatches(find(RawBsonDocument.class), getNamespace())
+                .concatMapIterable(b -> split(b, parallelism), 2);
+        Flux<List<T>> decoded = ordered ? chunks.flatMapSequential(decoder, parallelism)
+                : chunks.flatMap(decoder, parallelism);
+        return decoded.concatMapIterable(Function.identity());
     }
 
     /**
@@ -92,8 +209,7 @@ public class RongoFindIterable<T> extends RongoIterable<T, FindIterable<T>> {
      * @mongodb.driver.manual reference/method/cursor.limit/#cursor.limit Limit
      */
     public RongoFindIterable<T> limit(int limit) {
-        iterable.limit(limit);
-        return this;
+        return apply("limit", limit, i -> i.limit(limit));
     }
 
     /**
@@ -121,8 +237,7 @@ public class RongoFindIterable<T> extends RongoIterable<T, FindIterable<T>> {
      * @since 3.2
      */
     public RongoFindIterable<T> maxAwaitTime(long maxAwaitTime, TimeUnit timeUnit) {
-        iterable.maxAwaitTime(maxAwaitTime, timeUnit);
-        return this;
+        return apply("maxAwaitTime", timeUnit.toMillis(maxAwaitTime), i -> i.maxAwaitTime(maxAwaitTime, timeUnit));
     }
 
     /**
@@ -137,8 +252,7 @@ public class RongoFindIterable<T> extends RongoIterable<T, FindIterable<T>> {
      *                        Max Time
      */
     public RongoFindIterable<T> maxTime(long maxTime, TimeUnit timeUnit) {
-        iterable.maxTime(maxTime, timeUnit);
-        return this;
+        return apply("maxTime", timeUnit.toMillis(maxTime), i -> i.maxTime(maxTime, timeUnit));
     }
 
     /**
@@ -150,8 +264,7 @@ public class RongoFindIterable<T> extends RongoIterable<T, FindIterable<T>> {
      * @mongodb.driver.manual reference/operator/query-modifier/ Query Modifiers
      */
     public RongoFindIterable<T> modifiers(Bson modifiers) {
-        iterable.modifiers(modifiers);
-        return this;
+        return apply("modifiers", modifiers, i -> i.modifiers(modifiers));
     }
 
     /**
@@ -163,8 +276,7 @@ public class RongoFindIterable<T> extends RongoIterable<T, FindIterable<T>> {
      * @return this
      */
     public RongoFindIterable<T> noCursorTimeout(boolean noCursorTimeout) {
-        iterable.noCursorTimeout(noCursorTimeout);
-        return this;
+        return apply("noCursorTimeout", noCursorTimeout, i -> i.noCursorTimeout(noCursorTimeout));
     }
 
     /**
@@ -175,8 +287,7 @@ public class RongoFindIterable<T> extends RongoIterable<T, FindIterable<T>> {
      * @return this
      */
     public RongoFindIterable<T> oplogReplay(boolean oplogReplay) {
-        iterable.oplogReplay(oplogReplay);
-        return this;
+        return apply("oplogReplay", oplogReplay, i -> i.oplogReplay(oplogReplay));
     }
 
     /**
@@ -188,7 +299,12 @@ public class RongoFindIterable<T> extends RongoIterable<T, FindIterable<T>> {
      * @return this
      */
     public RongoFindIterable<T> partial(boolean partial) {
-        iterable.partial(partial);
+        return apply("partial", partial, i -> i.partial(partial));
+    }
+
+    @Override
+    public RongoFindIterable<T> prefetch(PrefetchPolicy prefetchPolicy) {
+        super.prefetch(prefetchPolicy);
         return this;
     }
 
@@ -202,8 +318,7 @@ public class RongoFindIterable<T> extends RongoIterable<T, FindIterable<T>> {
      * @mongodb.driver.manual reference/method/db.collection.find/ Projection
      */
     public RongoFindIterable<T> projection(Bson projection) {
-        iterable.projection(projection);
-        return this;
+        return apply("projection", projection, i -> i.projection(projection));
     }
 
     /**
@@ -215,8 +330,7 @@ public class RongoFindIterable<T> extends RongoIterable<T, FindIterable<T>> {
      * @mongodb.driver.manual reference/method/cursor.skip/#cursor.skip Skip
      */
     public RongoFindIterable<T> skip(int skip) {
-        iterable.skip(skip);
-        return this;
+        return apply("skip", skip, i -> i.skip(skip));
     }
 
     /**
@@ -228,8 +342,244 @@ public class RongoFindIterable<T> extends RongoIterable<T, FindIterable<T>> {
      * @mongodb.driver.manual reference/method/cursor.sort/ Sort
      */
     public RongoFindIterable<T> sort(Bson sort) {
-        iterable.sort(sort);
+        return apply("sort", sort, i -> i.sort(sort));
+    }
+
+    /**
+     * Tails capped collection by <code>_id</code>, see
+     * {@link #tail(TailOptions)}.
+     *
+     * @return infinite flux of documents
+     */
+    public Flux<T> tail() {
+        return tail(new TailOptions());
+    }
+
+    /**
+     * Tails capped collection with a TAILABLE_AWAIT cursor, so server waits
+     * for new documents instead of being polled. Flux never completes: when
+     * cursor dies, e.g. on a network error or when its position was
+     * overwritten, it is reopened at once after the last seen value of the
+     * tailing field. Only {@link com.mongodb.MongoException}s are retried,
+     * other errors are passed downstream. Tailing field is always fetched,
+     * even if projection leaves it out, and a document without it fails the
+     * flux with {@link IllegalStateException}.
+     *
+     * <pre>
+     * queue.find(eq("topic", topic)).maxAwaitTime(1, TimeUnit.SECONDS).tail()
+     *         .subscribe(this::process);
+     * </pre>
+     *
+     * @param options
+     *            tailing field, start and retry delays
+     * @return infinite flux of documents
+     * @throws IllegalStateException
+     *             if iterable wasn't created from a collection
+     */
+    public Flux<T> tail(TailOptions options) {
+        Objects.requireNonNull(options);
+        MongoCollection<T> c = getCollection();
+        Codec<T> codec = c.getCodecRegistry().get(c.getDocumentClass());
+        BsonValue after = options.getAfter() != null
+                ? RongoCollection.toBsonValue(options.getAfter(), c.getCodecRegistry()) : null;
+        return Flux.defer(() -> {
+            Tail tail = new Tail(options, after);
+            return Flux.defer(tail::open).repeatWhen(f -> f.concatMap(n -> tail.reopen(null)))
+                    .retryWhen(f -> f.concatMap(tail::reopen));
+        }).map(raw -> raw.decode(codec));
+    }
+
+    /**
+     * Returns key identifying the query, or null if iterable wasn't created
+     * from a collection.
+     */
+    @Override
+    protected Object getCoalescingKey() {
+        if (collection == null) {
+            return null;
+        }
+        Map<String, Object> result = new HashMap<>();
+        for (Map.Entry<String, Object> e : keys.entrySet()) {
+            Object value = e.getValue();
+            if (value instanceof Bson) {
+                value = ((Bson) value).toBsonDocument(collection.getDocumentClass(), collection.getCodecRegistry());
+            }
+            result.put(e.getKey(), value);
+        }
+        return Arrays.asList("find", collection.getNamespace(), collection.getDocumentClass(),
+                collection.getCodecRegistry(), collection.getReadPreference(), collection.getReadConcern(), result);
+    }
+
+    @Override
+    MongoNamespace getNamespace() {
+        return collection != null ? collection.getNamespace() : super.getNamespace();
+    }
+
+    /**
+     * Applies option to driver iterable and remembers it for
+     * {@link #find(Class)} and coalescing key.
+     */
+    private RongoFindIterable<T> apply(String name, Object value, Consumer<FindIterable<?>> option) {
+        option.accept(iterable);
+        options.add(option);
+        keys.put(name, value);
         return this;
     }
 
+    /**
+     * Issues the same query with a different result class.
+     */
+    private <R> FindIterable<R> find(Class<R> resultClass) {
+        FindIterable<R> result = getCollection().find(resultClass);
+        for (Consumer<FindIterable<?>> option : options) {
+            option.accept(result);
+        }
+        return result;
+    }
+
+    private MongoCollection<T> getCollection() {
+        if (collection == null) {
+            throw new IllegalStateException("iterable wasn't created from a collection");
+        }
+        return collection;
+    }
+
+    private static <T> List<T> decode(Codec<T> codec, List<RawBsonDocument> chunk) {
+        List<T> result = new ArrayList<>(chunk.size());
+        for (RawBsonDocument raw : chunk) {
+            result.add(raw.decode(codec));
+        }
+        return result;
+    }
+
+    private static boolean included(BsonValue value) {
+        if (value.isNumber()) {
+            return value.asNumber().intValue() != 0;
+        } else if (value.isBoolean()) {
+            return value.asBoolean().getValue();
+        }
+        return value.isDocument() && value.asDocument().containsKey("$elemMatch");
+    }
+
+    private static <T> List<List<T>> split(List<T> batch, int parallelism) {
+        int size = batch.size();
+        int chunk = Math.max(MIN_CHUNK_SIZE, (size + parallelism - 1) / parallelism);
+        if (size <= chunk) {
+            return Collections.singletonList(batch);
+        }
+        List<List<T>> result = new ArrayList<>(size / chunk + 1);
+        for (int i = 0; i < size; i += chunk) {
+            result.add(batch.subList(i, Math.min(i + chunk, size)));
+        }
+        return result;
+    }
+
+    /**
+     * Tailing state of a single subscription.
+     */
+    private final class Tail {
+
+        Tail(TailOptions options, BsonValue last) {
+            this.options = options;
+            this.path = options.getField().split("\\.");
+            this.last = last;
+            this.delay = options.getRetryDelay();
+        }
+
+        Flux<RawBsonDocument> open() {
+            received = false;
+            Bson base = (Bson) keys.get("filter");
+            BsonDocument filter = base != null
+                    ? base.toBsonDocument(collection.getDocumentClass(), collection.getCodecRegistry())
+                    : new BsonDocument();
+            if (last != null) {
+                BsonDocument after = new BsonDocument(options.getField(), new BsonDocument("$gt", last));
+                if (filter.containsKey(options.getField())) {
+                    filter = new BsonDocument("$and", new BsonArray(Arrays.asList(filter, after)));
+                } else {
+                    // Leading, as oplog replay expects it
+                    after.putAll(filter);
+                    filter = after;
+                }
+            }
+            FindIterable<RawBsonDocument> cursor = find(RawBsonDocument.class).filter(filter)
+                    .cursorType(CursorType.TailableAwait);
+            Bson projection = (Bson) keys.get("projection");
+            if (projection != null) {
+                cursor.projection(projection(
+                        projection.toBsonDocument(collection.getDocumentClass(), collection.getCodecRegistry())));
+            }
+            if (OPLOG_FIELD.equals(options.getField())) {
+                cursor.oplogReplay(true);
+            }
+            return Rongo.flux(cursor, getPrefetchPolicy(), getNamespace()).doOnNext(this::received);
+        }
+
+        Mono<Long> reopen(Throwable error) {
+            if (error != null && !(error instanceof MongoException)) {
+                return Mono.error(error);
+            }
+            if (received) {
+                delay = options.getRetryDelay();
+                return Mono.just(0L);
+            }
+            // Nothing came, back off
+            long d = delay;
+            delay = Math.min(d * 2, options.getMaxRetryDelay());
+            return Mono.delayMillis(d);
+        }
+
+        /**
+         * Returns projection which doesn't leave out the tailing field, as
+         * cursor couldn't be reopened after the last document otherwise.
+         */
+        private BsonDocument projection(BsonDocument projection) {
+            String field = options.getField();
+            BsonDocument result = new BsonDocument();
+            boolean inclusion = false;
+            boolean covered = false;
+            for (Map.Entry<String, BsonValue> e : projection.entrySet()) {
+                String name = e.getKey();
+                boolean included = included(e.getValue());
+                if (name.equals(field) || name.startsWith(field + ".")) {
+                    // Replaced by the whole field
+                    inclusion |= included;
+                    continue;
+                } else if (field.startsWith(name + ".")) {
+                    if (!included) {
+                        continue;
+                    }
+                    covered = true;
+                }
+                result.put(name, e.getValue());
+                inclusion |= included && !"_id".equals(name);
+            }
+            if (inclusion && !covered) {
+                result.put(field, new BsonInt32(1));
+            }
+            return result;
+        }
+
+        private void received(RawBsonDocument document) {
+            received = true;
+            BsonValue value = document;
+            for (String name : path) {
+                value = value.isDocument() ? value.asDocument().get(name) : null;
+                if (value == null) {
+                    throw new IllegalStateException("tailed document has no " + options.getField() + ": " + document);
+                }
+            }
+            last = value;
+        }
+
+        private volatile long delay;
+        private volatile BsonValue last;
+        private final TailOptions options;
+        private final String[] path;
+        private volatile boolean received;
+    }
+
+    private final MongoCollection<T> collection;
+    private final Map<String, Object> keys = new HashMap<>();
+    private final List<Consumer<FindIterable<?>>> options = new ArrayList<>();
 }
@@ -1,9 +1,12 @@
 package com.nmote.rongo;
 
+import java.util.List;
 import java.util.Objects;
 
+import com.mongodb.MongoNamespace;
 import com.mongodb.async.client.MongoIterable;
 
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
 /**
@@ -17,7 +20,7 @@ import reactor.core.publisher.Mono;
 public class RongoIterable<T, K extends MongoIterable<T>> {
 
     public RongoIterable(K iterable) {
-        Objects.requireNonNull(this);
+        Objects.requireNonNull(iterable);
         this.iterable = iterable;
     }
 
@@ -31,7 +34,21 @@ public class RongoIterable<T, K extends MongoIterable<T>> {
      *                        Batch Size
      */
     public RongoIterable<T, K> batchSize(int batchSize) {
-        // TODO
+        iterable.batchSize(batchSize);
+        this.batchSize = batchSize;
+        return this;
+    }
+
+    /**
+     * Coalesces {@link #first()} with identical reads in flight. Ignored by
+     * iterables which can't tell their query apart.
+     *
+     * @param singleFlight
+     *            single flight, null to disable
+     * @return this
+     */
+    public RongoIterable<T, K> coalesce(SingleFlight singleFlight) {
+        this.singleFlight = singleFlight;
         return this;
     }
 
@@ -42,13 +59,92 @@ public class RongoIterable<T, K extends MongoIterable<T>> {
      *            a callback that is passed the first item or null.
      */
     public Mono<T> first() {
-        return Rongo.mono(iterable::first);
+        Mono<T> result = Rongo.mono(iterable::first);
+        RongoMetrics metrics = Rongo.getMetrics();
+        if (metrics != null) {
+            result = Rongo.timed(metrics, getNamespace(), "first", result);
+        }
+        Object key = singleFlight != null ? getCoalescingKey() : null;
+        return key != null ? singleFlight.execute(key, result) : result;
+    }
+
+    /**
+     * Streams documents through a backpressured cursor, fetching batches as
+     * set by {@link #getPrefetchPolicy()}.
+     *
+     * @return flux of documents
+     */
+    public Flux<T> flux() {
+        return Rongo.flux(iterable, getPrefetchPolicy(), getNamespace());
+    }
+
+    /**
+     * Emits each batch returned by server as a single list, as it was
+     * received. Useful for consumers processing documents in bulk. Batches
+     * are fetched one per requested list, sized by {@link #batchSize(int)} or
+     * server default.
+     *
+     * @return flux of batches
+     */
+    public Flux<List<T>> fluxBatches() {
+        return Rongo.fluxBatches(iterable, getNamespace());
     }
 
     public K getIterable() {
         return iterable;
     }
 
+    /**
+     * Returns policy fluxes use to fetch batches. Unless set, fixed batch
+     * size policy is used if {@link #batchSize(int)} was set, adaptive one
+     * otherwise.
+     *
+     * @return prefetch policy
+     */
+    public PrefetchPolicy getPrefetchPolicy() {
+        if (prefetchPolicy != null) {
+            return prefetchPolicy;
+        }
+        return batchSize > 0 ? PrefetchPolicy.fixed(batchSize) : Rongo.getPrefetchPolicy();
+    }
+
+    /**
+     * Sets policy used to fetch batches.
+     *
+     * @param prefetchPolicy
+     *            prefetch policy, null for default
+     * @return this
+     */
+    public RongoIterable<T, K> prefetch(PrefetchPolicy prefetchPolicy) {
+        this.prefetchPolicy = prefetchPolicy;
+        return this;
+    }
+
+    /**
+     * Returns key equal for iterables issuing the same query, used to
+     * coalesce reads.
+     *
+     * @return key or null if reads can't be coalesced
+     */
+    protected Object getCoalescingKey() {
+        return null;
+    }
+
+    /**
+     * Returns namespace metrics are recorded for, null if unknown.
+     */
+    MongoNamespace getNamespace() {
+        return namespace;
+    }
+
+    void setNamespace(MongoNamespace namespace) {
+        this.namespace = namespace;
+    }
+
+    private int batchSize;
     protected final K iterable;
+    private MongoNamespace namespace;
+    private PrefetchPolicy prefetchPolicy;
+    private SingleFlight singleFlight;
 
 }
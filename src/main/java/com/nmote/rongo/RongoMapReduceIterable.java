@@ -0,0 +1,261 @@
+package com.nmote.rongo;
+
+import java.util.concurrent.TimeUnit;
+
+import org.bson.conversions.Bson;
+
+import com.mongodb.async.client.MapReduceIterable;
+import com.mongodb.client.model.Collation;
+import com.mongodb.client.model.MapReduceAction;
+
+import reactor.core.publisher.Mono;
+
+/**
+ * Iterable for map reduce.
+ *
+ * @param <T>
+ *            The type of the result.
+ */
+public class RongoMapReduceIterable<T> extends RongoIterable<T, MapReduceIterable<T>> {
+
+    public RongoMapReduceIterable(MapReduceIterable<T> iterable) {
+        super(iterable);
+    }
+
+    /**
+     * Specify the {@code MapReduceAction} to be used when writing to a
+     * collection.
+     *
+     * @param action
+     *            an {@link com.mongodb.client.model.MapReduceAction} to
+     *            perform on the collection
+     * @return this
+     */
+    public RongoMapReduceIterable<T> action(MapReduceAction action) {
+        iterable.action(action);
+        return this;
+    }
+
+    /**
+     * Sets the number of documents to return per batch.
+     *
+     * @param batchSize
+     *            the batch size
+     * @return this
+     * @mongodb.driver.manual reference/method/cursor.batchSize/#cursor.batchSize
+     *                        Batch Size
+     */
+    @Override
+    public RongoMapReduceIterable<T> batchSize(int batchSize) {
+        super.batchSize(batchSize);
+        return this;
+    }
+
+    /**
+     * Sets the bypass document level validation flag.
+     *
+     * @param bypassDocumentValidation
+     *            If true, allows the write to opt-out of document level
+     *            validation.
+     * @return this
+     * @since 3.2
+     * @mongodb.server.release 3.2
+     */
+    public RongoMapReduceIterable<T> bypassDocumentValidation(Boolean bypassDocumentValidation) {
+        iterable.bypassDocumentValidation(bypassDocumentValidation);
+        return this;
+    }
+
+    /**
+     * Sets the collation options
+     *
+     * <p>
+     * A null value represents the server default.
+     * </p>
+     *
+     * @param collation
+     *            the collation options to use
+     * @return this
+     * @since 3.4
+     * @mongodb.server.release 3.4
+     */
+    public RongoMapReduceIterable<T> collation(Collation collation) {
+        iterable.collation(collation);
+        return this;
+    }
+
+    /**
+     * Sets the collectionName for the output of the MapReduce. The default
+     * action is replace the collection if it exists, to change this use
+     * {@link #action}.
+     *
+     * @param collectionName
+     *            the name of the collection that you want the map-reduce
+     *            operation to write its output.
+     * @return this
+     */
+    public RongoMapReduceIterable<T> collectionName(String collectionName) {
+        iterable.collectionName(collectionName);
+        return this;
+    }
+
+    /**
+     * Sets the name of the database to output into.
+     *
+     * @param databaseName
+     *            the name of the database to output into.
+     * @return this
+     */
+    public RongoMapReduceIterable<T> databaseName(String databaseName) {
+        iterable.databaseName(databaseName);
+        return this;
+    }
+
+    /**
+     * Sets the query filter to apply to the query.
+     *
+     * @param filter
+     *            the filter to apply to the query.
+     * @return this
+     */
+    public RongoMapReduceIterable<T> filter(Bson filter) {
+        iterable.filter(filter);
+        return this;
+    }
+
+    /**
+     * Sets the JavaScript function that follows the reduce method and modifies
+     * the output.
+     *
+     * @param finalizeFunction
+     *            the JavaScript function that follows the reduce method and
+     *            modifies the output.
+     * @return this
+     */
+    public RongoMapReduceIterable<T> finalizeFunction(String finalizeFunction) {
+        iterable.finalizeFunction(finalizeFunction);
+        return this;
+    }
+
+    /**
+     * Sets if JavaScript objects are kept out of BSON between map and reduce
+     * functions.
+     *
+     * @param jsMode
+     *            the specific flag
+     * @return this
+     */
+    public RongoMapReduceIterable<T> jsMode(boolean jsMode) {
+        iterable.jsMode(jsMode);
+        return this;
+    }
+
+    /**
+     * Sets the limit to apply.
+     *
+     * @param limit
+     *            the limit
+     * @return this
+     */
+    public RongoMapReduceIterable<T> limit(int limit) {
+        iterable.limit(limit);
+        return this;
+    }
+
+    /**
+     * Sets the maximum execution time on the server for this operation.
+     *
+     * @param maxTime
+     *            the max time
+     * @param timeUnit
+     *            the time unit, which may not be null
+     * @return this
+     */
+    public RongoMapReduceIterable<T> maxTime(long maxTime, TimeUnit timeUnit) {
+        iterable.maxTime(maxTime, timeUnit);
+        return this;
+    }
+
+    /**
+     * Sets if the post-processing step will prevent MongoDB from locking the
+     * database.
+     *
+     * @param nonAtomic
+     *            if the post-processing step will prevent MongoDB from
+     *            locking the database.
+     * @return this
+     */
+    public RongoMapReduceIterable<T> nonAtomic(boolean nonAtomic) {
+        iterable.nonAtomic(nonAtomic);
+        return this;
+    }
+
+    @Override
+    public RongoMapReduceIterable<T> prefetch(PrefetchPolicy prefetchPolicy) {
+        super.prefetch(prefetchPolicy);
+        return this;
+    }
+
+    /**
+     * Sets the global variables that are accessible in the map, reduce and
+     * finalize functions.
+     *
+     * @param scope
+     *            the global variables that are accessible in the map, reduce
+     *            and finalize functions.
+     * @return this
+     */
+    public RongoMapReduceIterable<T> scope(Bson scope) {
+        iterable.scope(scope);
+        return this;
+    }
+
+    /**
+     * Sets if the output database is sharded.
+     *
+     * @param sharded
+     *            if the output database is sharded
+     * @return this
+     */
+    public RongoMapReduceIterable<T> sharded(boolean sharded) {
+        iterable.sharded(sharded);
+        return this;
+    }
+
+    /**
+     * Sets the sort criteria to apply to the query.
+     *
+     * @param sort
+     *            the sort criteria, which may be null.
+     * @return this
+     */
+    public RongoMapReduceIterable<T> sort(Bson sort) {
+        iterable.sort(sort);
+        return this;
+    }
+
+    /**
+     * Aggregates documents to a collection according to the specified
+     * map-reduce function with the given options, which must specify a non-inline
+     * result.
+     *
+     * @return completes when map reduce is done
+     */
+    public Mono<Boolean> toCollection() {
+        return Rongo.monoVoid(iterable::toCollection);
+    }
+
+    /**
+     * Sets whether to include the timing information in the result
+     * information.
+     *
+     * @param verbose
+     *            whether to include the timing information in the result
+     *            information.
+     * @return this
+     */
+    public RongoMapReduceIterable<T> verbose(boolean verbose) {
+        iterable.verbose(verbose);
+        return this;
+    }
+}
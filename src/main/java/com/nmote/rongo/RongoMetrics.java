@@ -0,0 +1,87 @@
+package com.nmote.rongo;
+
+import com.mongodb.MongoNamespace;
+
+/**
+ * Receives timings of operations, cursors and codecs, see
+ * {@link Rongo#setMetrics(RongoMetrics)}. Methods are called on driver and
+ * decoding threads, so they must be fast and thread safe. Namespace is null
+ * for iterables not created by {@link RongoCollection}. Times are in
+ * nanoseconds.
+ */
+public interface RongoMetrics {
+
+    /**
+     * Cursor received a batch. Time of the first batch is measured from
+     * opening the cursor, of others from requesting them by getMore.
+     *
+     * @param namespace
+     *            namespace or null
+     * @param first
+     *            true for the first batch
+     * @param documents
+     *            number of documents in batch
+     * @param bytes
+     *            BSON size of documents in batch, 0 if unknown. Size of
+     *            decoded documents is approximated by average size of
+     *            their type seen by Jackson codecs
+     * @param nanos
+     *            time to receive batch
+     */
+    default void batch(MongoNamespace namespace, boolean first, int documents, long bytes, long nanos) {
+    }
+
+    /**
+     * Cursor was closed, or failed to open.
+     *
+     * @param namespace
+     *            namespace or null
+     * @param documents
+     *            number of documents received
+     * @param bytes
+     *            BSON size of documents received, see
+     *            {@link #batch(MongoNamespace, boolean, int, long, long)}
+     * @param error
+     *            error which ended the cursor, or null
+     */
+    default void cursor(MongoNamespace namespace, long documents, long bytes, Throwable error) {
+    }
+
+    /**
+     * Codec decoded a document.
+     *
+     * @param type
+     *            decoded class
+     * @param nanos
+     *            decoding time
+     */
+    default void decode(Class<?> type, long nanos) {
+    }
+
+    /**
+     * Codec encoded a document.
+     *
+     * @param type
+     *            encoded class
+     * @param nanos
+     *            encoding time
+     */
+    default void encode(Class<?> type, long nanos) {
+    }
+
+    /**
+     * Operation such as <code>insertOne</code>, <code>count</code> or
+     * <code>first</code> terminated. Cancelled operations aren't reported.
+     *
+     * @param namespace
+     *            namespace or null
+     * @param operation
+     *            operation name
+     * @param nanos
+     *            time from subscription to result
+     * @param error
+     *            error or null if operation succeeded
+     */
+    default void operation(MongoNamespace namespace, String operation, long nanos, Throwable error) {
+    }
+}
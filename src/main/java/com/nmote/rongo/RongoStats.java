@@ -0,0 +1,255 @@
+package com.nmote.rongo;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import com.mongodb.MongoNamespace;
+
+/**
+ * Built-in metrics keeping latency histograms and counters per namespace,
+ * operation and codec class, exposed through JMX.
+ *
+ * <pre>
+ * RongoStats stats = new RongoStats().register();
+ * Rongo.setMetrics(stats);
+ * </pre>
+ */
+public class RongoStats implements RongoMetrics, RongoStatsMXBean {
+
+    public static final String DEFAULT_NAME = "default";
+
+    /** JMX domain of registered stats */
+    public static final String DOMAIN = "com.nmote.rongo";
+
+    /** Key of iterables without namespace */
+    private static final String UNKNOWN = "?";
+
+    public RongoStats() {
+        this(DEFAULT_NAME);
+    }
+
+    /**
+     * Creates stats registered under given name.
+     *
+     * @param name
+     *            name property of JMX object name
+     */
+    public RongoStats(String name) {
+        Objects.requireNonNull(name);
+        this.name = name;
+    }
+
+    @Override
+    public void batch(MongoNamespace namespace, boolean first, int documents, long bytes, long nanos) {
+        CursorStats stats = cursors.computeIfAbsent(key(namespace), k -> new CursorStats());
+        (first ? stats.firstBatch : stats.getMore).record(nanos);
+    }
+
+    @Override
+    public void cursor(MongoNamespace namespace, long documents, long bytes, Throwable error) {
+        CursorStats stats = cursors.computeIfAbsent(key(namespace), k -> new CursorStats());
+        stats.count.increment();
+        stats.documents.add(documents);
+        stats.bytes.add(bytes);
+        if (error != null) {
+            stats.errors.increment();
+        }
+    }
+
+    @Override
+    public void decode(Class<?> type, long nanos) {
+        decode.computeIfAbsent(type, k -> new LatencyHistogram()).record(nanos);
+    }
+
+    @Override
+    public void encode(Class<?> type, long nanos) {
+        encode.computeIfAbsent(type, k -> new LatencyHistogram()).record(nanos);
+    }
+
+    @Override
+    public Map<String, CursorStats> getCursors() {
+        return new TreeMap<>(cursors);
+    }
+
+    @Override
+    public Map<String, LatencyHistogram> getDecode() {
+        return byName(decode);
+    }
+
+    @Override
+    public Map<String, LatencyHistogram> getEncode() {
+        return byName(encode);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Returns JMX object name stats are registered under.
+     *
+     * @return object name
+     */
+    public ObjectName getObjectName() {
+        try {
+            return new ObjectName(DOMAIN + ":type=RongoStats,name=" + ObjectName.quote(name));
+        } catch (JMException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+
+    @Override
+    public Map<String, OperationStats> getOperations() {
+        return new TreeMap<>(operations);
+    }
+
+    @Override
+    public void operation(MongoNamespace namespace, String operation, long nanos, Throwable error) {
+        OperationStats stats = operations.computeIfAbsent(key(namespace) + ":" + operation,
+                k -> new OperationStats());
+        stats.latency.record(nanos);
+        if (error != null) {
+            stats.errors.increment();
+        }
+    }
+
+    /**
+     * Registers stats with platform MBean server.
+     *
+     * @return this
+     * @throws IllegalStateException
+     *             if registration failed
+     */
+    public RongoStats register() {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, getObjectName());
+        } catch (JMException e) {
+            throw new IllegalStateException(e);
+        }
+        return this;
+    }
+
+    @Override
+    public void reset() {
+        cursors.clear();
+        decode.clear();
+        encode.clear();
+        operations.clear();
+    }
+
+    @Override
+    public String toString() {
+        return "RongoStats{name=" + name + ", operations=" + getOperations() + ", cursors=" + getCursors() + "}";
+    }
+
+    /**
+     * Unregisters stats from platform MBean server, if registered.
+     */
+    public void unregister() {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            if (server.isRegistered(getObjectName())) {
+                server.unregisterMBean(getObjectName());
+            }
+        } catch (JMException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static Map<String, LatencyHistogram> byName(Map<Class<?>, LatencyHistogram> histograms) {
+        Map<String, LatencyHistogram> result = new TreeMap<>();
+        for (Map.Entry<Class<?>, LatencyHistogram> e : histograms.entrySet()) {
+            result.put(e.getKey().getName(), e.getValue());
+        }
+        return result;
+    }
+
+    private static String key(MongoNamespace namespace) {
+        return namespace != null ? namespace.getFullName() : UNKNOWN;
+    }
+
+    /**
+     * Statistics of cursors opened on a namespace.
+     */
+    public static final class CursorStats {
+
+        public long getBytes() {
+            return bytes.sum();
+        }
+
+        public long getCount() {
+            return count.sum();
+        }
+
+        public long getDocuments() {
+            return documents.sum();
+        }
+
+        public long getErrors() {
+            return errors.sum();
+        }
+
+        /**
+         * Returns time from opening cursor to its first batch.
+         *
+         * @return first batch latency
+         */
+        public LatencyHistogram getFirstBatch() {
+            return firstBatch;
+        }
+
+        public LatencyHistogram getGetMore() {
+            return getMore;
+        }
+
+        @Override
+        public String toString() {
+            return "CursorStats{count=" + getCount() + ", documents=" + getDocuments() + ", bytes=" + getBytes()
+                    + ", errors=" + getErrors() + ", firstBatch=" + firstBatch + ", getMore=" + getMore + "}";
+        }
+
+        private final LongAdder bytes = new LongAdder();
+        private final LongAdder count = new LongAdder();
+        private final LongAdder documents = new LongAdder();
+        private final LongAdder errors = new LongAdder();
+        private final LatencyHistogram firstBatch = new LatencyHistogram();
+        private final LatencyHistogram getMore = new LatencyHistogram();
+    }
+
+    /**
+     * Statistics of an operation on a namespace.
+     */
+    public static final class OperationStats {
+
+        public long getErrors() {
+            return errors.sum();
+        }
+
+        public LatencyHistogram getLatency() {
+            return latency;
+        }
+
+        @Override
+        public String toString() {
+            return "OperationStats{latency=" + latency + ", errors=" + getErrors() + "}";
+        }
+
+        private final LongAdder errors = new LongAdder();
+        private final LatencyHistogram latency = new LatencyHistogram();
+    }
+
+    private final ConcurrentMap<String, CursorStats> cursors = new ConcurrentHashMap<>();
+    private final ConcurrentMap<Class<?>, LatencyHistogram> decode = new ConcurrentHashMap<>();
+    private final ConcurrentMap<Class<?>, LatencyHistogram> encode = new ConcurrentHashMap<>();
+    private final String name;
+    private final ConcurrentMap<String, OperationStats> operations = new ConcurrentHashMap<>();
+}
@@ -0,0 +1,43 @@
+package com.nmote.rongo;
+
+import java.util.Map;
+
+/**
+ * JMX view of {@link RongoStats}.
+ */
+public interface RongoStatsMXBean {
+
+    /**
+     * Returns cursor statistics by namespace.
+     *
+     * @return cursor statistics
+     */
+    Map<String, RongoStats.CursorStats> getCursors();
+
+    /**
+     * Returns decoding latencies by class name.
+     *
+     * @return decoding latencies
+     */
+    Map<String, LatencyHistogram> getDecode();
+
+    /**
+     * Returns encoding latencies by class name.
+     *
+     * @return encoding latencies
+     */
+    Map<String, LatencyHistogram> getEncode();
+
+    /**
+     * Returns operation statistics by namespace and operation name, e.g.
+     * <code>test.instances:count</code>.
+     *
+     * @return operation statistics
+     */
+    Map<String, RongoStats.OperationStats> getOperations();
+
+    /**
+     * Clears all statistics.
+     */
+    void reset();
+}
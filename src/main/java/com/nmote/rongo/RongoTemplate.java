@@ -0,0 +1,506 @@
+package com.nmote.rongo;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+import org.bson.BsonBinaryWriter;
+import org.bson.BsonDocument;
+import org.bson.BsonWriter;
+import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.BsonValueCodecProvider;
+import org.bson.codecs.Codec;
+import org.bson.codecs.DocumentCodec;
+import org.bson.codecs.DocumentCodecProvider;
+import org.bson.codecs.EncoderContext;
+import org.bson.codecs.IterableCodecProvider;
+import org.bson.codecs.ValueCodecProvider;
+import org.bson.codecs.configuration.CodecRegistries;
+import org.bson.codecs.configuration.CodecRegistry;
+import org.bson.conversions.Bson;
+import org.bson.io.BasicOutputBuffer;
+
+/**
+ * Query template compiled once and bound many times. Template is a JSON
+ * document where string values <code>":name"</code> or <code>":1"</code>
+ * (positional, starting from 1) are parameter slots:
+ *
+ * <pre>
+ * RongoTemplate byOwner = RongoTemplate.compile("{ owner: ':1', active: true }");
+ * instances.find(byOwner.bind(ownerId));
+ * </pre>
+ *
+ * Bound templates encode straight to BSON. Constant fields are encoded at
+ * compile time and copied as bytes, only parameter values are encoded on
+ * each bind using collection codec registry. Instances are immutable and
+ * thread safe, see {@link Rongo#template(String)} for a cached variant.
+ *
+ * <p>
+ * A JSON array of documents compiles to an aggregation pipeline template,
+ * see {@link #bindPipeline(Object...)}.
+ * </p>
+ */
+public final class RongoTemplate {
+
+    private static final CodecRegistry CONSTANTS = CodecRegistries.fromProviders(new ValueCodecProvider(),
+            new BsonValueCodecProvider(), new DocumentCodecProvider(), new IterableCodecProvider());
+
+    private static final EncoderContext ENCODER_CONTEXT = EncoderContext.builder().build();
+
+    /**
+     * Parses and compiles template.
+     *
+     * @param template
+     *            JSON template
+     * @return compiled template
+     */
+    public static RongoTemplate compile(String template) {
+        Objects.requireNonNull(template);
+        if (template.trim().startsWith("[")) {
+            return new RongoTemplate(template, compileStages(template));
+        }
+        return new RongoTemplate(template, Document.parse(template));
+    }
+
+    private RongoTemplate(String template, Document parsed) {
+        this.template = template;
+        Set<String> names = new LinkedHashSet<>();
+        this.nodes = compile(parsed, false, names);
+        this.parameterNames = Collections.unmodifiableSet(names);
+        if (names.isEmpty()) {
+            this.constant = new RawBsonDocument(encode(null, null, null));
+        } else {
+            this.constant = null;
+        }
+        this.stages = null;
+    }
+
+    private RongoTemplate(String template, List<RongoTemplate> stages) {
+        this.template = template;
+        this.stages = stages;
+        this.nodes = Collections.emptyList();
+        Set<String> names = new LinkedHashSet<>();
+        for (RongoTemplate stage : stages) {
+            names.addAll(stage.parameterNames);
+        }
+        this.parameterNames = Collections.unmodifiableSet(names);
+        this.constant = null;
+    }
+
+    /**
+     * Binds named parameters.
+     *
+     * @param parameters
+     *            parameter values by name
+     * @return query encoding bound template
+     * @throws IllegalStateException
+     *             if a parameter isn't bound
+     */
+    public Bson bind(Map<String, Object> parameters) {
+        Objects.requireNonNull(parameters);
+        checkDocument();
+        for (String name : parameterNames) {
+            if (!parameters.containsKey(name)) {
+                throw notBound(name);
+            }
+        }
+        return constant != null ? constant : new Bound(null, parameters);
+    }
+
+    /**
+     * Binds positional parameters, first argument is bound to :1.
+     *
+     * @param parameters
+     *            parameter values
+     * @return query encoding bound template
+     * @throws IllegalStateException
+     *             if a parameter isn't bound
+     */
+    public Bson bind(Object... parameters) {
+        checkDocument();
+        for (String name : parameterNames) {
+            lookup(name, position(name), parameters, null);
+        }
+        return constant != null ? constant : new Bound(parameters, null);
+    }
+
+    /**
+     * Binds named parameters into a new mutable document.
+     *
+     * @param parameters
+     *            parameter values by name
+     * @return bound document
+     * @throws IllegalStateException
+     *             if a parameter isn't bound
+     */
+    public Document bindDocument(Map<String, Object> parameters) {
+        Objects.requireNonNull(parameters);
+        checkDocument();
+        Document result = new Document();
+        toMap(nodes, null, parameters, result);
+        return result;
+    }
+
+    /**
+     * Binds positional parameters into a new mutable document.
+     *
+     * @param parameters
+     *            parameter values
+     * @return bound document
+     * @throws IllegalStateException
+     *             if a parameter isn't bound
+     */
+    public Document bindDocument(Object... parameters) {
+        checkDocument();
+        Document result = new Document();
+        toMap(nodes, parameters, null, result);
+        return result;
+    }
+
+    /**
+     * Binds named parameters into pipeline stages. A document template is a
+     * single stage pipeline.
+     *
+     * @param parameters
+     *            parameter values by name
+     * @return pipeline
+     * @throws IllegalStateException
+     *             if a parameter isn't bound
+     */
+    public List<Bson> bindPipeline(Map<String, Object> parameters) {
+        if (stages == null) {
+            return Collections.singletonList(bind(parameters));
+        }
+        List<Bson> result = new ArrayList<>(stages.size());
+        for (RongoTemplate stage : stages) {
+            result.add(stage.bind(parameters));
+        }
+        return result;
+    }
+
+    /**
+     * Binds positional parameters into pipeline stages, first argument is
+     * bound to :1 in any stage.
+     *
+     * @param parameters
+     *            parameter values
+     * @return pipeline
+     * @throws IllegalStateException
+     *             if a parameter isn't bound
+     */
+    public List<Bson> bindPipeline(Object... parameters) {
+        if (stages == null) {
+            return Collections.singletonList(bind(parameters));
+        }
+        List<Bson> result = new ArrayList<>(stages.size());
+        for (RongoTemplate stage : stages) {
+            result.add(stage.bind(parameters));
+        }
+        return result;
+    }
+
+    /**
+     * Returns parameter names in order of appearance, positional parameters
+     * are named by their position.
+     *
+     * @return parameter names
+     */
+    public Set<String> getParameterNames() {
+        return parameterNames;
+    }
+
+    public String getTemplate() {
+        return template;
+    }
+
+    public boolean isPipeline() {
+        return stages != null;
+    }
+
+    @Override
+    public String toString() {
+        return "RongoTemplate{" + template + "}";
+    }
+
+    private void checkDocument() {
+        if (stages != null) {
+            throw new IllegalStateException("pipeline template can only be bound with bindPipeline");
+        }
+    }
+
+    private byte[] encode(Object[] args, Map<String, Object> params, CodecRegistry registry) {
+        BasicOutputBuffer out = new BasicOutputBuffer(sizeHint);
+        try (BsonBinaryWriter writer = new BsonBinaryWriter(out)) {
+            writer.writeStartDocument();
+            write(writer, out, nodes, false, args, params, registry);
+            writer.writeEndDocument();
+        }
+        byte[] result = out.toByteArray();
+        if (result.length > sizeHint) {
+            sizeHint = result.length;
+        }
+        return result;
+    }
+
+    private void toMap(List<Node> nodes, Object[] args, Map<String, Object> params, Map<String, Object> result) {
+        for (Node node : nodes) {
+            result.put(node.name, toValue(node, args, params));
+        }
+    }
+
+    private Object toValue(Node node, Object[] args, Map<String, Object> params) {
+        Object result;
+        if (node.children != null) {
+            if (node.array) {
+                List<Object> list = new ArrayList<>(node.children.size());
+                for (Node child : node.children) {
+                    list.add(toValue(child, args, params));
+                }
+                result = list;
+            } else {
+                Map<String, Object> map = new LinkedHashMap<>();
+                toMap(node.children, args, params, map);
+                result = map;
+            }
+        } else if (node.parameter != null) {
+            result = lookup(node.parameter, node.position, args, params);
+        } else {
+            result = copy(node.value);
+        }
+        return result;
+    }
+
+    private static List<Node> compile(Map<String, Object> document, boolean array, Set<String> names) {
+        List<Node> result = new ArrayList<>(document.size());
+        for (Map.Entry<String, Object> e : document.entrySet()) {
+            result.add(compile(e.getKey(), e.getValue(), array, names));
+        }
+        return result;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Node compile(String name, Object value, boolean array, Set<String> names) {
+        Node result = new Node(name);
+        if (value instanceof String && isSlot((String) value)) {
+            result.parameter = ((String) value).substring(1);
+            result.position = position(result.parameter);
+            names.add(result.parameter);
+        } else if (value instanceof Map || value instanceof Iterable) {
+            List<Node> children;
+            if (value instanceof Map) {
+                children = compile((Map<String, Object>) value, false, names);
+            } else {
+                children = new ArrayList<>();
+                for (Object element : (Iterable<Object>) value) {
+                    children.add(compile(null, element, true, names));
+                }
+            }
+            if (children.stream().anyMatch(n -> n.parameter != null || n.children != null)) {
+                result.children = children;
+                result.array = !(value instanceof Map);
+            } else {
+                result.value = value;
+            }
+        } else {
+            result.value = value;
+        }
+        if (result.children == null && result.parameter == null && !array) {
+            result.raw = encodeElement(name, value);
+        }
+        return result;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<RongoTemplate> compileStages(String template) {
+        Object pipeline = Document.parse("{\"pipeline\": " + template + "}").get("pipeline");
+        List<RongoTemplate> result = new ArrayList<>();
+        for (Object stage : (List<Object>) pipeline) {
+            if (!(stage instanceof Document)) {
+                throw new IllegalArgumentException("pipeline stage isn't a document: " + stage);
+            }
+            result.add(new RongoTemplate(((Document) stage).toJson(), (Document) stage));
+        }
+        return Collections.unmodifiableList(result);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Object copy(Object value) {
+        Object result;
+        if (value instanceof Map) {
+            Map<String, Object> map = new LinkedHashMap<>();
+            for (Map.Entry<String, Object> e : ((Map<String, Object>) value).entrySet()) {
+                map.put(e.getKey(), copy(e.getValue()));
+            }
+            result = map;
+        } else if (value instanceof Iterable) {
+            List<Object> list = new ArrayList<>();
+            for (Object element : (Iterable<Object>) value) {
+                list.add(copy(element));
+            }
+            result = list;
+        } else {
+            result = value;
+        }
+        return result;
+    }
+
+    /**
+     * Encodes a single constant element, type, name and value, without
+     * enclosing document.
+     */
+    private static byte[] encodeElement(String name, Object value) {
+        BasicOutputBuffer out = new BasicOutputBuffer(64);
+        try (BsonBinaryWriter writer = new BsonBinaryWriter(out)) {
+            writer.writeStartDocument();
+            writer.writeName(name);
+            writeValue(writer, value, CONSTANTS);
+            writer.writeEndDocument();
+        }
+        // Strip document size and terminating zero
+        return Arrays.copyOfRange(out.getInternalBuffer(), 4, out.getPosition() - 1);
+    }
+
+    private static boolean isSlot(String value) {
+        return value.length() > 1 && value.charAt(0) == ':';
+    }
+
+    private static Object lookup(String name, int position, Object[] args, Map<String, Object> params) {
+        if (params != null) {
+            Object value = params.get(name);
+            if (value == null && !params.containsKey(name)) {
+                throw notBound(name);
+            }
+            return value;
+        } else if (position > 0 && args != null && position <= args.length) {
+            return args[position - 1];
+        } else {
+            throw notBound(name);
+        }
+    }
+
+    private static IllegalStateException notBound(String name) {
+        return new IllegalStateException(String.format("parameter :%s not bound", name));
+    }
+
+    private static int position(String name) {
+        for (int i = 0; i < name.length(); ++i) {
+            if (!Character.isDigit(name.charAt(i))) {
+                return -1;
+            }
+        }
+        try {
+            return Integer.parseInt(name);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static void write(BsonBinaryWriter writer, BasicOutputBuffer out, List<Node> nodes, boolean array,
+            Object[] args, Map<String, Object> params, CodecRegistry registry) {
+        for (Node node : nodes) {
+            if (node.raw != null) {
+                // Writer is expecting a name, so a complete element can be
+                // appended to its buffer directly. Writer state doesn't
+                // change and end of document sizes it from buffer position,
+                // see RongoTemplateTest for bytes matching DocumentCodec
+                out.writeBytes(node.raw, 0, node.raw.length);
+                continue;
+            }
+            if (!array) {
+                writer.writeName(node.name);
+            }
+            if (node.children != null) {
+                if (node.array) {
+                    writer.writeStartArray();
+                    write(writer, out, node.children, true, args, params, registry);
+                    writer.writeEndArray();
+                } else {
+                    writer.writeStartDocument();
+                    write(writer, out, node.children, false, args, params, registry);
+                    writer.writeEndDocument();
+                }
+            } else if (node.parameter != null) {
+                writeValue(writer, lookup(node.parameter, node.position, args, params), registry);
+            } else {
+                writeValue(writer, node.value, CONSTANTS);
+            }
+        }
+    }
+
+    /**
+     * Writes value the way {@link DocumentCodec} does.
+     */
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private static void writeValue(BsonWriter writer, Object value, CodecRegistry registry) {
+        if (value == null) {
+            writer.writeNull();
+        } else if (value instanceof Iterable) {
+            writer.writeStartArray();
+            for (Object element : (Iterable<Object>) value) {
+                writeValue(writer, element, registry);
+            }
+            writer.writeEndArray();
+        } else if (value instanceof Map) {
+            writer.writeStartDocument();
+            for (Map.Entry<String, Object> e : ((Map<String, Object>) value).entrySet()) {
+                writer.writeName(e.getKey());
+                writeValue(writer, e.getValue(), registry);
+            }
+            writer.writeEndDocument();
+        } else {
+            Codec codec = registry.get(value.getClass());
+            ENCODER_CONTEXT.encodeWithChildContext(codec, writer, value);
+        }
+    }
+
+    private final class Bound implements Bson {
+
+        Bound(Object[] args, Map<String, Object> params) {
+            this.args = args;
+            this.params = params;
+        }
+
+        @Override
+        public <TDocument> BsonDocument toBsonDocument(Class<TDocument> documentClass, CodecRegistry codecRegistry) {
+            return new RawBsonDocument(encode(args, params, codecRegistry));
+        }
+
+        @Override
+        public String toString() {
+            return "RongoTemplate.Bound{template=" + template + ", parameters="
+                    + (params != null ? params : Arrays.toString(args)) + "}";
+        }
+
+        private final Object[] args;
+        private final Map<String, Object> params;
+    }
+
+    private static final class Node {
+
+        Node(String name) {
+            this.name = name;
+        }
+
+        boolean array;
+        List<Node> children;
+        final String name;
+        String parameter;
+        int position;
+        byte[] raw;
+        Object value;
+    }
+
+    private final RawBsonDocument constant;
+    private final List<Node> nodes;
+    private final Set<String> parameterNames;
+    private volatile int sizeHint = 128;
+    private final List<RongoTemplate> stages;
+    private final String template;
+}
@@ -0,0 +1,156 @@
+package com.nmote.rongo;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import reactor.core.Cancellation;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.MonoSink;
+
+/**
+ * Coalesces identical reads in flight. While a read is executing, other reads
+ * with an equal key subscribe to it instead of issuing their own, and all of
+ * them receive the same result. Read is cancelled only when all its
+ * subscribers cancel. Results are shared, possibly by subscribers on
+ * different threads, so decoded documents mustn't be modified. Reading a
+ * shared {@link LazyDocument} is safe.
+ *
+ * <pre>
+ * RongoCollection&lt;Instance&gt; coalesced = instances.withSingleFlight(new SingleFlight());
+ * coalesced.find(eq("owner", owner)).first();
+ * </pre>
+ */
+public class SingleFlight {
+
+    /**
+     * Subscribes to source unless an equal key is already in flight.
+     *
+     * @param key
+     *            read key, must implement equals and hashCode
+     * @param source
+     *            read
+     * @return shared result
+     */
+    public <T> Mono<T> execute(Object key, Mono<T> source) {
+        Objects.requireNonNull(key);
+        Objects.requireNonNull(source);
+        return Mono.create(sink -> {
+            for (;;) {
+                @SuppressWarnings("unchecked")
+                Flight<T> flight = (Flight<T>) flights.computeIfAbsent(key, k -> new Flight<>(k, source));
+                if (flight.join(sink)) {
+                    break;
+                }
+                // Completed just now, start over
+            }
+        });
+    }
+
+    /**
+     * Returns number of reads which joined a read already in flight.
+     *
+     * @return number of coalesced reads
+     */
+    public long getCoalescedCount() {
+        return coalesced.sum();
+    }
+
+    public int getInFlight() {
+        return flights.size();
+    }
+
+    @Override
+    public String toString() {
+        return "SingleFlight{inFlight=" + getInFlight() + ", coalesced=" + getCoalescedCount() + "}";
+    }
+
+    private final class Flight<T> {
+
+        Flight(Object key, Mono<T> source) {
+            this.key = key;
+            this.source = source;
+        }
+
+        boolean join(MonoSink<T> sink) {
+            boolean start;
+            synchronized (this) {
+                if (done) {
+                    return false;
+                }
+                start = !started;
+                started = true;
+                sinks.add(sink);
+            }
+            sink.setCancellation(() -> leave(sink));
+            if (start) {
+                Cancellation c = source.subscribe(v -> complete(v, null), t -> complete(null, t),
+                        () -> complete(null, null));
+                boolean cancel;
+                synchronized (this) {
+                    upstream = c;
+                    cancel = done && cancelled;
+                }
+                if (cancel) {
+                    c.dispose();
+                }
+            } else {
+                coalesced.increment();
+            }
+            return true;
+        }
+
+        private void complete(T value, Throwable error) {
+            List<MonoSink<T>> subscribers;
+            synchronized (this) {
+                if (done) {
+                    return;
+                }
+                done = true;
+                subscribers = new ArrayList<>(sinks);
+                sinks.clear();
+            }
+            flights.remove(key, this);
+            for (MonoSink<T> sink : subscribers) {
+                if (error != null) {
+                    sink.error(error);
+                } else if (value != null) {
+                    sink.success(value);
+                } else {
+                    sink.success();
+                }
+            }
+        }
+
+        private void leave(MonoSink<T> sink) {
+            Cancellation c;
+            synchronized (this) {
+                if (!sinks.remove(sink) || !sinks.isEmpty() || done) {
+                    return;
+                }
+                // Last subscriber gone
+                done = true;
+                cancelled = true;
+                c = upstream;
+            }
+            flights.remove(key, this);
+            if (c != null) {
+                c.dispose();
+            }
+        }
+
+        private boolean cancelled;
+        private boolean done;
+        private final Object key;
+        private final List<MonoSink<T>> sinks = new ArrayList<>(2);
+        private final Mono<T> source;
+        private boolean started;
+        private Cancellation upstream;
+    }
+
+    private final LongAdder coalesced = new LongAdder();
+    private final ConcurrentMap<Object, Flight<?>> flights = new ConcurrentHashMap<>();
+}
@@ -0,0 +1,477 @@
+package com.nmote.rongo;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.annotation.Annotation;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.AnnotatedElement;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.bson.BsonDocument;
+import org.bson.BsonReader;
+import org.bson.BsonType;
+import org.bson.BsonWriter;
+import org.bson.codecs.Codec;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.EncoderContext;
+import org.bson.types.ObjectId;
+
+import com.fasterxml.jackson.annotation.JacksonAnnotation;
+import com.fasterxml.jackson.annotation.JsonAutoDetect;
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.annotation.JsonPropertyOrder;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.BeanDescription;
+import com.fasterxml.jackson.databind.DeserializationConfig;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.databind.JsonMappingException;
+import com.fasterxml.jackson.databind.MapperFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationConfig;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.databind.introspect.AnnotatedConstructor;
+import com.fasterxml.jackson.databind.introspect.AnnotatedMember;
+import com.fasterxml.jackson.databind.introspect.AnnotatedMethod;
+import com.fasterxml.jackson.databind.introspect.BeanPropertyDefinition;
+
+/**
+ * Codec reading and writing POJO properties directly against
+ * {@link BsonReader} and {@link BsonWriter}, accessing them through
+ * {@link MethodHandle}s instead of Jackson bean (de)serializers. Meant for
+ * plain beans using {@link MongoId} and {@link MongoObjectId}.
+ *
+ * Properties are discovered with Jackson, so names and visibility are the
+ * same as with {@link JacksonCodec}. Strings, numbers, booleans, dates and
+ * object ids are handled directly, values of other types (and values stored
+ * with an unexpected BSON type) are delegated to Jackson one property at a
+ * time. Classes using Jackson features this codec doesn't replicate
+ * (creators, custom (de)serializers, type info, mix-ins...) aren't
+ * supported, {@link #create(ObjectMapper, Class)} returns null for them.
+ *
+ * @see JacksonCodecProvider#JacksonCodecProvider(ObjectMapper, boolean)
+ */
+public final class SpecializedCodec<T> implements Codec<T> {
+
+    private static final Set<Class<?>> ALLOWED_ANNOTATIONS = new HashSet<>(Arrays.asList(JsonAutoDetect.class,
+            JsonIgnore.class, JsonIgnoreProperties.class, JsonProperty.class, JsonPropertyOrder.class));
+
+    /**
+     * Creates specialized codec for type.
+     *
+     * @param mapper
+     *            object mapper used to discover properties and to
+     *            (de)serialize values of non simple types
+     * @param type
+     *            POJO class
+     * @return codec or null if type isn't supported
+     */
+    public static <T> SpecializedCodec<T> create(ObjectMapper mapper, Class<T> type) {
+        try {
+            return supported(mapper, type) ? new SpecializedCodec<>(mapper, type) : null;
+        } catch (UnsupportedOperationException e) {
+            return null;
+        }
+    }
+
+    private static Annotation disallowedAnnotation(AnnotatedElement element) {
+        for (Annotation a : element.getAnnotations()) {
+            Class<? extends Annotation> t = a.annotationType();
+            if (t.isAnnotationPresent(JacksonAnnotation.class) && !ALLOWED_ANNOTATIONS.contains(t)) {
+                return a;
+            }
+        }
+        return null;
+    }
+
+    private static void checkAnnotations(BeanPropertyDefinition prop) {
+        for (AnnotatedMember m : Arrays.asList(prop.getField(), prop.getGetter(), prop.getSetter())) {
+            if (m != null && disallowedAnnotation((AnnotatedElement) m.getMember()) != null) {
+                throw new UnsupportedOperationException();
+            }
+        }
+    }
+
+    private static Kind kindOf(Class<?> c, boolean mongoObjectId) {
+        if (mongoObjectId) {
+            return c == ObjectId.class ? Kind.OBJECT_ID : Kind.HEX_OBJECT_ID;
+        } else if (c == String.class) {
+            return Kind.STRING;
+        } else if (c == int.class || c == Integer.class) {
+            return Kind.INT;
+        } else if (c == long.class || c == Long.class) {
+            return Kind.LONG;
+        } else if (c == double.class || c == Double.class) {
+            return Kind.DOUBLE;
+        } else if (c == boolean.class || c == Boolean.class) {
+            return Kind.BOOLEAN;
+        } else if (c == Date.class) {
+            return Kind.DATE;
+        } else if (c == ObjectId.class) {
+            return Kind.OBJECT_ID;
+        } else {
+            return Kind.OTHER;
+        }
+    }
+
+    private static RuntimeException propagate(Throwable t) {
+        if (t instanceof RuntimeException) {
+            return (RuntimeException) t;
+        }
+        if (t instanceof Error) {
+            throw (Error) t;
+        }
+        if (t instanceof IOException) {
+            return new UncheckedIOException((IOException) t);
+        }
+        return new UncheckedIOException(new JsonMappingException(null, t.getMessage(), t));
+    }
+
+    private static boolean supported(ObjectMapper mapper, Class<?> type) {
+        int mod = type.getModifiers();
+        if (type.isPrimitive() || type.isArray() || type.isEnum() || type.isInterface() || Modifier.isAbstract(mod)
+                || (type.isMemberClass() && !Modifier.isStatic(mod)) || Collection.class.isAssignableFrom(type)
+                || Map.class.isAssignableFrom(type) || type.getName().startsWith("java")) {
+            return false;
+        }
+        SerializationConfig sc = mapper.getSerializationConfig();
+        DeserializationConfig dc = mapper.getDeserializationConfig();
+        JavaType javaType = mapper.constructType(type);
+        if (sc.findMixInClassFor(type) != null || sc.getDefaultTyper(javaType) != null
+                || sc.isEnabled(SerializationFeature.WRAP_ROOT_VALUE)
+                || dc.isEnabled(DeserializationFeature.UNWRAP_ROOT_VALUE)
+                || sc.isEnabled(MapperFeature.REQUIRE_SETTERS_FOR_GETTERS)
+                || disallowedAnnotation(type) != null) {
+            return false;
+        }
+        JsonInclude.Include inclusion = sc.getDefaultPropertyInclusion(type).getValueInclusion();
+        return inclusion == JsonInclude.Include.ALWAYS || inclusion == JsonInclude.Include.USE_DEFAULTS;
+    }
+
+    private SpecializedCodec(ObjectMapper mapper, Class<T> type) {
+        this.mapper = mapper;
+        this.type = type;
+        this.fallback = new JacksonCodec<>(mapper, type);
+        MethodHandles.Lookup lookup = MethodHandles.lookup();
+
+        BeanDescription serDesc = mapper.getSerializationConfig().introspect(mapper.constructType(type));
+        BeanDescription deserDesc = mapper.getDeserializationConfig()
+                .introspect(mapper.constructType(type));
+        if (serDesc.findAnyGetter() != null || serDesc.findJsonValueMethod() != null
+                || serDesc.findSerializationConverter() != null || deserDesc.findAnySetter() != null
+                || deserDesc.findAnySetterField() != null || deserDesc.findDeserializationConverter() != null
+                || deserDesc.findPOJOBuilder() != null || deserDesc.findInjectables() != null) {
+            throw new UnsupportedOperationException();
+        }
+        JsonIgnoreProperties.Value ignorals = mapper.getDeserializationConfig().getAnnotationIntrospector()
+                .findPropertyIgnorals(deserDesc.getClassInfo());
+        Set<String> ignoredNames = ignorals != null ? ignorals.getIgnored() : Collections.emptySet();
+
+        // Instances
+        AnnotatedConstructor ctor = deserDesc.findDefaultConstructor();
+        if (ctor == null) {
+            throw new UnsupportedOperationException();
+        }
+        try {
+            ctor.fixAccess(true);
+            this.constructor = lookup.unreflectConstructor((Constructor<?>) ctor.getMember())
+                    .asType(MethodType.methodType(Object.class));
+        } catch (IllegalAccessException e) {
+            throw new UnsupportedOperationException(e);
+        }
+
+        // Serialization
+        List<Property> write = new ArrayList<>();
+        for (BeanPropertyDefinition prop : serDesc.findProperties()) {
+            AnnotatedMember accessor = prop.getAccessor();
+            if (accessor == null || !prop.couldSerialize() || ignoredNames.contains(prop.getName())) {
+                continue;
+            }
+            checkAnnotations(prop);
+            if (prop.findViews() != null || prop.findReferenceType() != null || prop.findObjectIdInfo() != null) {
+                throw new UnsupportedOperationException();
+            }
+            JavaType propType = accessor.getType();
+            boolean objectId = accessor.hasAnnotation(MongoObjectId.class);
+            Property p = new Property(prop.getName(), kindOf(propType.getRawClass(), objectId), objectId);
+            try {
+                accessor.fixAccess(true);
+                MethodHandle h = accessor instanceof AnnotatedMethod
+                        ? lookup.unreflect((Method) accessor.getMember())
+                        : lookup.unreflectGetter((Field) accessor.getMember());
+                p.getter = h.asType(MethodType.methodType(Object.class, Object.class));
+            } catch (IllegalAccessException e) {
+                throw new UnsupportedOperationException(e);
+            }
+            if (p.kind == Kind.OTHER) {
+                Class<?> raw = propType.getRawClass();
+                boolean staticType = raw.isPrimitive() || Modifier.isFinal(raw.getModifiers())
+                        || propType.isContainerType();
+                p.writer = staticType ? mapper.writerFor(propType) : mapper.writer();
+            }
+            write.add(p);
+        }
+        if (write.isEmpty()) {
+            throw new UnsupportedOperationException();
+        }
+        this.writeProperties = write.toArray(new Property[write.size()]);
+
+        // Deserialization
+        Map<String, Property> read = new HashMap<>();
+        for (BeanPropertyDefinition prop : deserDesc.findProperties()) {
+            AnnotatedMember mutator = prop.getNonConstructorMutator();
+            if (prop.hasConstructorParameter()) {
+                throw new UnsupportedOperationException();
+            }
+            if (mutator == null || !prop.couldDeserialize()) {
+                continue;
+            }
+            checkAnnotations(prop);
+            JavaType propType = mutator instanceof AnnotatedMethod
+                    ? ((AnnotatedMethod) mutator).getParameterType(0)
+                    : mutator.getType();
+            boolean objectId = mutator.hasAnnotation(MongoObjectId.class);
+            Property p = new Property(prop.getName(), kindOf(propType.getRawClass(), objectId), objectId);
+            try {
+                mutator.fixAccess(true);
+                MethodHandle h = mutator instanceof AnnotatedMethod
+                        ? lookup.unreflect((Method) mutator.getMember())
+                        : lookup.unreflectSetter((Field) mutator.getMember());
+                p.setter = h.asType(MethodType.methodType(void.class, Object.class, Object.class));
+            } catch (IllegalAccessException e) {
+                throw new UnsupportedOperationException(e);
+            }
+            p.primitive = propType.isPrimitive();
+            p.reader = objectId ? null : mapper.readerFor(propType);
+            read.put(p.name, p);
+        }
+        // Serialized properties which can't be read back are left to Jackson
+        for (Property p : writeProperties) {
+            if (!read.containsKey(p.name)) {
+                throw new UnsupportedOperationException();
+            }
+        }
+        this.readProperties = read;
+        this.ignored = new HashSet<>(deserDesc.getIgnoredPropertyNames());
+        this.ignored.addAll(ignoredNames);
+        this.ignoreUnknown = (ignorals != null && ignorals.getIgnoreUnknown())
+                || !mapper.isEnabled(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES);
+    }
+
+    @Override
+    public T decode(BsonReader reader, DecoderContext decoderContext) {
+        RongoMetrics metrics = Rongo.getMetrics();
+        if (metrics == null) {
+            return decodeDocument(reader);
+        }
+        int position = DecodedBytes.position(reader);
+        long start = System.nanoTime();
+        T result = decodeDocument(reader);
+        metrics.decode(type, System.nanoTime() - start);
+        DecodedBytes.record(type, reader, position);
+        return result;
+    }
+
+    @Override
+    public void encode(BsonWriter writer, T value, EncoderContext encoderContext) {
+        if (value.getClass() != type) {
+            // Fallback reports on its own
+            fallback.encode(writer, value, encoderContext);
+            return;
+        }
+        RongoMetrics metrics = Rongo.getMetrics();
+        if (metrics == null) {
+            encodeDocument(writer, value);
+        } else {
+            long start = System.nanoTime();
+            encodeDocument(writer, value);
+            metrics.encode(type, System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public Class<T> getEncoderClass() {
+        return type;
+    }
+
+    /**
+     * Returns inclusion projection of fields this codec reads.
+     *
+     * @return projection, or null if all fields may be needed
+     * @see JacksonCodec#getProjection()
+     */
+    public BsonDocument getProjection() {
+        return fallback.getProjection();
+    }
+
+    @SuppressWarnings("unchecked")
+    private T decodeDocument(BsonReader reader) {
+        Object result;
+        try {
+            result = (Object) constructor.invokeExact();
+        } catch (Throwable t) {
+            throw propagate(t);
+        }
+        reader.readStartDocument();
+        while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+            String name = reader.readName();
+            Property p = readProperties.get(name);
+            if (p != null) {
+                read(reader, p, result);
+            } else if (ignoreUnknown || ignored.contains(name)) {
+                reader.skipValue();
+            } else {
+                throw new UncheckedIOException(new JsonMappingException(null,
+                        "Unrecognized field \"" + name + "\" (class " + type.getName() + ")"));
+            }
+        }
+        reader.readEndDocument();
+        return (T) result;
+    }
+
+    private void encodeDocument(BsonWriter writer, T value) {
+        writer.writeStartDocument();
+        for (Property p : writeProperties) {
+            Object v;
+            try {
+                v = (Object) p.getter.invokeExact((Object) value);
+            } catch (Throwable t) {
+                throw propagate(t);
+            }
+            writer.writeName(p.name);
+            if (v == null) {
+                writer.writeNull();
+                continue;
+            }
+            switch (p.kind) {
+            case STRING:
+                writer.writeString((String) v);
+                break;
+            case INT:
+                writer.writeInt32((Integer) v);
+                break;
+            case LONG:
+                writer.writeInt64((Long) v);
+                break;
+            case DOUBLE:
+                writer.writeDouble((Double) v);
+                break;
+            case BOOLEAN:
+                writer.writeBoolean((Boolean) v);
+                break;
+            case DATE:
+                writer.writeDateTime(((Date) v).getTime());
+                break;
+            case OBJECT_ID:
+                writer.writeObjectId((ObjectId) v);
+                break;
+            case HEX_OBJECT_ID:
+                writer.writeObjectId(new ObjectId(v.toString()));
+                break;
+            default:
+                try (JsonGenerator generator = JacksonCodec.createGenerator(mapper, writer)) {
+                    p.writer.writeValue(generator, v);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+        }
+        writer.writeEndDocument();
+    }
+
+    private void read(BsonReader reader, Property p, Object bean) {
+        BsonType bsonType = reader.getCurrentBsonType();
+        Object v;
+        if (bsonType == BsonType.NULL && !p.primitive) {
+            reader.readNull();
+            v = null;
+        } else if (p.kind == Kind.STRING && bsonType == BsonType.STRING) {
+            v = reader.readString();
+        } else if (p.kind == Kind.INT && bsonType == BsonType.INT32) {
+            v = reader.readInt32();
+        } else if (p.kind == Kind.LONG && bsonType == BsonType.INT64) {
+            v = reader.readInt64();
+        } else if (p.kind == Kind.LONG && bsonType == BsonType.INT32) {
+            v = (long) reader.readInt32();
+        } else if (p.kind == Kind.DOUBLE && bsonType == BsonType.DOUBLE) {
+            v = reader.readDouble();
+        } else if (p.kind == Kind.BOOLEAN && bsonType == BsonType.BOOLEAN) {
+            v = reader.readBoolean();
+        } else if (p.kind == Kind.DATE && bsonType == BsonType.DATE_TIME) {
+            v = new Date(reader.readDateTime());
+        } else if (p.kind == Kind.OBJECT_ID && bsonType == BsonType.OBJECT_ID) {
+            v = reader.readObjectId();
+        } else if (p.kind == Kind.HEX_OBJECT_ID && bsonType == BsonType.OBJECT_ID) {
+            v = reader.readObjectId().toHexString();
+        } else {
+            // Anything else is up to Jackson
+            try (JsonParser parser = JacksonCodec.createParser(mapper, reader)) {
+                if (p.objectId) {
+                    parser.nextToken();
+                    v = ObjectIdDeserializer.read(parser, p.kind == Kind.OBJECT_ID);
+                } else {
+                    v = p.reader.readValue(parser);
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        try {
+            p.setter.invokeExact(bean, v);
+        } catch (Throwable t) {
+            throw propagate(t);
+        }
+    }
+
+    private enum Kind {
+        BOOLEAN, DATE, DOUBLE, HEX_OBJECT_ID, INT, LONG, OBJECT_ID, OTHER, STRING
+    }
+
+    private static final class Property {
+
+        Property(String name, Kind kind, boolean objectId) {
+            this.name = name;
+            this.kind = kind;
+            this.objectId = objectId;
+        }
+
+        MethodHandle getter;
+        final Kind kind;
+        final String name;
+        final boolean objectId;
+        boolean primitive;
+        ObjectReader reader;
+        MethodHandle setter;
+        ObjectWriter writer;
+    }
+
+    private final MethodHandle constructor;
+    private final JacksonCodec<T> fallback;
+    private final Set<String> ignored;
+    private final boolean ignoreUnknown;
+    private final ObjectMapper mapper;
+    private final Map<String, Property> readProperties;
+    private final Class<T> type;
+    private final Property[] writeProperties;
+}
@@ -0,0 +1,103 @@
+package com.nmote.rongo;
+
+import java.util.Objects;
+
+/**
+ * Options for {@link RongoFindIterable#tail(TailOptions)}.
+ */
+public class TailOptions {
+
+    public static final String DEFAULT_FIELD = "_id";
+
+    public static final long DEFAULT_MAX_RETRY_DELAY = 1000;
+
+    public static final long DEFAULT_RETRY_DELAY = 10;
+
+    /**
+     * Sets value of field after which tailing starts. Tailing starts from the
+     * beginning of collection by default.
+     *
+     * @param after
+     *            field value, encoded with collection codec registry
+     * @return this
+     */
+    public TailOptions after(Object after) {
+        this.after = after;
+        return this;
+    }
+
+    /**
+     * Sets field remembered to resume tailing after last seen document. Its
+     * values must increase in insertion order, as <code>_id</code> object ids
+     * do in a capped collection. Field <code>ts</code> enables oplog replay.
+     *
+     * @param field
+     *            field name, dotted for nested fields
+     * @return this
+     */
+    public TailOptions field(String field) {
+        Objects.requireNonNull(field);
+        this.field = field;
+        return this;
+    }
+
+    public Object getAfter() {
+        return after;
+    }
+
+    public String getField() {
+        return field;
+    }
+
+    public long getMaxRetryDelay() {
+        return maxRetryDelay;
+    }
+
+    public long getRetryDelay() {
+        return retryDelay;
+    }
+
+    /**
+     * Sets upper bound in milliseconds for delay doubled on each reopened
+     * cursor which returned nothing.
+     *
+     * @param maxRetryDelay
+     *            milliseconds
+     * @return this
+     */
+    public TailOptions maxRetryDelay(long maxRetryDelay) {
+        if (maxRetryDelay < 0) {
+            throw new IllegalArgumentException("maxRetryDelay < 0");
+        }
+        this.maxRetryDelay = maxRetryDelay;
+        return this;
+    }
+
+    /**
+     * Sets delay in milliseconds before reopening a cursor which died without
+     * returning a document, e.g. on an empty collection. Cursors which
+     * returned documents are reopened at once.
+     *
+     * @param retryDelay
+     *            milliseconds
+     * @return this
+     */
+    public TailOptions retryDelay(long retryDelay) {
+        if (retryDelay < 0) {
+            throw new IllegalArgumentException("retryDelay < 0");
+        }
+        this.retryDelay = retryDelay;
+        return this;
+    }
+
+    @Override
+    public String toString() {
+        return "TailOptions{field=" + field + ", after=" + after + ", retryDelay=" + retryDelay + ", maxRetryDelay="
+                + maxRetryDelay + "}";
+    }
+
+    private Object after;
+    private String field = DEFAULT_FIELD;
+    private long maxRetryDelay = DEFAULT_MAX_RETRY_DELAY;
+    private long retryDelay = DEFAULT_RETRY_DELAY;
+}
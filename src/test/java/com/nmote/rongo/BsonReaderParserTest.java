@@ -0,0 +1,227 @@
+package com.nmote.rongo;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+import org.bson.BsonArray;
+import org.bson.BsonBinary;
+import org.bson.BsonBinaryReader;
+import org.bson.BsonBinarySubType;
+import org.bson.BsonBinaryWriter;
+import org.bson.BsonBoolean;
+import org.bson.BsonDateTime;
+import org.bson.BsonDecimal128;
+import org.bson.BsonDocument;
+import org.bson.BsonDouble;
+import org.bson.BsonInt32;
+import org.bson.BsonInt64;
+import org.bson.BsonMaxKey;
+import org.bson.BsonMinKey;
+import org.bson.BsonNull;
+import org.bson.BsonObjectId;
+import org.bson.BsonRegularExpression;
+import org.bson.BsonString;
+import org.bson.BsonTimestamp;
+import org.bson.Document;
+import org.bson.codecs.BsonDocumentCodec;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.DocumentCodec;
+import org.bson.codecs.EncoderContext;
+import org.bson.io.BasicOutputBuffer;
+import org.bson.types.Binary;
+import org.bson.types.Decimal128;
+import org.bson.types.MaxKey;
+import org.bson.types.MinKey;
+import org.bson.types.ObjectId;
+import org.junit.Test;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonParser.NumberType;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import de.undercouch.bson4jackson.types.Timestamp;
+
+/**
+ * Compares {@link BsonReaderParser} with bson4jackson parser and
+ * {@link DocumentCodec} reading the same bytes.
+ */
+public class BsonReaderParserTest {
+
+    private static final ObjectMapper MAPPER = Rongo.createObjectMapper(null);
+
+    @Test
+    public void decimal128() throws IOException {
+        BsonDocument document = new BsonDocument("d", new BsonDecimal128(Decimal128.parse("-12.345E+6")));
+        byte[] bytes = encode(document);
+        JsonParser parser = parser(bytes);
+        parser.nextToken();
+        assertEquals(JsonToken.FIELD_NAME, parser.nextToken());
+        assertEquals(JsonToken.VALUE_NUMBER_FLOAT, parser.nextToken());
+        assertEquals(NumberType.BIG_DECIMAL, parser.getNumberType());
+        Decimal128 expected = (Decimal128) decode(bytes).get("d");
+        assertEquals(expected.bigDecimalValue(), parser.getDecimalValue());
+        assertEquals(JsonToken.END_OBJECT, parser.nextToken());
+    }
+
+    @Test
+    public void readsLikeDocumentCodec() throws IOException {
+        byte[] bytes = encode(document());
+        Map<?, ?> actual = MAPPER.readValue(parser(bytes), Map.class);
+        assertEquals(canonical(decode(bytes)), canonical(actual));
+    }
+
+    @Test
+    public void skipChildren() throws IOException {
+        byte[] bytes = encode(document());
+        int tokens = 0;
+        for (JsonParser p = parser(bytes); p.nextToken() != null;) {
+            ++tokens;
+        }
+        // Skip at every token, scalars and nested containers alike
+        for (int skipAt = 0; skipAt < tokens; ++skipAt) {
+            JsonParser expected = bson4jackson(bytes);
+            JsonParser actual = parser(bytes);
+            for (int i = 0; i <= skipAt; ++i) {
+                expected.nextToken();
+                actual.nextToken();
+            }
+            assertEquals(expected.skipChildren().getCurrentToken(), actual.skipChildren().getCurrentToken());
+            assertSameTokens(expected, actual);
+        }
+    }
+
+    @Test
+    public void tokensMatchBson4jackson() throws IOException {
+        byte[] bytes = encode(document());
+        JsonParser expected = bson4jackson(bytes);
+        JsonParser actual = parser(bytes);
+        expected.nextToken();
+        actual.nextToken();
+        assertSameTokens(expected, actual);
+    }
+
+    /**
+     * Document with every BSON type bson4jackson can read too.
+     */
+    static BsonDocument document() {
+        byte[] uuid = new byte[16];
+        for (int i = 0; i < uuid.length; ++i) {
+            uuid[i] = (byte) (i + 1);
+        }
+        BsonArray array = new BsonArray(Arrays.asList(new BsonInt32(1),
+                new BsonArray(Arrays.asList(new BsonString("x"), new BsonArray())),
+                new BsonDocument("y", new BsonInt64(2)), new BsonDocument()));
+        BsonDocument nested = new BsonDocument("a", new BsonDocument("b", BsonBoolean.TRUE))
+                .append("n", BsonNull.VALUE)
+                .append("list", new BsonArray(Arrays.asList(new BsonObjectId(new ObjectId()))));
+        return new BsonDocument("_id", new BsonObjectId(new ObjectId("55e65373e4b018aebdde9d2c")))
+                .append("binary", new BsonBinary(new byte[] { 1, 2, 3 }))
+                .append("uuid", new BsonBinary(BsonBinarySubType.UUID_LEGACY, uuid))
+                .append("date", new BsonDateTime(1234567890123L))
+                .append("timestamp", new BsonTimestamp(1234567890, 7))
+                .append("regex", new BsonRegularExpression("^a.*", "im"))
+                .append("min", new BsonMinKey())
+                .append("max", new BsonMaxKey())
+                .append("array", array)
+                .append("document", nested)
+                .append("string", new BsonString("text"))
+                .append("int", new BsonInt32(-1))
+                .append("long", new BsonInt64(1L << 40))
+                .append("double", new BsonDouble(1.5))
+                .append("false", BsonBoolean.FALSE);
+    }
+
+    static byte[] encode(BsonDocument document) {
+        BasicOutputBuffer buffer = new BasicOutputBuffer();
+        new BsonDocumentCodec().encode(new BsonBinaryWriter(buffer), document, EncoderContext.builder().build());
+        return buffer.toByteArray();
+    }
+
+    static JsonParser parser(byte[] bytes) {
+        return new BsonReaderParser(new BsonBinaryReader(ByteBuffer.wrap(bytes)), MAPPER);
+    }
+
+    private static void assertSameTokens(JsonParser expected, JsonParser actual) throws IOException {
+        for (JsonToken token = expected.getCurrentToken(); token != null; token = expected.nextToken()) {
+            assertEquals(token, actual.getCurrentToken());
+            if (token == JsonToken.FIELD_NAME) {
+                assertEquals(expected.getCurrentName(), actual.getCurrentName());
+            }
+            assertEquals(value(expected), value(actual));
+            actual.nextToken();
+        }
+        assertNull(actual.getCurrentToken());
+    }
+
+    private static JsonParser bson4jackson(byte[] bytes) throws IOException {
+        return MAPPER.getFactory().createParser(bytes);
+    }
+
+    /**
+     * Converts driver and bson4jackson representations of the same value to
+     * a common one.
+     */
+    private static Object canonical(Object value) {
+        if (value instanceof Map) {
+            Map<Object, Object> result = new LinkedHashMap<>();
+            for (Map.Entry<?, ?> e : ((Map<?, ?>) value).entrySet()) {
+                result.put(e.getKey(), canonical(e.getValue()));
+            }
+            return result;
+        } else if (value instanceof List) {
+            List<Object> result = new ArrayList<>();
+            for (Object v : (List<?>) value) {
+                result.add(canonical(v));
+            }
+            return result;
+        } else if (value instanceof Binary) {
+            return canonical(((Binary) value).getData());
+        } else if (value instanceof byte[]) {
+            return Arrays.toString((byte[]) value);
+        } else if (value instanceof BsonTimestamp) {
+            return ((BsonTimestamp) value).getTime() + ":" + ((BsonTimestamp) value).getInc();
+        } else if (value instanceof Timestamp) {
+            return ((Timestamp) value).getTime() + ":" + ((Timestamp) value).getInc();
+        } else if (value instanceof BsonRegularExpression) {
+            return "/" + ((BsonRegularExpression) value).getPattern() + "/" + ((BsonRegularExpression) value)
+                    .getOptions();
+        } else if (value instanceof Pattern) {
+            Pattern pattern = (Pattern) value;
+            return "/" + pattern.pattern() + "/" + ((pattern.flags() & Pattern.CASE_INSENSITIVE) != 0 ? "i" : "")
+                    + ((pattern.flags() & Pattern.MULTILINE) != 0 ? "m" : "");
+        } else if (value instanceof MinKey || value instanceof MaxKey) {
+            // bson4jackson reads them as strings
+            return value.getClass().getSimpleName();
+        }
+        return value;
+    }
+
+    private static Document decode(byte[] bytes) {
+        return new DocumentCodec().decode(new BsonBinaryReader(ByteBuffer.wrap(bytes)),
+                DecoderContext.builder().build());
+    }
+
+    private static Object value(JsonParser parser) throws IOException {
+        switch (parser.getCurrentToken()) {
+        case VALUE_EMBEDDED_OBJECT:
+            return canonical(parser.getEmbeddedObject());
+        case VALUE_NUMBER_INT:
+        case VALUE_NUMBER_FLOAT:
+            return parser.getNumberValue();
+        case VALUE_STRING:
+            return parser.getText();
+        default:
+            return parser.getCurrentToken().asString();
+        }
+    }
+}
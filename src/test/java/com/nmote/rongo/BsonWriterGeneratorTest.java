@@ -0,0 +1,131 @@
+package com.nmote.rongo;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.regex.Pattern;
+
+import org.bson.BsonBinaryReader;
+import org.bson.BsonBinaryWriter;
+import org.bson.BsonDecimal128;
+import org.bson.BsonDocument;
+import org.bson.BsonDouble;
+import org.bson.BsonString;
+import org.bson.Document;
+import org.bson.codecs.BsonDocumentCodec;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.DocumentCodec;
+import org.bson.codecs.EncoderContext;
+import org.bson.io.BasicOutputBuffer;
+import org.bson.types.Binary;
+import org.bson.types.Decimal128;
+import org.bson.types.MaxKey;
+import org.bson.types.MinKey;
+import org.bson.types.ObjectId;
+import org.junit.Test;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import de.undercouch.bson4jackson.types.Timestamp;
+
+/**
+ * Compares {@link BsonWriterGenerator} output with bson4jackson generator and
+ * {@link DocumentCodec} writing the same values.
+ */
+public class BsonWriterGeneratorTest {
+
+    private static final ObjectMapper MAPPER = Rongo.createObjectMapper(null);
+
+    @Test
+    public void roundTrip() throws IOException {
+        BsonDocument document = BsonReaderParserTest.document();
+        document.put("decimal", new BsonDecimal128(Decimal128.parse("2.5")));
+        BasicOutputBuffer buffer = new BasicOutputBuffer();
+        try (JsonParser parser = BsonReaderParserTest.parser(BsonReaderParserTest.encode(document));
+                JsonGenerator generator = JacksonCodec.createGenerator(MAPPER, new BsonBinaryWriter(buffer))) {
+            parser.nextToken();
+            generator.copyCurrentStructure(parser);
+        }
+        // Read as strings and written back as such, same as with bson4jackson
+        document.put("min", new BsonString("MinKey"));
+        document.put("max", new BsonString("MaxKey"));
+        // BigDecimal is written as double
+        document.put("decimal", new BsonDouble(2.5));
+        assertEquals(document, decode(buffer.toByteArray()));
+    }
+
+    @Test
+    public void writesLikeBson4jackson() throws IOException {
+        Map<String, Object> value = new LinkedHashMap<>();
+        value.put("_id", new ObjectId("55e65373e4b018aebdde9d2c"));
+        value.put("bytes", new byte[] { 1, 2, 3 });
+        value.put("binary", new Binary((byte) 0x80, new byte[] { 9 }));
+        value.put("uuid", new UUID(1, 2));
+        value.put("decimal", new BigDecimal("1.25"));
+        value.put("date", new Date(1234567890123L));
+        value.put("timestamp", new Timestamp(1234567890, 7));
+        value.put("regex", Pattern.compile("^a.*", Pattern.CASE_INSENSITIVE | Pattern.MULTILINE));
+        value.put("min", new MinKey());
+        value.put("max", new MaxKey());
+        value.put("array", Arrays.asList(1, Arrays.asList("x", Collections.emptyList()),
+                Collections.singletonMap("y", 2L), Collections.emptyMap()));
+        value.put("document", Collections.singletonMap("a", Collections.singletonMap("b", true)));
+        value.put("null", null);
+        value.put("string", "text");
+        value.put("double", 1.5);
+        assertArrayEquals(MAPPER.writeValueAsBytes(value), write(value));
+    }
+
+    @Test
+    public void writesLikeDocumentCodec() throws IOException {
+        Document document = new Document("_id", new ObjectId("55e65373e4b018aebdde9d2c"))
+                .append("bytes", new byte[] { 1, 2, 3 })
+                .append("binary", new Binary((byte) 0x80, new byte[] { 9 }))
+                .append("uuid", new UUID(1, 2))
+                .append("date", new Date(1234567890123L))
+                .append("regex", Pattern.compile("^a.*", Pattern.CASE_INSENSITIVE))
+                .append("min", new MinKey())
+                .append("max", new MaxKey())
+                .append("array", Arrays.asList(1, Arrays.asList("x", Collections.emptyList()),
+                        new Document("y", 2L), new Document()))
+                .append("document", new Document("a", new Document("b", true)))
+                .append("null", null)
+                .append("string", "text")
+                .append("int", -1)
+                .append("double", 1.5);
+        BasicOutputBuffer buffer = new BasicOutputBuffer();
+        new DocumentCodec().encode(new BsonBinaryWriter(buffer), document, EncoderContext.builder().build());
+        assertArrayEquals(buffer.toByteArray(), write(document));
+    }
+
+    @Test
+    public void writesTimestamp() throws IOException {
+        BsonDocument document = decode(write(Collections.singletonMap("ts", new Timestamp(1234567890, 7))));
+        assertEquals(1234567890, document.getTimestamp("ts").getTime());
+        assertEquals(7, document.getTimestamp("ts").getInc());
+    }
+
+    private static BsonDocument decode(byte[] bytes) {
+        return new BsonDocumentCodec().decode(new BsonBinaryReader(ByteBuffer.wrap(bytes)),
+                DecoderContext.builder().build());
+    }
+
+    private static byte[] write(Object value) throws IOException {
+        BasicOutputBuffer buffer = new BasicOutputBuffer();
+        try (JsonGenerator generator = JacksonCodec.createGenerator(MAPPER, new BsonBinaryWriter(buffer))) {
+            MAPPER.writeValue(generator, value);
+        }
+        return buffer.toByteArray();
+    }
+}
@@ -0,0 +1,335 @@
+package com.nmote.rongo;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.bson.BsonInt32;
+import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.BsonValueCodecProvider;
+import org.bson.codecs.DocumentCodec;
+import org.bson.codecs.DocumentCodecProvider;
+import org.bson.codecs.ValueCodecProvider;
+import org.bson.codecs.configuration.CodecRegistries;
+import org.bson.codecs.configuration.CodecRegistry;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.MongoNamespace;
+import com.mongodb.MongoWriteException;
+import com.mongodb.ServerAddress;
+import com.mongodb.async.SingleResultCallback;
+import com.mongodb.async.client.MongoCollection;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.bulk.BulkWriteResult;
+import com.mongodb.bulk.BulkWriteUpsert;
+import com.mongodb.bulk.WriteConcernError;
+import com.mongodb.client.model.InsertOneModel;
+import com.mongodb.client.model.UpdateOneModel;
+import com.mongodb.client.model.UpdateOptions;
+import com.mongodb.client.model.WriteModel;
+
+import reactor.core.publisher.Mono;
+
+/**
+ * Checks batching and per write results of {@link BulkWriter} over a
+ * collection recording bulk writes, completed by tests.
+ */
+public class BulkWriterTest {
+
+    private static final long NEVER = 60000;
+
+    private static final CodecRegistry REGISTRY = CodecRegistries.fromProviders(new BsonValueCodecProvider(),
+            new DocumentCodecProvider(), new ValueCodecProvider());
+
+    @Before
+    public void setUp() {
+        sent = Collections.synchronizedList(new ArrayList<>());
+    }
+
+    @Test
+    public void byteLimit() {
+        int size = new RawBsonDocument(document(0), new DocumentCodec()).getByteBuffer().remaining();
+        BulkWriter<Document> writer = writer(options().maxBatchBytes(size * 5 / 2));
+        for (int i = 0; i < 3; ++i) {
+            submit(writer.insertOne(document(i)));
+        }
+        // Third one would exceed the limit, so the first two are sent
+        assertEquals(1, sent.size());
+        assertEquals(2, sent.get(0).models.size());
+        assertEquals(1, writer.getPending());
+        // A single larger write is sent alone
+        writer = writer(options().maxBatchBytes(size / 2));
+        submit(writer.insertOne(document(3)));
+        assertEquals(2, sent.size());
+        assertEquals(1, sent.get(1).models.size());
+        assertEquals(0, writer.getPending());
+    }
+
+    @Test
+    public void countLimit() {
+        BulkWriter<Document> writer = writer(options().maxBatchSize(2).maxInFlight(10));
+        for (int i = 0; i < 5; ++i) {
+            submit(writer.insertOne(document(i)));
+        }
+        assertEquals(2, sent.size());
+        assertEquals(2, sent.get(0).models.size());
+        assertEquals(2, sent.get(1).models.size());
+        assertEquals(1, writer.getPending());
+    }
+
+    @Test
+    public void failedWriteFailsOnlyItselfWhenUnordered() {
+        BulkWriter<Document> writer = writer(options());
+        List<Item> items = submit(writer, 3);
+        writer.flush();
+        sent.get(0).fail(result(2), error(1), null);
+        assertEquals(1, sent.size());
+        assertEquals(0, items.get(0).result.getIndex());
+        assertTrue(items.get(1).error instanceof MongoWriteException);
+        assertEquals(2, items.get(2).result.getIndex());
+    }
+
+    @Test
+    public void latencyLimit() throws InterruptedException {
+        BulkWriter<Document> writer = writer(options().maxLatency(50));
+        submit(writer.insertOne(document(0)));
+        assertEquals(0, sent.size());
+        awaitSent(1);
+        assertEquals(0, writer.getPending());
+    }
+
+    @Test
+    public void maxInFlight() {
+        BulkWriter<Document> writer = writer(options().maxBatchSize(1).maxInFlight(2));
+        submit(writer, 3);
+        assertEquals(2, sent.size());
+        assertEquals(1, writer.getPending());
+        sent.get(1).succeed(result(1));
+        assertEquals(3, sent.size());
+        assertEquals(0, writer.getPending());
+    }
+
+    @Test
+    public void orderedSendsOneBatchAtATime() {
+        BulkWriter<Document> writer = writer(options().maxBatchSize(1).maxInFlight(4).ordered(true));
+        submit(writer, 2);
+        assertEquals(1, sent.size());
+        sent.get(0).succeed(result(1));
+        assertEquals(2, sent.size());
+    }
+
+    @Test
+    public void orderedWritesAfterFailureAreResent() {
+        BulkWriter<Document> writer = writer(options().ordered(true));
+        List<Item> items = submit(writer, 4);
+        writer.flush();
+        List<WriteModel<RawBsonDocument>> first = sent.get(0).models;
+        sent.get(0).fail(result(1), error(1), null);
+        assertEquals(0, items.get(0).result.getIndex());
+        assertTrue(items.get(1).error instanceof MongoWriteException);
+        assertNull(items.get(2).result);
+        assertNull(items.get(3).result);
+        // Writes following the failed one are sent again, in order
+        assertEquals(2, sent.size());
+        assertEquals(Arrays.asList(first.get(2), first.get(3)), sent.get(1).models);
+        sent.get(1).succeed(result(2, new BulkWriteUpsert(1, new BsonInt32(7))));
+        assertEquals(0, items.get(2).result.getIndex());
+        assertNull(items.get(2).result.getUpsertedId());
+        assertEquals(1, items.get(3).result.getIndex());
+        assertEquals(new BsonInt32(7), items.get(3).result.getUpsertedId());
+    }
+
+    @Test
+    public void perItemResults() {
+        BulkWriter<Document> writer = writer(options());
+        Mono<BulkItemResult<Document>> insert = writer.insertOne(document(0));
+        Mono<BulkItemResult<Document>> update = writer.updateOne(new Document("_id", 1),
+                new Document("$set", new Document("n", 2)));
+        Mono<BulkItemResult<Document>> delete = writer.deleteOne(new Document("_id", 2));
+        List<Item> items = Arrays.asList(submit(insert), submit(update), submit(delete));
+        assertEquals(0, sent.size());
+        writer.flush();
+        assertEquals(1, sent.size());
+        assertEquals(3, sent.get(0).models.size());
+        BulkWriteResult result = result(3);
+        sent.get(0).succeed(result);
+        for (int i = 0; i < items.size(); ++i) {
+            BulkItemResult<Document> r = items.get(i).result;
+            assertEquals(i, r.getIndex());
+            assertSame(result, r.getBatchResult());
+            assertNull(r.getUpsertedId());
+            assertNull(items.get(i).error);
+        }
+        assertTrue(items.get(0).result.getModel() instanceof InsertOneModel);
+        assertTrue(items.get(1).result.getModel() instanceof UpdateOneModel);
+    }
+
+    @Test
+    public void timerOfSentBatchDoesNotSendNextOne() throws InterruptedException {
+        BulkWriter<Document> writer = writer(options().maxBatchSize(2).maxLatency(300));
+        submit(writer.insertOne(document(0)));
+        Thread.sleep(150);
+        submit(writer.insertOne(document(1)));
+        assertEquals(1, sent.size());
+        submit(writer.insertOne(document(2)));
+        // Past latency of the first batch, but not of the current one
+        Thread.sleep(250);
+        assertEquals(1, sent.size());
+        assertEquals(1, writer.getPending());
+        awaitSent(2);
+    }
+
+    @Test
+    public void upsertIndexMapping() {
+        BulkWriter<Document> writer = writer(options());
+        List<Item> items = new ArrayList<>();
+        for (int i = 0; i < 3; ++i) {
+            items.add(submit(writer.write(new UpdateOneModel<>(new Document("_id", i),
+                    new Document("$set", new Document("n", i)), new UpdateOptions().upsert(true)))));
+        }
+        writer.flush();
+        sent.get(0).succeed(result(3, new BulkWriteUpsert(2, new BsonInt32(2)), new BulkWriteUpsert(0,
+                new BsonInt32(0))));
+        assertEquals(new BsonInt32(0), items.get(0).result.getUpsertedId());
+        assertNull(items.get(1).result.getUpsertedId());
+        assertEquals(new BsonInt32(2), items.get(2).result.getUpsertedId());
+    }
+
+    @Test
+    public void writeConcernErrorFailsAttemptedWrites() {
+        BulkWriter<Document> writer = writer(options());
+        List<Item> items = submit(writer, 2);
+        writer.flush();
+        MongoBulkWriteException e = sent.get(0).fail(result(2), Collections.emptyList(),
+                new WriteConcernError(64, "waiting for replication timed out", null));
+        assertSame(e, items.get(0).error);
+        assertSame(e, items.get(1).error);
+        assertEquals(1, sent.size());
+    }
+
+    @Test
+    public void writeConcernErrorResendsUnattemptedOrderedWrites() {
+        BulkWriter<Document> writer = writer(options().ordered(true));
+        List<Item> items = submit(writer, 3);
+        writer.flush();
+        MongoBulkWriteException e = sent.get(0).fail(result(0), error(0),
+                new WriteConcernError(64, "waiting for replication timed out", null));
+        assertTrue(items.get(0).error instanceof MongoWriteException);
+        assertNull(items.get(1).error);
+        assertNull(items.get(2).error);
+        assertEquals(2, sent.size());
+        sent.get(1).fail(result(2), Collections.emptyList(), e.getWriteConcernError());
+        assertTrue(items.get(1).error instanceof MongoBulkWriteException);
+        assertTrue(items.get(2).error instanceof MongoBulkWriteException);
+    }
+
+    private void awaitSent(int count) throws InterruptedException {
+        for (int i = 0; i < 200 && sent.size() < count; ++i) {
+            Thread.sleep(10);
+        }
+        assertEquals(count, sent.size());
+    }
+
+    /**
+     * Collection recording bulk writes.
+     */
+    @SuppressWarnings("unchecked")
+    private <T> MongoCollection<T> collection(Class<T> documentClass, CodecRegistry registry) {
+        return (MongoCollection<T>) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[] { MongoCollection.class }, (proxy, method, args) -> {
+                    switch (method.getName()) {
+                    case "getCodecRegistry":
+                        return registry;
+                    case "getDocumentClass":
+                        return documentClass;
+                    case "getNamespace":
+                        return new MongoNamespace("test.documents");
+                    case "withCodecRegistry":
+                        return collection(documentClass, (CodecRegistry) args[0]);
+                    case "withDocumentClass":
+                        return collection((Class<?>) args[0], registry);
+                    case "bulkWrite":
+                        sent.add(new Sent((List<WriteModel<RawBsonDocument>>) args[0],
+                                (SingleResultCallback<BulkWriteResult>) args[args.length - 1]));
+                        return null;
+                    default:
+                        throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+    }
+
+    private List<Item> submit(BulkWriter<Document> writer, int count) {
+        List<Item> result = new ArrayList<>();
+        for (int i = 0; i < count; ++i) {
+            result.add(submit(writer.insertOne(document(i))));
+        }
+        return result;
+    }
+
+    private BulkWriter<Document> writer(BulkWriterOptions options) {
+        return new BulkWriter<>(collection(Document.class, REGISTRY), options, null);
+    }
+
+    private static Document document(int id) {
+        return new Document("_id", id).append("name", "document");
+    }
+
+    private static List<BulkWriteError> error(int index) {
+        return Collections.singletonList(new BulkWriteError(11000, "duplicate key", null, index));
+    }
+
+    /**
+     * Options which batch writes until flushed or told otherwise.
+     */
+    private static BulkWriterOptions options() {
+        return new BulkWriterOptions().ordered(false).maxLatency(NEVER);
+    }
+
+    private static BulkWriteResult result(int count, BulkWriteUpsert... upserts) {
+        return BulkWriteResult.acknowledged(count, 0, 0, 0, Arrays.asList(upserts));
+    }
+
+    private static Item submit(Mono<BulkItemResult<Document>> write) {
+        Item item = new Item();
+        write.subscribe(r -> item.result = r, t -> item.error = t);
+        return item;
+    }
+
+    private static final class Item {
+        private Throwable error;
+        private BulkItemResult<Document> result;
+    }
+
+    private static final class Sent {
+
+        Sent(List<WriteModel<RawBsonDocument>> models, SingleResultCallback<BulkWriteResult> callback) {
+            this.models = models;
+            this.callback = callback;
+        }
+
+        MongoBulkWriteException fail(BulkWriteResult result, List<BulkWriteError> errors, WriteConcernError error) {
+            MongoBulkWriteException e = new MongoBulkWriteException(result, errors, error, new ServerAddress());
+            callback.onResult(null, e);
+            return e;
+        }
+
+        void succeed(BulkWriteResult result) {
+            callback.onResult(result, null);
+        }
+
+        private final SingleResultCallback<BulkWriteResult> callback;
+        private final List<WriteModel<RawBsonDocument>> models;
+    }
+
+    private List<Sent> sent;
+}
@@ -0,0 +1,350 @@
+package com.nmote.rongo;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.bson.BsonDocument;
+import org.bson.BsonInt32;
+import org.bson.BsonInt64;
+import org.bson.BsonObjectId;
+import org.bson.BsonString;
+import org.bson.BsonValue;
+import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.BsonValueCodecProvider;
+import org.bson.codecs.DocumentCodec;
+import org.bson.codecs.DocumentCodecProvider;
+import org.bson.codecs.ValueCodecProvider;
+import org.bson.codecs.configuration.CodecRegistries;
+import org.bson.codecs.configuration.CodecRegistry;
+import org.bson.conversions.Bson;
+import org.bson.types.ObjectId;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.mongodb.MongoNamespace;
+import com.mongodb.async.AsyncBatchCursor;
+import com.mongodb.async.SingleResultCallback;
+import com.mongodb.async.client.FindIterable;
+import com.mongodb.async.client.MongoCollection;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.UpdateOptions;
+import com.mongodb.client.result.UpdateResult;
+
+/**
+ * Checks writes {@link ChangeTracker} sends to a collection recording them.
+ */
+public class ChangeTrackerTest {
+
+    private static final CodecRegistry REGISTRY = CodecRegistries.fromProviders(new BsonValueCodecProvider(),
+            new DocumentCodecProvider(), new ValueCodecProvider());
+
+    @Before
+    public void setUp() {
+        finds = new ArrayList<>();
+        stored = new ArrayList<>();
+        writes = new ArrayList<>();
+        matched = 1;
+        collection = new RongoCollection<>(collection(Document.class, REGISTRY));
+    }
+
+    @Test
+    public void dollarFieldNameFallsBackToReplace() {
+        ChangeTracker<Document> tracker = collection.tracker();
+        Document document = tracker.track(document());
+        document.put("$comment", "x");
+        assertTrue(tracker.save(document).block());
+        Write write = single();
+        assertEquals("replaceOne", write.operation);
+        assertEquals(new BsonString("x"), write.body.get("$comment"));
+    }
+
+    @Test
+    public void dottedFieldNameFallsBackToReplace() {
+        ChangeTracker<Document> tracker = collection.tracker();
+        Document document = tracker.track(document().append("zip.code", "10000"));
+        document.put("zip.code", "21000");
+        assertTrue(tracker.save(document).block());
+        Write write = single();
+        assertEquals("replaceOne", write.operation);
+        assertEquals(new BsonString("21000"), write.body.get("zip.code"));
+    }
+
+    @Test
+    public void dottedNestedFieldNameSetsEmbeddedDocument() {
+        ChangeTracker<Document> tracker = collection.tracker();
+        Document address = new Document("street", "Ilica").append("zip.code", "10000");
+        Document document = tracker.track(document().append("address", address));
+        address.put("zip.code", "21000");
+        assertTrue(tracker.save(document).block());
+        Write write = single();
+        assertEquals("updateOne", write.operation);
+        BsonDocument set = new BsonDocument("street", new BsonString("Ilica")).append("zip.code",
+                new BsonString("21000"));
+        assertEquals(new BsonDocument("$set", new BsonDocument("address", set)), write.body);
+    }
+
+    @Test
+    public void findEncodesFilterWithCollectionCodecs() {
+        ObjectId owner = new ObjectId();
+        stored.add(new RawBsonDocument(document().append("owner", owner), new DocumentCodec()));
+        collection = new RongoCollection<>(collection(Document.class, REGISTRY), null, new SingleFlight());
+        ChangeTracker<Document> tracker = collection.tracker();
+        assertEquals(1, tracker.find(Filters.eq("name", "a")).collectList().block().size());
+        assertEquals(new BsonDocument("name", new BsonString("a")), finds.get(0));
+        assertEquals(1, tracker.find(Filters.eq("owner", owner)).collectList().block().size());
+        assertEquals(new BsonDocument("owner", new BsonObjectId(owner)), finds.get(1));
+        assertEquals(1, tracker.size());
+    }
+
+    @Test
+    public void findByIdTracks() {
+        stored.add(new RawBsonDocument(document(), new DocumentCodec()));
+        ChangeTracker<Document> tracker = collection.tracker();
+        Document document = tracker.findById(1).block();
+        assertEquals(new BsonDocument("_id", new BsonInt32(1)), finds.get(0));
+        document.put("name", "b");
+        assertTrue(tracker.save(document).block());
+        assertEquals(new BsonDocument("$set", new BsonDocument("name", new BsonString("b"))), single().body);
+    }
+
+    @Test
+    public void incrementsInt32Version() {
+        ChangeTracker<Document> tracker = collection.tracker("version");
+        Document document = tracker.track(document().append("version", 3));
+        document.put("name", "b");
+        assertTrue(tracker.save(document).block());
+        Write write = single();
+        assertEquals(new BsonInt32(3), write.filter.get("version"));
+        assertEquals(new BsonInt32(4), write.body.getDocument("$set").get("version"));
+        // Next save expects the incremented version
+        document.put("name", "c");
+        assertTrue(tracker.save(document).block());
+        assertEquals(new BsonInt32(4), writes.get(1).filter.get("version"));
+    }
+
+    @Test
+    public void incrementsInt64Version() {
+        ChangeTracker<Document> tracker = collection.tracker("version");
+        Document document = tracker.track(document().append("version", 1L << 40));
+        document.put("name", "b");
+        assertTrue(tracker.save(document).block());
+        Write write = single();
+        assertEquals(new BsonInt64(1L << 40), write.filter.get("version"));
+        assertEquals(new BsonInt64((1L << 40) + 1), write.body.getDocument("$set").get("version"));
+    }
+
+    @Test
+    public void largerUpdateFallsBackToReplace() {
+        ChangeTracker<Document> tracker = collection.tracker();
+        Document document = tracker.track(new Document("_id", 1).append("a", 1).append("b", 2));
+        document.append("a", 2).append("b", 3).append("c", 4);
+        assertTrue(tracker.save(document).block());
+        Write write = single();
+        assertEquals("replaceOne", write.operation);
+        assertEquals(new BsonInt32(4), write.body.get("c"));
+    }
+
+    @Test
+    public void nestedChangeSetsPath() {
+        ChangeTracker<Document> tracker = collection.tracker();
+        Document document = tracker.track(document());
+        document.get("address", Document.class).put("city", "Split");
+        assertTrue(tracker.save(document).block());
+        Write write = single();
+        assertEquals("updateOne", write.operation);
+        assertEquals(new BsonDocument("_id", new BsonInt32(1)), write.filter);
+        assertEquals(new BsonDocument("$set", new BsonDocument("address.city", new BsonString("Split"))), write.body);
+    }
+
+    @Test
+    public void removedNestedFieldIsUnset() {
+        ChangeTracker<Document> tracker = collection.tracker();
+        Document document = tracker.track(document());
+        document.get("address", Document.class).remove("street");
+        document.remove("name");
+        assertTrue(tracker.save(document).block());
+        Write write = single();
+        assertEquals("updateOne", write.operation);
+        BsonDocument unset = new BsonDocument("name", new BsonInt32(1)).append("address.street", new BsonInt32(1));
+        assertEquals(new BsonDocument("$unset", unset), write.body);
+    }
+
+    @Test
+    public void staleVersionReturnsFalse() {
+        ChangeTracker<Document> tracker = collection.tracker("version");
+        Document document = tracker.track(document().append("version", 3));
+        document.put("name", "b");
+        matched = 0;
+        assertFalse(tracker.save(document).block());
+        assertEquals(new BsonInt32(3), single().filter.get("version"));
+        // Snapshot stays at the version read
+        matched = 1;
+        assertTrue(tracker.save(document).block());
+        assertEquals(new BsonInt32(3), writes.get(1).filter.get("version"));
+    }
+
+    @Test
+    public void unchangedIsNotSent() {
+        ChangeTracker<Document> tracker = collection.tracker("version");
+        Document document = tracker.track(document().append("version", 3));
+        // Version is maintained by tracker, not a change by itself
+        document.put("version", 7);
+        assertTrue(tracker.save(document).block());
+        assertTrue(writes.isEmpty());
+    }
+
+    @Test
+    public void untrackedIsUpserted() {
+        ChangeTracker<Document> tracker = collection.tracker("version");
+        matched = 0;
+        assertTrue(tracker.save(document()).block());
+        Write write = single();
+        assertEquals("replaceOne", write.operation);
+        assertTrue(write.upsert);
+        assertEquals(new BsonDocument("_id", new BsonInt32(1)), write.filter);
+        assertEquals(1, tracker.size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void withoutIdFails() {
+        collection.tracker().track(new Document("name", "a"));
+    }
+
+    /**
+     * Collection finding {@link #stored} documents and recording updates and
+     * replacements, all of them matching {@link #matched} documents. Filters
+     * are encoded with collection registry, as driver does.
+     */
+    @SuppressWarnings("unchecked")
+    private <T> MongoCollection<T> collection(Class<T> documentClass, CodecRegistry registry) {
+        return (MongoCollection<T>) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[] { MongoCollection.class }, (proxy, method, args) -> {
+                    switch (method.getName()) {
+                    case "getCodecRegistry":
+                        return registry;
+                    case "getDocumentClass":
+                        return documentClass;
+                    case "getNamespace":
+                        return new MongoNamespace("test.documents");
+                    case "withCodecRegistry":
+                        return collection(documentClass, (CodecRegistry) args[0]);
+                    case "withDocumentClass":
+                        return collection((Class<?>) args[0], registry);
+                    case "find":
+                        if (args != null && args[0] instanceof Bson) {
+                            finds.add(((Bson) args[0]).toBsonDocument(documentClass, registry));
+                        }
+                        return findIterable();
+                    case "replaceOne":
+                    case "updateOne":
+                        Write write = new Write();
+                        write.operation = method.getName();
+                        write.filter = ((Bson) args[0]).toBsonDocument(BsonDocument.class, registry);
+                        write.body = ((Bson) args[1]).toBsonDocument(BsonDocument.class, registry);
+                        write.upsert = args.length == 4 && ((UpdateOptions) args[2]).isUpsert();
+                        writes.add(write);
+                        BsonValue upserted = write.upsert && matched == 0 ? write.filter.get("_id") : null;
+                        ((SingleResultCallback<UpdateResult>) args[args.length - 1])
+                                .onResult(UpdateResult.acknowledged(matched, (long) matched, upserted), null);
+                        return null;
+                    default:
+                        throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+    }
+
+    @SuppressWarnings("unchecked")
+    private FindIterable<RawBsonDocument> findIterable() {
+        return (FindIterable<RawBsonDocument>) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[] { FindIterable.class }, (proxy, method, args) -> {
+                    switch (method.getName()) {
+                    case "batchCursor":
+                        ((SingleResultCallback<AsyncBatchCursor<RawBsonDocument>>) args[0])
+                                .onResult(new StoredCursor(stored), null);
+                        return null;
+                    case "first":
+                        ((SingleResultCallback<RawBsonDocument>) args[0])
+                                .onResult(stored.isEmpty() ? null : stored.get(0), null);
+                        return null;
+                    default:
+                        if (method.getReturnType().isInstance(proxy)) {
+                            return proxy;
+                        }
+                        throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+    }
+
+    private Write single() {
+        assertEquals(1, writes.size());
+        return writes.get(0);
+    }
+
+    private static Document document() {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 10; ++i) {
+            text.append("Some longer text so changes are smaller than the document. ");
+        }
+        return new Document("_id", 1).append("name", "a")
+                .append("address", new Document("street", "Ilica").append("city", "Zagreb"))
+                .append("text", text.toString());
+    }
+
+    /**
+     * Cursor returning documents in a single batch.
+     */
+    private static final class StoredCursor implements AsyncBatchCursor<RawBsonDocument> {
+
+        StoredCursor(List<RawBsonDocument> documents) {
+            this.documents = documents;
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+        }
+
+        @Override
+        public int getBatchSize() {
+            return 0;
+        }
+
+        @Override
+        public boolean isClosed() {
+            return closed;
+        }
+
+        @Override
+        public void next(SingleResultCallback<List<RawBsonDocument>> callback) {
+            List<RawBsonDocument> batch = documents;
+            documents = null;
+            callback.onResult(batch, null);
+        }
+
+        @Override
+        public void setBatchSize(int batchSize) {
+        }
+
+        private boolean closed;
+        private List<RawBsonDocument> documents;
+    }
+
+    private static final class Write {
+        private BsonDocument body;
+        private BsonDocument filter;
+        private String operation;
+        private boolean upsert;
+    }
+
+    private RongoCollection<Document> collection;
+    private List<BsonDocument> finds;
+    private int matched;
+    private List<RawBsonDocument> stored;
+    private List<Write> writes;
+}
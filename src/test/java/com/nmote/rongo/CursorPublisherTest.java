@@ -0,0 +1,288 @@
+package com.nmote.rongo;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.ToIntFunction;
+
+import org.junit.Test;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import com.mongodb.async.AsyncBatchCursor;
+import com.mongodb.async.SingleResultCallback;
+
+/**
+ * Checks demand, batching and termination of {@link CursorPublisher} over an
+ * in-memory cursor.
+ */
+public class CursorPublisherTest {
+
+    @Test
+    public void cancelDuringNextClosesCursor() {
+        MemoryCursor cursor = new MemoryCursor(10).deferred();
+        RecordingSubscriber subscriber = subscribe(cursor, 4);
+        subscriber.subscription.request(1);
+        assertEquals(1, cursor.fetches);
+        subscriber.subscription.cancel();
+        assertTrue(cursor.closed);
+        // Late batch is dropped
+        cursor.respond();
+        assertTrue(subscriber.values.isEmpty());
+        assertFalse(subscriber.completed);
+        assertNull(subscriber.error);
+        assertEquals(1, cursor.fetches);
+    }
+
+    @Test
+    public void completeAfterPartialBatch() {
+        MemoryCursor cursor = new MemoryCursor(6);
+        RecordingSubscriber subscriber = subscribe(cursor, 4);
+        subscriber.subscription.request(10);
+        assertEquals(6, subscriber.values.size());
+        assertTrue(subscriber.completed);
+        assertNull(subscriber.error);
+        assertTrue(cursor.closed);
+    }
+
+    @Test
+    public void completeWaitsForDemand() {
+        MemoryCursor cursor = new MemoryCursor(4);
+        RecordingSubscriber subscriber = subscribe(cursor, 4);
+        subscriber.subscription.request(4);
+        assertEquals(4, subscriber.values.size());
+        // End of cursor isn't known until asked for more
+        assertFalse(subscriber.completed);
+        subscriber.subscription.request(1);
+        assertTrue(subscriber.completed);
+        assertTrue(cursor.closed);
+    }
+
+    @Test
+    public void errorAfterPartialBatch() {
+        IllegalStateException failure = new IllegalStateException();
+        MemoryCursor cursor = new MemoryCursor(6).failing(failure);
+        RecordingSubscriber subscriber = subscribe(cursor, 4);
+        subscriber.subscription.request(5);
+        assertEquals(5, subscriber.values.size());
+        assertNull(subscriber.error);
+        subscriber.subscription.request(5);
+        assertEquals(6, subscriber.values.size());
+        assertSame(failure, subscriber.error);
+        assertFalse(subscriber.completed);
+        assertTrue(cursor.closed);
+    }
+
+    @Test
+    public void holdsAtMostOneBatch() {
+        MemoryCursor cursor = new MemoryCursor(20);
+        RecordingSubscriber subscriber = subscribe(cursor, 4);
+        for (int i = 1; i <= 8; ++i) {
+            subscriber.subscription.request(1);
+            assertEquals(i, subscriber.values.size());
+            // Next batch only once the held one is used up
+            assertEquals((i + 3) / 4, cursor.fetches);
+            assertEquals(4, cursor.batchSize);
+        }
+    }
+
+    @Test
+    public void maxBatchBytesLimitsMeasuredDocuments() throws InterruptedException {
+        assertEquals(10, secondBatchSize(d -> 100));
+    }
+
+    @Test
+    public void maxBatchBytesNeedsSizer() throws InterruptedException {
+        assertEquals(1000, secondBatchSize(d -> -1));
+    }
+
+    @Test
+    public void noFetchWithoutDemand() {
+        MemoryCursor cursor = new MemoryCursor(20);
+        RecordingSubscriber subscriber = subscribe(cursor, 4);
+        assertEquals(0, cursor.fetches);
+        subscriber.subscription.request(4);
+        assertEquals(4, subscriber.values.size());
+        assertEquals(1, cursor.fetches);
+        subscriber.subscription.request(2);
+        assertEquals(2, cursor.fetches);
+        assertEquals(6, subscriber.values.size());
+        assertFalse(cursor.closed);
+    }
+
+    @Test
+    public void requestOneAtATime() {
+        MemoryCursor cursor = new MemoryCursor(7);
+        RecordingSubscriber subscriber = subscribe(cursor, 3);
+        for (int i = 1; i <= 7; ++i) {
+            subscriber.subscription.request(1);
+            assertEquals(i, subscriber.values.size());
+            assertEquals(Integer.valueOf(i - 1), subscriber.values.get(i - 1));
+        }
+        assertFalse(subscriber.completed);
+        subscriber.subscription.request(1);
+        assertTrue(subscriber.completed);
+        assertEquals(7, subscriber.values.size());
+    }
+
+    @Test
+    public void requestN() {
+        MemoryCursor cursor = new MemoryCursor(100).deferred();
+        RecordingSubscriber subscriber = subscribe(cursor, 10);
+        subscriber.subscription.request(3);
+        subscriber.subscription.request(4);
+        cursor.respond();
+        assertEquals(7, subscriber.values.size());
+        subscriber.subscription.request(5);
+        assertEquals(10, subscriber.values.size());
+        assertEquals(2, cursor.fetches);
+        cursor.respond();
+        assertEquals(12, subscriber.values.size());
+        assertFalse(subscriber.completed);
+    }
+
+    @Test
+    public void secondSubscriberCompletes() {
+        CursorPublisher<Integer> publisher = new CursorPublisher<>(new MemoryCursor(1));
+        publisher.subscribe(new RecordingSubscriber());
+        RecordingSubscriber second = new RecordingSubscriber();
+        publisher.subscribe(second);
+        assertTrue(second.completed);
+    }
+
+    /**
+     * Returns size of batch fetched after a first one which took long enough
+     * for consumer rate not to limit the next one.
+     */
+    private static int secondBatchSize(ToIntFunction<Object> sizer) throws InterruptedException {
+        MemoryCursor cursor = new MemoryCursor(10000).deferred();
+        PrefetchPolicy policy = new PrefetchPolicy().setHighWatermark(1000).setMaxBatchSize(1000).setMinBatchSize(1)
+                .setMaxBatchBytes(1000).setDocumentSizer(sizer);
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+        new CursorPublisher<>(cursor, policy).subscribe(subscriber);
+        subscriber.subscription.request(500);
+        assertEquals(500, cursor.batchSize);
+        Thread.sleep(20);
+        cursor.respond();
+        subscriber.subscription.request(1);
+        assertEquals(2, cursor.fetches);
+        return cursor.batchSize;
+    }
+
+    private static RecordingSubscriber subscribe(MemoryCursor cursor, int batchSize) {
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+        new CursorPublisher<>(cursor, PrefetchPolicy.fixed(batchSize)).subscribe(subscriber);
+        return subscriber;
+    }
+
+    /**
+     * Cursor over integers 0 to size - 1, answering synchronously or when
+     * told to.
+     */
+    private static final class MemoryCursor implements AsyncBatchCursor<Integer> {
+
+        MemoryCursor(int size) {
+            this.size = size;
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+        }
+
+        @Override
+        public int getBatchSize() {
+            return batchSize;
+        }
+
+        @Override
+        public boolean isClosed() {
+            return closed;
+        }
+
+        @Override
+        public void next(SingleResultCallback<List<Integer>> callback) {
+            ++fetches;
+            if (deferred) {
+                pending = callback;
+            } else {
+                respond(callback);
+            }
+        }
+
+        @Override
+        public void setBatchSize(int batchSize) {
+            this.batchSize = batchSize;
+        }
+
+        MemoryCursor deferred() {
+            deferred = true;
+            return this;
+        }
+
+        MemoryCursor failing(Throwable error) {
+            this.error = error;
+            return this;
+        }
+
+        void respond() {
+            SingleResultCallback<List<Integer>> callback = pending;
+            pending = null;
+            respond(callback);
+        }
+
+        private void respond(SingleResultCallback<List<Integer>> callback) {
+            if (position == size) {
+                callback.onResult(null, error);
+            } else {
+                List<Integer> batch = new ArrayList<>();
+                while (position < size && batch.size() < batchSize) {
+                    batch.add(position++);
+                }
+                callback.onResult(batch, null);
+            }
+        }
+
+        private int batchSize;
+        private boolean closed;
+        private boolean deferred;
+        private Throwable error;
+        private int fetches;
+        private SingleResultCallback<List<Integer>> pending;
+        private int position;
+        private final int size;
+    }
+
+    private static final class RecordingSubscriber implements Subscriber<Integer> {
+
+        @Override
+        public void onComplete() {
+            completed = true;
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            error = t;
+        }
+
+        @Override
+        public void onNext(Integer value) {
+            values.add(value);
+        }
+
+        @Override
+        public void onSubscribe(Subscription s) {
+            subscription = s;
+        }
+
+        private boolean completed;
+        private Throwable error;
+        private Subscription subscription;
+        private final List<Integer> values = new ArrayList<>();
+    }
+}
@@ -0,0 +1,208 @@
+package com.nmote.rongo;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.bson.BsonDocument;
+import org.bson.BsonInt32;
+import org.bson.BsonValue;
+import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.BsonValueCodecProvider;
+import org.bson.codecs.DocumentCodec;
+import org.bson.codecs.DocumentCodecProvider;
+import org.bson.codecs.ValueCodecProvider;
+import org.bson.codecs.configuration.CodecRegistries;
+import org.bson.codecs.configuration.CodecRegistry;
+import org.junit.Test;
+
+import com.mongodb.MongoNamespace;
+import com.mongodb.async.SingleResultCallback;
+import com.mongodb.async.client.FindIterable;
+import com.mongodb.async.client.MongoCollection;
+import com.mongodb.client.model.InsertOneModel;
+import com.mongodb.client.result.UpdateResult;
+
+/**
+ * Checks invalidation, expiry and eviction of {@link EntityCache} entries.
+ */
+public class EntityCacheTest {
+
+    private static final CodecRegistry REGISTRY = CodecRegistries.fromProviders(new BsonValueCodecProvider(),
+            new DocumentCodecProvider(), new ValueCodecProvider());
+
+    @Test
+    public void evictsLeastRecentlyUsed() {
+        EntityCache cache = new EntityCache().setMaximumSize(2);
+        put(cache, 1);
+        put(cache, 2);
+        assertNotNull(cache.get(id(1), Document.class));
+        put(cache, 3);
+        assertEquals(2, cache.size());
+        assertNull(cache.get(id(2), Document.class));
+        assertNotNull(cache.get(id(1), Document.class));
+        assertNotNull(cache.get(id(3), Document.class));
+        assertEquals(1, cache.getEvictionCount());
+    }
+
+    @Test
+    public void expiresMissingDocuments() throws InterruptedException {
+        EntityCache cache = new EntityCache().setNegativeTtl(50);
+        cache.put(id(1), null, cache.stamp());
+        EntityCache.Cached entry = cache.get(id(1), Document.class);
+        assertNotNull(entry);
+        assertNull(entry.document);
+        Thread.sleep(100);
+        assertNull(cache.get(id(1), Document.class));
+        assertEquals(1, cache.getEvictionCount());
+        // Zero doesn't cache missing documents at all
+        cache.setNegativeTtl(0);
+        cache.put(id(1), null, cache.stamp());
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void insertDropsMissingDocuments() {
+        EntityCache cache = new EntityCache();
+        put(cache, 1);
+        cache.put(id(2), null, cache.stamp());
+        cache.invalidate(new InsertOneModel<>(new Document("_id", 2)), Document.class, REGISTRY);
+        assertNotNull(cache.get(id(1), Document.class));
+        assertNull(cache.get(id(2), Document.class));
+    }
+
+    @Test
+    public void invalidatesIdsPinnedByFilter() {
+        assertInvalidated("{ _id: 1, version: 3 }", 1);
+        assertInvalidated("{ _id: { $eq: 2 } }", 2);
+        assertInvalidated("{ _id: { $in: [1, 3] } }", 1, 3);
+        assertInvalidated("{ $and: [{ name: 'a' }, { _id: { $in: [2] } }] }", 2);
+        assertInvalidated("{ $and: [{ name: 'a' }, { _id: { $eq: 3 } }] }", 3);
+    }
+
+    @Test
+    public void invalidatesAllForOtherFilters() {
+        assertInvalidated("{ name: 'a' }", 1, 2, 3);
+        assertInvalidated("{ _id: { $gt: 1 } }", 1, 2, 3);
+        assertInvalidated("{ _id: { $eq: 1, $ne: 2 } }", 1, 2, 3);
+        assertInvalidated("{ $or: [{ _id: 1 }, { _id: 2 }] }", 1, 2, 3);
+        assertInvalidated("{ $and: [{ name: 'a' }] }", 1, 2, 3);
+    }
+
+    @Test
+    public void readBeforeInvalidationIsNotCached() {
+        EntityCache cache = new EntityCache();
+        long stamp = cache.stamp();
+        cache.invalidate(id(2));
+        cache.put(id(1), raw(1), stamp);
+        assertEquals(0, cache.size());
+        cache.put(id(1), raw(1), cache.stamp());
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    public void readDuringWriteIsNotCached() {
+        EntityCache cache = new EntityCache();
+        RongoCollection<Document> collection = new RongoCollection<>(collection(Document.class, REGISTRY), cache);
+        List<Document> found = new ArrayList<>();
+        collection.findById(1).subscribe(found::add);
+        assertEquals(1, pending.size());
+        // Write completes while the read is in flight
+        collection.updateOne(new BsonDocument("_id", id(1)), Document.parse("{ $set: { name: 'b' } }")).subscribe();
+        pending.remove(0).onResult(raw(1), null);
+        assertEquals(1, found.size());
+        assertEquals(0, cache.size());
+        // Next read isn't preceded by a write
+        collection.findById(1).subscribe(found::add);
+        pending.remove(0).onResult(raw(1), null);
+        assertEquals(2, found.size());
+        assertEquals(1, cache.size());
+        collection.findById(1).subscribe(found::add);
+        assertEquals(3, found.size());
+        assertEquals(0, pending.size());
+        assertEquals(1, cache.getHitCount());
+    }
+
+    /**
+     * Collection answering updates at once and finds when told to, through
+     * {@link #pending} callbacks.
+     */
+    @SuppressWarnings("unchecked")
+    private <T> MongoCollection<T> collection(Class<T> documentClass, CodecRegistry registry) {
+        return (MongoCollection<T>) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[] { MongoCollection.class }, (proxy, method, args) -> {
+                    switch (method.getName()) {
+                    case "getCodecRegistry":
+                        return registry;
+                    case "getDocumentClass":
+                        return documentClass;
+                    case "getNamespace":
+                        return new MongoNamespace("test.documents");
+                    case "withCodecRegistry":
+                        return collection(documentClass, (CodecRegistry) args[0]);
+                    case "withDocumentClass":
+                        return collection((Class<?>) args[0], registry);
+                    case "find":
+                        return findIterable();
+                    case "updateOne":
+                        ((SingleResultCallback<UpdateResult>) args[args.length - 1])
+                                .onResult(UpdateResult.acknowledged(1, 1L, null), null);
+                        return null;
+                    default:
+                        throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+    }
+
+    @SuppressWarnings("unchecked")
+    private FindIterable<RawBsonDocument> findIterable() {
+        return (FindIterable<RawBsonDocument>) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[] { FindIterable.class }, (proxy, method, args) -> {
+                    if (method.getName().equals("first")) {
+                        pending.add((SingleResultCallback<RawBsonDocument>) args[0]);
+                        return null;
+                    } else if (method.getReturnType().isInstance(proxy)) {
+                        return proxy;
+                    }
+                    throw new UnsupportedOperationException(method.getName());
+                });
+    }
+
+    private static void assertInvalidated(String filter, int... ids) {
+        EntityCache cache = new EntityCache();
+        for (int i = 1; i <= 3; ++i) {
+            put(cache, i);
+        }
+        cache.invalidate(BsonDocument.parse(filter), Document.class, REGISTRY);
+        List<Integer> invalidated = new ArrayList<>();
+        for (int i = 1; i <= 3; ++i) {
+            if (cache.get(id(i), Document.class) == null) {
+                invalidated.add(i);
+            }
+        }
+        List<Integer> expected = new ArrayList<>();
+        for (int id : ids) {
+            expected.add(id);
+        }
+        assertEquals(filter, expected, invalidated);
+    }
+
+    private static BsonValue id(int id) {
+        return new BsonInt32(id);
+    }
+
+    private static void put(EntityCache cache, int id) {
+        cache.put(id(id), raw(id), cache.stamp());
+    }
+
+    private static RawBsonDocument raw(int id) {
+        return new RawBsonDocument(new Document("_id", id).append("name", "a"), new DocumentCodec());
+    }
+
+    private final List<SingleResultCallback<RawBsonDocument>> pending = new ArrayList<>();
+}
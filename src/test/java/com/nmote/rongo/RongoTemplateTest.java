@@ -0,0 +1,92 @@
+package com.nmote.rongo;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertSame;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.bson.BsonBinaryWriter;
+import org.bson.BsonDocument;
+import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.BsonValueCodecProvider;
+import org.bson.codecs.DocumentCodec;
+import org.bson.codecs.DocumentCodecProvider;
+import org.bson.codecs.EncoderContext;
+import org.bson.codecs.IterableCodecProvider;
+import org.bson.codecs.ValueCodecProvider;
+import org.bson.codecs.configuration.CodecRegistries;
+import org.bson.codecs.configuration.CodecRegistry;
+import org.bson.conversions.Bson;
+import org.bson.io.BasicOutputBuffer;
+import org.bson.types.ObjectId;
+import org.junit.Test;
+
+/**
+ * Compares bytes of bound {@link RongoTemplate}s, with constant elements
+ * spliced into writer buffer, with {@link DocumentCodec} encoding the same
+ * document.
+ */
+public class RongoTemplateTest {
+
+    private static final CodecRegistry REGISTRY = CodecRegistries.fromProviders(new ValueCodecProvider(),
+            new BsonValueCodecProvider(), new DocumentCodecProvider(), new IterableCodecProvider());
+
+    @Test
+    public void array() {
+        RongoTemplate template = RongoTemplate.compile("{ tags: { $in: [':1', 'x', ':2'] }, n: [1, [2, 3]] }");
+        assertBytes("{ tags: { $in: ['a', 'x', 'b'] }, n: [1, [2, 3]] }", template.bind("a", "b"));
+    }
+
+    @Test
+    public void constant() {
+        RongoTemplate template = RongoTemplate.compile("{ a: 1, b: 'x', c: { d: [true, null, 2.5] } }");
+        Bson bound = template.bind();
+        assertSame(bound, template.bind());
+        assertBytes("{ a: 1, b: 'x', c: { d: [true, null, 2.5] } }", bound);
+    }
+
+    @Test
+    public void named() {
+        ObjectId owner = new ObjectId("55e65373e4b018aebdde9d2c");
+        Map<String, Object> parameters = new LinkedHashMap<>();
+        parameters.put("owner", owner);
+        parameters.put("limit", 5L);
+        RongoTemplate template = RongoTemplate.compile("{ before: 1, owner: ':owner', size: { $lt: ':limit' } }");
+        assertBytes("{ before: 1, owner: { $oid: '55e65373e4b018aebdde9d2c' }, size: { $lt: { $numberLong: '5' } } }",
+                template.bind(parameters));
+    }
+
+    @Test
+    public void nested() {
+        RongoTemplate template = RongoTemplate.compile(
+                "{ a: 'x', b: { c: { d: ':1', e: 2 }, f: 'y' }, g: { h: ':2' }, i: 3 }");
+        Map<String, Object> value = Collections.singletonMap("k", Arrays.asList(1, "v"));
+        assertBytes("{ a: 'x', b: { c: { d: null, e: 2 }, f: 'y' }, g: { h: { k: [1, 'v'] } }, i: 3 }",
+                template.bind(null, value));
+    }
+
+    @Test
+    public void positional() {
+        RongoTemplate template = RongoTemplate.compile("{ a: ':2', b: true, c: ':1', d: 'z' }");
+        assertBytes("{ a: 'two', b: true, c: 1, d: 'z' }", template.bind(1, "two"));
+    }
+
+    private static void assertBytes(String expected, Bson actual) {
+        BasicOutputBuffer out = new BasicOutputBuffer();
+        new DocumentCodec().encode(new BsonBinaryWriter(out), Document.parse(expected),
+                EncoderContext.builder().build());
+        assertArrayEquals(out.toByteArray(), bytes(actual.toBsonDocument(Document.class, REGISTRY)));
+    }
+
+    private static byte[] bytes(BsonDocument document) {
+        ByteBuffer buffer = ((RawBsonDocument) document).getByteBuffer().asNIO();
+        byte[] result = new byte[buffer.remaining()];
+        buffer.get(result);
+        return result;
+    }
+}
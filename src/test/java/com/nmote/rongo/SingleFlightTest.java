@@ -0,0 +1,179 @@
+package com.nmote.rongo;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import reactor.core.Cancellation;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.MonoSink;
+
+/**
+ * Checks sharing and cancellation of reads coalesced by {@link SingleFlight}.
+ */
+public class SingleFlightTest {
+
+    @Test
+    public void coalescesReadsInFlight() {
+        Source first = new Source();
+        Source second = new Source();
+        Result a = subscribe(flight.execute("key", first.mono));
+        Result b = subscribe(flight.execute("key", second.mono));
+        assertEquals(1, first.subscriptions);
+        assertEquals(0, second.subscriptions);
+        assertEquals(1, flight.getInFlight());
+        assertEquals(1, flight.getCoalescedCount());
+        first.sink.success("value");
+        assertEquals("value", a.value);
+        assertEquals("value", b.value);
+        assertEquals(0, flight.getInFlight());
+        // Completed read isn't shared any more
+        subscribe(flight.execute("key", second.mono));
+        assertEquals(1, second.subscriptions);
+    }
+
+    @Test
+    public void joinRacingCompletionStartsNewFlight() throws InterruptedException {
+        Source first = new Source();
+        Source second = new Source();
+        RacingKey key = new RacingKey();
+        Result a = subscribe(flight.execute(key, first.mono));
+        Thread completing = new Thread(() -> first.sink.success("first"));
+        key.blocked = completing;
+        completing.start();
+        // First flight is done, but still registered
+        assertTrue(key.entered.await(5, TimeUnit.SECONDS));
+        Result b = new Result();
+        Thread joining = new Thread(() -> {
+            key.joining = Thread.currentThread();
+            flight.execute(key, second.mono).subscribe(v -> b.value = v, t -> b.error = t);
+        });
+        joining.start();
+        for (int i = 0; i < 500 && key.joins.get() < 2; ++i) {
+            Thread.sleep(10);
+        }
+        assertTrue("join didn't retry", key.joins.get() >= 2);
+        key.released.countDown();
+        completing.join(5000);
+        joining.join(5000);
+        assertEquals("first", a.value);
+        assertNull(b.value);
+        assertEquals(1, second.subscriptions);
+        second.sink.success("second");
+        assertEquals("second", b.value);
+    }
+
+    @Test
+    public void lastLeaveDisposesUpstream() {
+        Source source = new Source();
+        Result a = subscribe(flight.execute("key", source.mono));
+        Result b = subscribe(flight.execute("key", source.mono));
+        a.cancellation.dispose();
+        assertEquals(0, source.cancellations);
+        b.cancellation.dispose();
+        assertEquals(1, source.cancellations);
+        assertEquals(0, flight.getInFlight());
+        // Next read starts over
+        subscribe(flight.execute("key", source.mono));
+        assertEquals(2, source.subscriptions);
+    }
+
+    @Test
+    public void partialLeaveKeepsFlight() {
+        Source source = new Source();
+        Result a = subscribe(flight.execute("key", source.mono));
+        Result b = subscribe(flight.execute("key", source.mono));
+        a.cancellation.dispose();
+        assertEquals(1, flight.getInFlight());
+        source.sink.success("value");
+        assertEquals(0, source.cancellations);
+        assertNull(a.value);
+        assertEquals("value", b.value);
+    }
+
+    @Test
+    public void sharesError() {
+        Source source = new Source();
+        Result a = subscribe(flight.execute("key", source.mono));
+        Result b = subscribe(flight.execute("key", source.mono));
+        IllegalStateException failure = new IllegalStateException();
+        source.sink.error(failure);
+        assertEquals(failure, a.error);
+        assertEquals(failure, b.error);
+        assertEquals(0, flight.getInFlight());
+    }
+
+    private static Result subscribe(Mono<String> mono) {
+        Result result = new Result();
+        result.cancellation = mono.subscribe(v -> result.value = v, t -> result.error = t);
+        return result;
+    }
+
+    /**
+     * Key blocking a thread completing its flight while it removes the
+     * flight, and counting lookups by a joining thread.
+     */
+    private static final class RacingKey {
+
+        @Override
+        public boolean equals(Object obj) {
+            return obj == this;
+        }
+
+        @Override
+        public int hashCode() {
+            Thread current = Thread.currentThread();
+            if (current == blocked) {
+                blocked = null;
+                entered.countDown();
+                try {
+                    released.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    current.interrupt();
+                }
+            } else if (current == joining) {
+                joins.incrementAndGet();
+            }
+            return 1;
+        }
+
+        private volatile Thread blocked;
+        private final CountDownLatch entered = new CountDownLatch(1);
+        private volatile Thread joining;
+        private final AtomicInteger joins = new AtomicInteger();
+        private final CountDownLatch released = new CountDownLatch(1);
+    }
+
+    private static final class Result {
+        private Cancellation cancellation;
+        private volatile Throwable error;
+        private volatile String value;
+    }
+
+    /**
+     * Read completed by test, counting subscriptions and cancellations.
+     */
+    private static final class Source {
+
+        Source() {
+            this.mono = Mono.create(s -> {
+                ++subscriptions;
+                sink = s;
+                s.setCancellation(() -> ++cancellations);
+            });
+        }
+
+        private int cancellations;
+        private final Mono<String> mono;
+        private volatile MonoSink<String> sink;
+        private volatile int subscriptions;
+    }
+
+    private final SingleFlight flight = new SingleFlight();
+}